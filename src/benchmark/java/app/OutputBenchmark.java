@@ -0,0 +1,87 @@
+package app;
+
+import org.openjdk.jmh.annotations.*;
+import pca.ParticleStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of writing the frames of a simulation, for the text format, with and without the disk, and the binary format.
+ * Each operation writes FRAMES frames and closes the output, so the time includes the writer thread finishing.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class OutputBenchmark {
+    private static final int FRAMES = 10;
+    private static final int BUFFERS = 16;
+    private static final double DT = 0.001;
+    private static final double DT2 = 0.01;
+    private static final long SEED = 42;
+
+    @Param({"25", "1000", "10000", "100000"})
+    public int particles;
+
+    private ParticleStore store;
+    private File file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Random random = new Random(SEED);
+        this.store = new ParticleStore(this.particles);
+        for (int i = 0; i < this.particles; i++) {
+            this.store.setPosition(i, 100 * random.nextDouble(), 25 * random.nextDouble());
+            this.store.setVelocity(i, random.nextGaussian(), random.nextGaussian());
+        }
+        this.file = File.createTempFile("trajectory", ".out");
+        this.file.deleteOnExit();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.file.delete();
+    }
+
+    @Benchmark
+    public void textFormatting() throws IOException {
+        this.writeFrames(new TrajectoryWriter(new DiscardingOutputStream(), this.particles, BUFFERS));
+    }
+
+    @Benchmark
+    public void textFile() throws IOException {
+        this.writeFrames(new TrajectoryWriter(this.file.getPath(), this.particles));
+    }
+
+    @Benchmark
+    public void binaryFile() throws IOException {
+        this.writeFrames(new BinaryTrajectoryWriter(this.file.getPath(), this.particles, DT, DT2));
+    }
+
+    private void writeFrames(TrajectoryOutput output) throws IOException {
+        try (TrajectoryOutput out = output) {
+            for (int f = 0; f < FRAMES; f++) {
+                out.accept(f * DT2, this.store);
+            }
+        }
+    }
+
+    /**
+     * Stream that drops every byte, so only the formatting is measured
+     */
+    private static final class DiscardingOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
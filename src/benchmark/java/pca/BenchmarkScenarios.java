@@ -0,0 +1,64 @@
+package pca;
+
+import java.util.Random;
+
+/**
+ * Seeded synthetic scenarios for the benchmarks. The area grows with the amount of obstacles so the crowd keeps
+ * the density of the default configuration, a 4:1 corridor with people walking up and down and the main particle
+ * starting at the left, in the middle of the height. Obstacles may overlap, which does not change the cost of a step.
+ */
+final class BenchmarkScenarios {
+    // People per square meter of the default configuration, 25 people in 36x9
+    private static final double DENSITY = 25.0 / (36 * 9);
+    private static final double ASPECT = 4;
+
+    private static final double RADIUS = 0.3;
+    private static final double MASS = 70;
+    private static final double COMFORT_RADIUS = 1.2;
+    private static final double WALL_DISTANCE = 0.6;
+    private static final double PEOPLE_VELOCITY = 1.3;
+    private static final double PREF_SPEED = 1.3;
+    private static final double PREF_TIME = 0.5;
+    private static final double MAX_SPEED = 2;
+    private static final double DMIN = 0.6;
+
+    private BenchmarkScenarios() {
+    }
+
+    /**
+     * Creates a scenario with the main particle and the given amount of obstacles
+     *
+     * @param obstacles amount of obstacles
+     * @param seed      seed of the positions and directions
+     * @return the scenario
+     */
+    static Scenario create(int obstacles, long seed) {
+        double height = Math.sqrt(obstacles / DENSITY / ASPECT);
+        double width = ASPECT * height;
+
+        Random random = new Random(seed);
+        int count = obstacles + 1;
+        double[] radius = new double[count];
+        double[] mass = new double[count];
+        double[] x = new double[count];
+        double[] y = new double[count];
+        double[] vx = new double[count];
+        double[] vy = new double[count];
+
+        radius[0] = RADIUS;
+        mass[0] = MASS;
+        x[0] = COMFORT_RADIUS;
+        y[0] = height / 2;
+
+        for (int i = 1; i < count; i++) {
+            radius[i] = RADIUS;
+            mass[i] = MASS;
+            x[i] = 1 + (width - 3) * random.nextDouble();
+            y[i] = 1 + (height - 2) * random.nextDouble();
+            vy[i] = random.nextBoolean() ? PEOPLE_VELOCITY : -PEOPLE_VELOCITY;
+        }
+
+        return new Scenario(width, height, COMFORT_RADIUS, WALL_DISTANCE, PREF_SPEED, PREF_TIME, MAX_SPEED, DMIN, Scenario.ANTICIPATION_TIME,
+                radius, mass, x, y, vx, vy);
+    }
+}
@@ -0,0 +1,150 @@
+package pca;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Accuracy of each integrator and step against a reference run with RK4 and a step of 0.0001, over seeded scenarios
+ * of the default configuration. Every run fixes the horizon of the desired velocity at the step of the production
+ * runs, otherwise the model itself changes with the step. For every run it measures how far the main particle is from the reference along the
+ * run, with the reference interpolated at the time of each step, and how much its metrics differ from the reference:
+ * the time to reach the goal, the distance travelled, the mean velocity and the amount of collisions.
+ * The values are averaged over the scenarios, together with the time each run took.
+ * It is not a JMH benchmark, it runs with:
+ * mvn -P benchmark compile exec:exec@accuracy -Daccuracy.args="0.001,0.002,0.005,0.01 5"
+ */
+public final class IntegratorAccuracy {
+    private static final double REFERENCE_DT = 0.0001;
+    private static final Integrator REFERENCE_INTEGRATOR = Integrator.RK4;
+    private static final double DT2 = 0.01;
+    private static final double HORIZON = 0.001;
+    private static final int OBSTACLES = 25;
+    private static final long FIRST_SEED = 42;
+
+    private static final String DEFAULT_DTS = "0.001,0.002,0.005,0.01";
+    private static final int DEFAULT_SCENARIOS = 5;
+
+    // Frames are not stored, the trajectory is recorded every step
+    private static final FrameSink NO_FRAMES = (time, store) -> {
+    };
+
+    private IntegratorAccuracy() {
+    }
+
+    /**
+     * Positions of the main particle after every step, with the metrics of the run
+     */
+    private static final class Run implements SimulationObserver {
+        private double[] times = new double[1024];
+        private double[] x = new double[1024];
+        private double[] y = new double[1024];
+        private int count;
+        private final AgentMetrics metrics = new AgentMetrics(0);
+        private long millis;
+
+        @Override
+        public void onStart(PredictiveCollisionAvoidance simulation) {
+            this.metrics.onStart(simulation);
+            this.record(simulation);
+        }
+
+        @Override
+        public void onStep(PredictiveCollisionAvoidance simulation) {
+            this.metrics.onStep(simulation);
+            this.record(simulation);
+        }
+
+        @Override
+        public void onFinish(PredictiveCollisionAvoidance simulation, SimulationOutcome outcome) {
+            this.metrics.onFinish(simulation, outcome);
+        }
+
+        private void record(PredictiveCollisionAvoidance simulation) {
+            if (this.count == this.times.length) {
+                this.times = Arrays.copyOf(this.times, this.count * 2);
+                this.x = Arrays.copyOf(this.x, this.count * 2);
+                this.y = Arrays.copyOf(this.y, this.count * 2);
+            }
+            this.times[this.count] = simulation.getTotalTime();
+            this.x[this.count] = simulation.getStore().getX(0);
+            this.y[this.count] = simulation.getStore().getY(0);
+            this.count++;
+        }
+
+        /**
+         * Position of the main particle at the given time, linearly interpolated between the steps around it
+         */
+        private double[] positionAt(double time) {
+            int k = Arrays.binarySearch(this.times, 0, this.count, time);
+            if (k >= 0) {
+                return new double[]{this.x[k], this.y[k]};
+            }
+            int after = Math.min(-k - 1, this.count - 1);
+            int before = Math.max(after - 1, 0);
+            double span = this.times[after] - this.times[before];
+            double w = span > 0 ? Math.max(0, Math.min(1, (time - this.times[before]) / span)) : 0;
+            return new double[]{this.x[before] + w * (this.x[after] - this.x[before]), this.y[before] + w * (this.y[after] - this.y[before])};
+        }
+    }
+
+    private static Run simulate(Scenario scenario, Integrator integrator, double dt) {
+        PredictiveCollisionAvoidance simulation = new PredictiveCollisionAvoidance(dt, DT2, scenario, false, 1);
+        simulation.setIntegrator(integrator);
+        simulation.setDesiredVelocityHorizon(HORIZON);
+        Run run = new Run();
+        simulation.addObserver(run);
+        long start = System.nanoTime();
+        simulation.simulate(NO_FRAMES);
+        run.millis = (System.nanoTime() - start) / 1_000_000;
+        return run;
+    }
+
+    public static void main(String[] args) {
+        String[] dtValues = (args.length > 0 ? args[0] : DEFAULT_DTS).split(",");
+        int scenarios = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_SCENARIOS;
+
+        // Running the references once per scenario
+        Scenario[] scenario = new Scenario[scenarios];
+        Run[] reference = new Run[scenarios];
+        for (int k = 0; k < scenarios; k++) {
+            scenario[k] = BenchmarkScenarios.create(OBSTACLES, FIRST_SEED + k);
+            reference[k] = simulate(scenario[k], REFERENCE_INTEGRATOR, REFERENCE_DT);
+            System.out.printf(Locale.US, "Reference %d: time %.3f, distance %.4f, velocity %.4f, collisions %d, %d ms%n", k,
+                    reference[k].metrics.getTimeToGoal(), reference[k].metrics.getDistance(), reference[k].metrics.getMeanVelocity(),
+                    reference[k].metrics.getCollisions(), reference[k].millis);
+        }
+
+        System.out.println("integrator,dt,rms_error,max_error,time_error,distance_error,velocity_error,collision_error,millis");
+        for (String value : dtValues) {
+            double dt = Double.parseDouble(value.trim());
+            for (Integrator integrator : Integrator.values()) {
+                double rms = 0, max = 0, time = 0, distance = 0, velocity = 0, collisions = 0, millis = 0;
+                for (int k = 0; k < scenarios; k++) {
+                    Run run = simulate(scenario[k], integrator, dt);
+                    Run ref = reference[k];
+
+                    // Comparing the steps both runs went through
+                    double squares = 0, worst = 0;
+                    int compared = 0;
+                    double end = Math.min(run.times[run.count - 1], ref.times[ref.count - 1]);
+                    for (int i = 0; i < run.count && run.times[i] <= end; i++) {
+                        double[] position = ref.positionAt(run.times[i]);
+                        double error = Math.hypot(run.x[i] - position[0], run.y[i] - position[1]);
+                        squares += error * error;
+                        worst = Math.max(worst, error);
+                        compared++;
+                    }
+                    rms += Math.sqrt(squares / Math.max(compared, 1));
+                    max = Math.max(max, worst);
+                    time += Math.abs(run.metrics.getTimeToGoal() - ref.metrics.getTimeToGoal());
+                    distance += Math.abs(run.metrics.getDistance() - ref.metrics.getDistance());
+                    velocity += Math.abs(run.metrics.getMeanVelocity() - ref.metrics.getMeanVelocity());
+                    collisions += Math.abs(run.metrics.getCollisions() - ref.metrics.getCollisions());
+                    millis += run.millis;
+                }
+                System.out.printf(Locale.US, "%s,%s,%.6f,%.6f,%.6f,%.6f,%.6f,%.2f,%.0f%n", integrator.name().toLowerCase(), value.trim(),
+                        rms / scenarios, max, time / scenarios, distance / scenarios, velocity / scenarios, collisions / scenarios, millis / scenarios);
+            }
+        }
+    }
+}
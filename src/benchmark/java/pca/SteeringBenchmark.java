@@ -0,0 +1,110 @@
+package pca;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the collision prediction: the time to collision of a single obstacle, the same computation over
+ * every obstacle one by one and in batches, and the whole steering of the main particle, which adds the search
+ * of the closest collisions in the obstacle grid and the avoidance maneuvers.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SteeringBenchmark {
+    private static final double DT = 0.001;
+    private static final double DT2 = 0.01;
+    private static final long SEED = 42;
+    private static final int MAIN_PARTICLE_ID = 0;
+
+    @Param({"25", "1000", "10000", "100000"})
+    public int obstacles;
+
+    private ParticleStore store;
+    private PredictiveCollisionAvoidance simulation;
+    private PredictiveCollisionAvoidance.SteeringState steeringState;
+    private double[] times;
+    private int next;
+
+    /* State of the particles gathered into arrays, as the batch kernel reads it */
+    private double[] x;
+    private double[] y;
+    private double[] vx;
+    private double[] vy;
+    private double[] radius;
+
+    /* Single obstacle solved as a block of one */
+    private final double[] pairX = new double[1];
+    private final double[] pairY = new double[1];
+    private final double[] pairVx = new double[1];
+    private final double[] pairVy = new double[1];
+    private final double[] pairRadius = new double[1];
+    private final double[] pairTime = new double[1];
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Scenario scenario = BenchmarkScenarios.create(this.obstacles, SEED);
+        this.simulation = new PredictiveCollisionAvoidance(DT, DT2, scenario, false, 1);
+        this.store = this.simulation.getStore();
+        this.steeringState = new PredictiveCollisionAvoidance.SteeringState(this.store.size());
+        this.times = new double[this.store.size()];
+
+        // Moving the main particle towards its goal, so it has a desired velocity
+        this.simulation.steerAgent(MAIN_PARTICLE_ID, this.steeringState);
+
+        this.x = this.store.x.toArray();
+        this.y = this.store.y.toArray();
+        this.vx = this.store.vx.toArray();
+        this.vy = this.store.vy.toArray();
+        this.radius = this.store.radius.toArray();
+    }
+
+    @Benchmark
+    public double collisionTime() {
+        this.next = this.next % this.obstacles + 1;
+        return this.collisionTime(this.next);
+    }
+
+    @Benchmark
+    public void collisionTimesScalar(Blackhole blackhole) {
+        for (int j = 1; j < this.store.size(); j++) {
+            blackhole.consume(this.collisionTime(j));
+        }
+    }
+
+    @Benchmark
+    public double[] collisionTimesBatch() {
+        ParticleStore s = this.store;
+        int i = MAIN_PARTICLE_ID;
+        CollisionKernel.collisionTimes(s.x.get(i), s.y.get(i), s.desiredVx.get(i), s.desiredVy.get(i), s.comfortRadius.get(i), s.anticipationTime.get(i),
+                this.x, this.y, this.vx, this.vy, this.radius, s.size(), this.times);
+        return this.times;
+    }
+
+    @Benchmark
+    public double steerMainParticle() {
+        this.simulation.steerAgent(MAIN_PARTICLE_ID, this.steeringState);
+        return this.store.nextVx.get(MAIN_PARTICLE_ID);
+    }
+
+    /**
+     * Computes the time to collision of the main particle with a single obstacle, with the kernel over a block of one
+     */
+    private double collisionTime(int j) {
+        ParticleStore s = this.store;
+        int i = MAIN_PARTICLE_ID;
+        this.pairX[0] = this.x[j];
+        this.pairY[0] = this.y[j];
+        this.pairVx[0] = this.vx[j];
+        this.pairVy[0] = this.vy[j];
+        this.pairRadius[0] = this.radius[j];
+        CollisionKernel.collisionTimes(s.x.get(i), s.y.get(i), s.desiredVx.get(i), s.desiredVy.get(i), s.comfortRadius.get(i), s.anticipationTime.get(i),
+                this.pairX, this.pairY, this.pairVx, this.pairVy, this.pairRadius, 1, this.pairTime);
+        return this.pairTime[0];
+    }
+}
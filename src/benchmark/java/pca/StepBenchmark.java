@@ -0,0 +1,110 @@
+package pca;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a whole simulation step, as latency of a single step and as steps per second.
+ * The simulation is recreated for every iteration, so every iteration starts from the same crowd, and it is
+ * started again from that crowd as soon as it finishes, so the steps measured are always of agents still walking.
+ * The restart is part of the step it happens in, which is one every few thousand steps.
+ * The particles are kept on the heap, in direct memory or in a memory-mapped file, the store is created once for the
+ * trial and filled again with the crowd every time the simulation starts.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class StepBenchmark {
+    private static final double DT = 0.001;
+    private static final double DT2 = 0.01;
+    private static final long SEED = 42;
+
+    // Frames are not stored, only the step is measured
+    private static final FrameSink NO_FRAMES = (time, store) -> {
+    };
+
+    @Param({"25", "1000", "10000", "100000"})
+    public int obstacles;
+
+    @Param({"false", "true"})
+    public boolean multiAgent;
+
+    @Param({"4"})
+    public int threads;
+
+    @Param({"heap", "direct", "mapped"})
+    public String storage;
+
+    private Scenario scenario;
+    private ParticleStore store;
+    private File storeFile;
+    private PredictiveCollisionAvoidance simulation;
+
+    @Setup(Level.Trial)
+    public void createScenario() throws IOException {
+        this.scenario = BenchmarkScenarios.create(this.obstacles, SEED);
+        int particleCount = this.scenario.getParticleCount();
+        switch (this.storage) {
+            case "heap":
+                this.store = new ParticleStore(particleCount);
+                break;
+            case "direct":
+                this.store = ParticleStore.allocateDirect(particleCount);
+                break;
+            case "mapped":
+                this.storeFile = File.createTempFile("particles", ".bin");
+                this.store = ParticleStore.map(this.storeFile.getPath(), particleCount);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown storage " + this.storage);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteStoreFile() {
+        if (this.storeFile != null) {
+            this.storeFile.delete();
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void startSimulation() {
+        this.simulation = new PredictiveCollisionAvoidance(DT, DT2, this.scenario, this.store, this.multiAgent, this.threads);
+        this.simulation.start(NO_FRAMES);
+    }
+
+    @TearDown(Level.Iteration)
+    public void stopSimulation() {
+        this.simulation.stop();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public double stepLatency() {
+        return this.step();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public double stepsPerSecond() {
+        return this.step();
+    }
+
+    /**
+     * Runs a step, starting the simulation again first if the agents reached their goals or the time limit
+     */
+    private double step() {
+        if (this.simulation.isFinished()) {
+            this.stopSimulation();
+            this.startSimulation();
+        }
+        this.simulation.step();
+        return this.simulation.getTotalTime();
+    }
+}
@@ -0,0 +1,127 @@
+package app;
+
+import pca.ParticleStore;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Writes the frames of a simulation in the binary trajectory format, read back by TrajectoryReader.
+ *
+ * All values are little endian. The file starts with a header of HEADER_SIZE bytes:
+ * magic, version (int), particle count (int), dt (double), dt2 (double), frame count (long)
+ * and frame index offset (long). Then every frame takes the same amount of bytes: the time followed
+ * by the x, y, vx and vy columns, each with one double per particle. The frame index at the end of the file
+ * has the time of every frame. If the run dies before closing the writer, the frame count and index are
+ * missing, but the frames written so far can still be read.
+ */
+public class BinaryTrajectoryWriter implements TrajectoryOutput {
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        PROPERTIES
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    static final byte[] MAGIC = new byte[]{'P', 'C', 'A', 'T', 'R', 'A', 'J', 0};
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    static final int COLUMNS = 4;
+    static final int FRAME_COUNT_OFFSET = 32;
+
+    private final FileChannel channel;
+    private final ByteBuffer frame;
+    private final DoubleBuffer frameValues;
+    private final double[] state;
+    private double[] times = new double[1024];
+    private long frameCount;
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        CONSTRUCTORS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    public BinaryTrajectoryWriter(String fileName, int particleCount, double dt, double dt2) throws IOException {
+        this.channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.frame = ByteBuffer.allocateDirect((int) getFrameSize(particleCount)).order(ByteOrder.LITTLE_ENDIAN);
+        this.frameValues = this.frame.asDoubleBuffer();
+        this.state = new double[particleCount * COLUMNS];
+
+        // Writing the header, the frame count and index offset are filled when closing
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(MAGIC).putInt(VERSION).putInt(particleCount).putDouble(dt).putDouble(dt2).putLong(0).putLong(0);
+        ((Buffer) header).clear();
+        this.writeFully(header);
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        METHODS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Size in bytes of every frame for the given amount of particles
+     */
+    static long getFrameSize(int particleCount) {
+        return Double.BYTES * (1 + (long) COLUMNS * particleCount);
+    }
+
+    /**
+     * Writes the frame, transposing the state of the particles into columns
+     */
+    @Override
+    public void accept(double time, ParticleStore store) {
+        store.copyState(this.state);
+
+        ((Buffer) this.frameValues).clear();
+        this.frameValues.put(time);
+        for (int column = 0; column < COLUMNS; column++) {
+            for (int i = column; i < this.state.length; i += COLUMNS) {
+                this.frameValues.put(this.state[i]);
+            }
+        }
+
+        // Keeping the time for the index
+        if (this.frameCount == this.times.length) {
+            this.times = Arrays.copyOf(this.times, this.times.length * 2);
+        }
+        this.times[(int) this.frameCount++] = time;
+
+        try {
+            ((Buffer) this.frame).clear();
+            this.writeFully(this.frame);
+        } catch (IOException e) {
+            throw new IllegalStateException("Error writing to the output file", e);
+        }
+    }
+
+    /**
+     * Writes the frame index and completes the header
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            long indexOffset = this.channel.position();
+
+            ByteBuffer index = ByteBuffer.allocate((int) (Double.BYTES * this.frameCount)).order(ByteOrder.LITTLE_ENDIAN);
+            index.asDoubleBuffer().put(this.times, 0, (int) this.frameCount);
+            this.writeFully(index);
+
+            ByteBuffer counts = ByteBuffer.allocate(2 * Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            counts.putLong(this.frameCount).putLong(indexOffset);
+            ((Buffer) counts).flip();
+            this.channel.position(FRAME_COUNT_OFFSET);
+            this.writeFully(counts);
+        } finally {
+            this.channel.close();
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            this.channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package app;
+
+import org.apache.commons.cli.*;
+
+public class GeneratorOptionsParser {
+    protected static double width;
+    protected static double height;
+    protected static int peopleCount;
+    protected static double peopleRadius;
+    protected static double peopleVelocity;
+    protected static double comfortRadius;
+    protected static double wallDistance;
+    protected static double mainRadius;
+    protected static double mass;
+    protected static double borderLimit;
+    protected static double prefSpeed;
+    protected static double prefTime;
+    protected static double maxSpeed;
+    protected static double dmin;
+    protected static long seed;
+    protected static String staticFile;
+    protected static String dynamicFile;
+
+    // Same parameters as generator/generate_configuration.py
+    private static final String PARAM_W = "W";
+    private static final String PARAM_H = "H";
+    private static final String PARAM_P = "p";
+    private static final String PARAM_PR = "pr";
+    private static final String PARAM_PV = "pv";
+    private static final String PARAM_CR = "cr";
+    private static final String PARAM_WR = "wr";
+    private static final String PARAM_R = "r";
+    private static final String PARAM_M = "m";
+    private static final String PARAM_BL = "bl";
+    private static final String PARAM_PS = "ps";
+    private static final String PARAM_PT = "pt";
+    private static final String PARAM_MS = "ms";
+    private static final String PARAM_DMIN = "dmin";
+    private static final String PARAM_S = "s";
+    private static final String PARAM_SF = "sf";
+    private static final String PARAM_DF = "df";
+
+    // Defaults of scripts/run_all.sh
+    private static final String DEFAULT_W = "36";
+    private static final String DEFAULT_H = "9";
+    private static final String DEFAULT_P = "25";
+    private static final String DEFAULT_PR = "0.3";
+    private static final String DEFAULT_PV = "1.3";
+    private static final String DEFAULT_CR = "1.2";
+    private static final String DEFAULT_WR = "0.6";
+    private static final String DEFAULT_R = "0.3";
+    private static final String DEFAULT_M = "70";
+    private static final String DEFAULT_BL = "1";
+    private static final String DEFAULT_PS = "1.3";
+    private static final String DEFAULT_PT = "0.5";
+    private static final String DEFAULT_MS = "2";
+    private static final String DEFAULT_DMIN = "0.6";
+    private static final String DEFAULT_S = "0";
+    private static final String DEFAULT_SF = "./parsable_files/static.txt";
+    private static final String DEFAULT_DF = "./parsable_files/dynamic.txt";
+
+    /**
+     * Generates the options for the help.
+     *
+     * @return Options object with the options
+     */
+    private static Options GenerateOptions() {
+        Options options = new Options();
+        options.addOption(PARAM_W, "area_width", true, "Width of the area, defaults to " + DEFAULT_W + ".");
+        options.addOption(PARAM_H, "area_height", true, "Height of the area, defaults to " + DEFAULT_H + ".");
+        options.addOption(PARAM_P, "people_count", true, "Amount of people besides the main particle, defaults to " + DEFAULT_P + ".");
+        options.addOption(PARAM_PR, "people_radius", true, "Radius of the people, defaults to " + DEFAULT_PR + ".");
+        options.addOption(PARAM_PV, "people_velocity", true, "Speed of the people, defaults to " + DEFAULT_PV + ".");
+        options.addOption(PARAM_CR, "comfort_radius", true, "Comfort radius of the main particle, defaults to " + DEFAULT_CR + ".");
+        options.addOption(PARAM_WR, "wall_radius", true, "Safe distance to the walls, defaults to " + DEFAULT_WR + ".");
+        options.addOption(PARAM_R, "main_radius", true, "Radius of the main particle, defaults to " + DEFAULT_R + ".");
+        options.addOption(PARAM_M, "people_mass", true, "Mass of every particle, defaults to " + DEFAULT_M + ".");
+        options.addOption(PARAM_BL, "border_limit", true, "Distance from the borders where no people are placed, defaults to " + DEFAULT_BL + ".");
+        options.addOption(PARAM_PS, "pref_speed", true, "Preferred speed of the main particle, defaults to " + DEFAULT_PS + ".");
+        options.addOption(PARAM_PT, "pref_time", true, "Time the main particle takes to reach its preferred speed, defaults to " + DEFAULT_PT + ".");
+        options.addOption(PARAM_MS, "max_speed", true, "Maximum speed of the main particle, defaults to " + DEFAULT_MS + ".");
+        options.addOption(PARAM_DMIN, "dmin", true, "Minimum distance, defaults to " + DEFAULT_DMIN + ".");
+        options.addOption(PARAM_S, "seed", true, "Seed of the random positions and directions, defaults to " + DEFAULT_S + ".");
+        options.addOption(PARAM_SF, "static_file", true, "Path to the static file, defaults to " + DEFAULT_SF + ".");
+        options.addOption(PARAM_DF, "dynamic_file", true, "Path to the dynamic file, defaults to " + DEFAULT_DF + ".");
+        return options;
+    }
+
+    public static void ParseOptions(String[] args) {
+        // Generating the options
+        Options options = GenerateOptions();
+
+        // Creating the parser
+        CommandLineParser parser = new DefaultParser();
+
+        try {
+            // Parsing the options
+            CommandLine cmd = parser.parse(options, args);
+
+            // Area and people
+            width = Double.parseDouble(cmd.getOptionValue(PARAM_W, DEFAULT_W));
+            height = Double.parseDouble(cmd.getOptionValue(PARAM_H, DEFAULT_H));
+            peopleCount = Integer.parseInt(cmd.getOptionValue(PARAM_P, DEFAULT_P));
+            peopleRadius = Double.parseDouble(cmd.getOptionValue(PARAM_PR, DEFAULT_PR));
+            peopleVelocity = Double.parseDouble(cmd.getOptionValue(PARAM_PV, DEFAULT_PV));
+            borderLimit = Double.parseDouble(cmd.getOptionValue(PARAM_BL, DEFAULT_BL));
+            mass = Double.parseDouble(cmd.getOptionValue(PARAM_M, DEFAULT_M));
+            if (peopleCount < 0) {
+                System.out.println("The amount of people can not be negative");
+                System.exit(1);
+            }
+
+            // Main particle and model
+            comfortRadius = Double.parseDouble(cmd.getOptionValue(PARAM_CR, DEFAULT_CR));
+            wallDistance = Double.parseDouble(cmd.getOptionValue(PARAM_WR, DEFAULT_WR));
+            mainRadius = Double.parseDouble(cmd.getOptionValue(PARAM_R, DEFAULT_R));
+            prefSpeed = Double.parseDouble(cmd.getOptionValue(PARAM_PS, DEFAULT_PS));
+            prefTime = Double.parseDouble(cmd.getOptionValue(PARAM_PT, DEFAULT_PT));
+            maxSpeed = Double.parseDouble(cmd.getOptionValue(PARAM_MS, DEFAULT_MS));
+            dmin = Double.parseDouble(cmd.getOptionValue(PARAM_DMIN, DEFAULT_DMIN));
+
+            // Output
+            seed = Long.parseLong(cmd.getOptionValue(PARAM_S, DEFAULT_S));
+            staticFile = cmd.getOptionValue(PARAM_SF, DEFAULT_SF);
+            dynamicFile = cmd.getOptionValue(PARAM_DF, DEFAULT_DF);
+        } catch (ParseException e) {
+            System.out.println("Unknown command used");
+
+            // Display the help again
+            help(options);
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid number " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Prints the help for the system to the standard output, given the options
+     *
+     * @param options Options to be printed as help
+     */
+    private static void help(Options options) {
+        HelpFormatter formatter = new HelpFormatter();
+        formatter.printHelp("app.ScenarioGenerator", options);
+        System.exit(0);
+    }
+}
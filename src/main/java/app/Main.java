@@ -1,17 +1,36 @@
 package app;
 
-import org.apache.commons.lang3.tuple.ImmutablePair;
+import pca.AgentMetrics;
+import pca.NeighbourLists;
+import pca.ObstacleContacts;
+import pca.OffHeapFrames;
+import pca.ParticleStore;
 import pca.PredictiveCollisionAvoidance;
+import pca.ProfileSummary;
+import pca.Profiler;
+import pca.Scenario;
+import pca.SimulationCheckpoint;
+import pca.SimulationObserver;
+import pca.SimulationOutcome;
+import pca.TriggeredCapture;
 
 import java.io.BufferedWriter;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.IOException;
+import java.io.Writer;
 import java.time.Instant;
-import java.util.List;
+import java.util.Locale;
 
 public class Main {
     private static final String SIMULATION_FILE = "./parsable_files/output.txt";
+    private static final String BINARY_SIMULATION_FILE = "./parsable_files/output.bin";
+    private static final int MAIN_PARTICLE_ID = 0;
+    private static final String OFF_HEAP_FRAMES_SUFFIX = ".frames";
 
     public static void main(String[] args) {
         long startTime = Instant.now().toEpochMilli();
@@ -19,21 +38,93 @@ public class Main {
         // Parsing the options
         OptionsParser.ParseOptions(args);
 
+        // Loading the initial configuration, or the checkpoint to continue from
+        PredictiveCollisionAvoidance pca = null;
         try {
-            // Parsing the initial configuration
-            ConfigurationParser.ParseConfiguration(OptionsParser.staticFile, OptionsParser.dynamicFile);
+            pca = OptionsParser.restoreFile != null ? RestoreSimulation() : CreateSimulation();
         } catch (FileNotFoundException e) {
             System.out.println("File not found");
             System.exit(1);
+        } catch (IOException e) {
+            System.out.println("Invalid configuration: " + e.getMessage());
+            System.exit(1);
+        }
+
+        // Running the simulation split in strips, each one in its own process
+        if (OptionsParser.strips > 0 || OptionsParser.workers != null) {
+            RunStrips(pca);
+            System.out.format("Total Time %d millis\n", Instant.now().toEpochMilli() - startTime);
+            return;
         }
 
-        PredictiveCollisionAvoidance pca = new PredictiveCollisionAvoidance(OptionsParser.dt, OptionsParser.dt2, ConfigurationParser.particles.values(), ConfigurationParser.height, ConfigurationParser.width, ConfigurationParser.safeWallDistance, ConfigurationParser.dmin);
+        // Measuring the main particle while the simulation runs
+        AgentMetrics metrics = new AgentMetrics(MAIN_PARTICLE_ID);
+        pca.addObserver(metrics);
 
-        // Running the simulation
-        List<ImmutablePair<Double, double[][]>> results = pca.simulate();
+        // Saving the state of the simulation once it reaches the checkpoint time
+        if (OptionsParser.checkpointFile != null) {
+            pca.addObserver(new CheckpointSaver(OptionsParser.checkpointFile, OptionsParser.checkpointTime));
+        }
 
-        // Generating the output
-        GenerateOutputFile(results);
+        // Running the simulation, the output is written while it runs
+        SimulationOutcome outcome = null;
+        TriggeredCapture capture = null;
+        try (TrajectoryOutput output = CreateOutput(pca); OffHeapFrames offHeapFrames = CreateOffHeapFrames(pca)) {
+            // Only writing the frames around the events of the main particle
+            if (OptionsParser.captureBefore >= 0) {
+                capture = new TriggeredCapture(MAIN_PARTICLE_ID, OptionsParser.captureTime, OptionsParser.captureBefore, OptionsParser.captureAfter, output, offHeapFrames);
+                pca.addObserver(capture);
+            }
+            outcome = pca.simulate(capture != null ? capture : output);
+        } catch (FileNotFoundException e) {
+            System.out.println("File not found");
+        } catch (IOException e) {
+            System.out.println("Error writing to the output file");
+        }
+
+        // Reporting the events the frames were captured around
+        if (capture != null) {
+            System.out.format("Captured %d frames around %d predicted collisions, %d overlaps and %d wall approaches\n", capture.getFramesWritten(),
+                    capture.getEvents(TriggeredCapture.Trigger.PREDICTED_COLLISION), capture.getEvents(TriggeredCapture.Trigger.OVERLAP),
+                    capture.getEvents(TriggeredCapture.Trigger.WALL));
+        }
+
+        // Reporting how often the neighbour lists were reused
+        NeighbourLists lists = pca.getNeighbourLists();
+        if (lists != null) {
+            System.out.format(Locale.US, "Neighbour lists rebuilt %d times and reused %d times (%.1f%%), %.1f%% of the listed obstacles within the reach\n",
+                    lists.getRebuilds(), lists.getReuses(), 100 * lists.getReuseRate(), 100 * lists.getHitRate());
+        }
+
+        // Reporting the contacts between the obstacles
+        ObstacleContacts contacts = pca.getObstacleContacts();
+        if (contacts != null) {
+            System.out.format("Resolved %d contacts between the obstacles out of %d pairs tested\n", contacts.getContacts(), contacts.getPairsTested());
+        }
+
+        // In case the program was stuck, reporting it was forced to stop
+        if (outcome == SimulationOutcome.TIME_LIMIT) {
+            System.out.println("Forced stopped the program, time limit reached");
+            System.exit(1);
+        }
+
+        // Saving the profile of the run
+        if (OptionsParser.profileFile != null) {
+            try {
+                SaveProfile(OptionsParser.profileFile, pca.getProfile());
+            } catch (IOException e) {
+                System.out.println("Error writing to the profile file");
+            }
+        }
+
+        // Saving the metrics of the run
+        if (OptionsParser.statsFile != null) {
+            try {
+                SaveStats(OptionsParser.statsFile, pca.getDmin(), metrics);
+            } catch (IOException e) {
+                System.out.println("Error writing to the statistics file");
+            }
+        }
 
         long endTime = Instant.now().toEpochMilli();
 
@@ -42,35 +133,214 @@ public class Main {
         System.out.format("Total Time %d millis\n", total);
     }
 
+    /////////////////////////////////////////////////////////////////////////////////////
+    //                                    SIMULATION
+    /////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Creates the simulation from the static and dynamic files, given the simulation options
+     *
+     * @return the simulation at its initial state
+     */
+    private static PredictiveCollisionAvoidance CreateSimulation() throws IOException {
+        Scenario scenario = ScenarioLoader.LoadScenario(OptionsParser.staticFile, OptionsParser.dynamicFile, OptionsParser.goalsFile);
+
+        ParticleStore store = CreateStore(scenario.getParticleCount());
+        PredictiveCollisionAvoidance pca = new PredictiveCollisionAvoidance(OptionsParser.dt, OptionsParser.dt2, scenario, store, OptionsParser.multiAgent, OptionsParser.threads);
+        if (OptionsParser.adaptiveStep) {
+            pca.setAdaptiveStepping(OptionsParser.minStep, OptionsParser.maxStep, OptionsParser.stepTolerance);
+        }
+        pca.setIntegrator(OptionsParser.integrator);
+        pca.setDesiredVelocityHorizon(OptionsParser.desiredHorizon);
+        if (OptionsParser.geometryFile != null) {
+            pca.setGeometry(ScenarioLoader.LoadGeometry(OptionsParser.geometryFile));
+        }
+        if (OptionsParser.analyticObstacles) {
+            pca.useAnalyticObstacles();
+        }
+        if (OptionsParser.activationQueue) {
+            pca.useActivationQueue();
+        }
+        if (!Double.isNaN(OptionsParser.neighbourSkin)) {
+            pca.useNeighbourLists(OptionsParser.neighbourSkin);
+        }
+        if (OptionsParser.contactModel != null) {
+            pca.useObstacleContacts(OptionsParser.contactModel, OptionsParser.contactStiffness);
+        }
+        return pca;
+    }
+
+    /**
+     * Restores the simulation from the checkpoint file, forking it if another minimum distance or weights were given.
+     * The checkpoint keeps the options of the simulation it was taken from.
+     *
+     * @return the simulation at the time of the checkpoint
+     */
+    private static PredictiveCollisionAvoidance RestoreSimulation() throws IOException {
+        SimulationCheckpoint checkpoint;
+        try (InputStream input = new FileInputStream(OptionsParser.restoreFile)) {
+            checkpoint = SimulationCheckpoint.read(input);
+        }
+
+        if (OptionsParser.forkDmin == null && OptionsParser.forkWeights == null) {
+            return checkpoint.restore();
+        }
+        double dmin = OptionsParser.forkDmin != null ? OptionsParser.forkDmin : checkpoint.getDmin();
+        double[] weights = OptionsParser.forkWeights != null ? OptionsParser.forkWeights : checkpoint.getBaseWeights();
+        return checkpoint.fork(dmin, weights);
+    }
+
+    /**
+     * Runs the simulation in the strip workers, writing the merged frames to the output
+     *
+     * @param pca simulation at its initial state, its store receives the frames
+     */
+    private static void RunStrips(PredictiveCollisionAvoidance pca) {
+        SimulationOutcome outcome = null;
+        try (StripCoordinator coordinator = OptionsParser.workers != null
+                ? new StripCoordinator(OptionsParser.workers)
+                : StripCoordinator.startWorkers(OptionsParser.strips);
+             TrajectoryOutput output = CreateOutput(pca)) {
+            outcome = coordinator.simulate(pca, output);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.exit(1);
+        } catch (IOException e) {
+            System.out.println("Error running the strips: " + e.getMessage());
+            System.exit(1);
+        }
+
+        // In case the program was stuck, reporting it was forced to stop
+        if (outcome == SimulationOutcome.TIME_LIMIT) {
+            System.out.println("Forced stopped the program, time limit reached");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Saves the state of the simulation to a file in the first step that reaches the given time
+     */
+    private static final class CheckpointSaver implements SimulationObserver {
+        private final String file;
+        private final double time;
+        private boolean saved;
+
+        CheckpointSaver(String file, double time) {
+            this.file = file;
+            this.time = time;
+        }
+
+        @Override
+        public void onStep(PredictiveCollisionAvoidance simulation) {
+            if (this.saved || simulation.getTotalTime() < this.time) {
+                return;
+            }
+            this.saved = true;
+            try (OutputStream output = new FileOutputStream(this.file, false)) {
+                simulation.checkpoint().write(output);
+            } catch (IOException e) {
+                System.out.println("Error writing to the checkpoint file");
+            }
+        }
+    }
+
     /////////////////////////////////////////////////////////////////////////////////////
     //                                    OUTPUT
     /////////////////////////////////////////////////////////////////////////////////////
 
-    private static void GenerateOutputFile(List<ImmutablePair<Double, double[][]>> results){
-        try {
-            BufferedWriter bf = new BufferedWriter(new FileWriter(Main.SIMULATION_FILE, false));
-
-            for (ImmutablePair<Double, double[][]> pair : results){
-                // Adding the time
-                bf.append(String.format("%f\n", pair.left));
-
-                for (double[] result : pair.right) {
-                    // Adding the position
-                    String line = result[0] + " " + result[1] + " " + result[2] + " " + result[3] + "\n";
-                    try {
-                        bf.append(line);
-                    } catch (IOException e) {
-                        System.out.println("Error writing to the output file");
-                    }
-                }
+    /**
+     * Creates the output for the simulation frames, given the output options
+     *
+     * @param pca simulation whose frames are written
+     * @return output where the frames are written
+     */
+    private static TrajectoryOutput CreateOutput(PredictiveCollisionAvoidance pca) throws IOException {
+        int particleCount = pca.getStore().size();
+        if (OptionsParser.outputMode.equals(OptionsParser.OUTPUT_BINARY)) {
+            String file = OptionsParser.outputFile != null ? OptionsParser.outputFile : Main.BINARY_SIMULATION_FILE;
+            return new BinaryTrajectoryWriter(file, particleCount, pca.getDt(), pca.getDt2());
+        }
+        String file = OptionsParser.outputFile != null ? OptionsParser.outputFile : Main.SIMULATION_FILE;
+        return new TrajectoryWriter(file, particleCount);
+    }
+
+    /**
+     * Creates the store the particles are kept in, given the off-heap option
+     *
+     * @param particleCount amount of particles of the simulation
+     * @return store on the heap, in direct memory or in a memory-mapped file
+     */
+    private static ParticleStore CreateStore(int particleCount) throws IOException {
+        if (OptionsParser.offHeap == null) {
+            return new ParticleStore(particleCount);
+        }
+        if (OptionsParser.offHeap.equals(OptionsParser.OFF_HEAP_DIRECT)) {
+            return ParticleStore.allocateDirect(particleCount);
+        }
+        return ParticleStore.map(OptionsParser.offHeap, particleCount);
+    }
+
+    /**
+     * Creates the off-heap frames the frames before the events are kept in, given the capture options.
+     * A mapped store already uses the file at the given path, so the frames are mapped next to it.
+     *
+     * @param pca simulation whose frames are kept
+     * @return frames in direct memory or in a memory-mapped file, null if they are kept on the heap or not captured
+     */
+    private static OffHeapFrames CreateOffHeapFrames(PredictiveCollisionAvoidance pca) throws IOException {
+        if (OptionsParser.offHeap == null || OptionsParser.captureBefore < 0) {
+            return null;
+        }
+        int particleCount = pca.getStore().size();
+        if (OptionsParser.offHeap.equals(OptionsParser.OFF_HEAP_DIRECT)) {
+            return OffHeapFrames.allocateDirect(particleCount);
+        }
+        return OffHeapFrames.map(OptionsParser.offHeap + OFF_HEAP_FRAMES_SUFFIX, particleCount);
+    }
+
+    /**
+     * Writes the profile of the phases, as CSV if the file ends in .csv and as JSON otherwise
+     *
+     * @param profileFile file where the profile is written
+     * @param profile     measurements of the phases
+     */
+    static void SaveProfile(String profileFile, ProfileSummary profile) throws IOException {
+        if (!Profiler.ENABLED) {
+            System.out.println("Profiling is disabled, run with -Dpca.profile=true to measure the phases");
+        }
+        try (Writer writer = new BufferedWriter(new FileWriter(profileFile, false))) {
+            if (profileFile.endsWith(".csv")) {
+                profile.writeCsv(writer);
+            } else {
+                profile.writeJson(writer);
             }
+        }
+    }
 
-            bf.close();
-        } catch (FileNotFoundException e) {
-            System.out.println("File not found");
-        } catch (IOException e) {
-            System.out.println("Error writing to the output file");
+    /**
+     * Appends the metrics of the run to the statistics file, with the same format post/postprocessing.py -s uses
+     *
+     * @param statsFile file where the metrics are appended
+     * @param dmin      minimum distance used in the run
+     * @param metrics   metrics of the main particle
+     */
+    private static void SaveStats(String statsFile, double dmin, AgentMetrics metrics) throws IOException {
+        try (Writer writer = new FileWriter(statsFile, true)) {
+            WriteStats(writer, dmin, metrics.getTimeToGoal(), metrics.getDistance(), metrics.getMeanVelocity(), metrics.getCollisions());
         }
     }
-}
 
+    /**
+     * Writes the block of the statistics file with the metrics of a run
+     *
+     * @param writer writer of the statistics file
+     * @param dmin   minimum distance used in the run
+     */
+    static void WriteStats(Writer writer, double dmin, double timeToGoal, double distance, double meanVelocity, int collisions) throws IOException {
+        writer.write(dmin + "\n");
+        writer.write("t " + timeToGoal + "\n");
+        writer.write("d " + distance + "\n");
+        writer.write("v " + meanVelocity + "\n");
+        writer.write("c " + collisions + "\n");
+    }
+}
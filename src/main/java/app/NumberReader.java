@@ -0,0 +1,247 @@
+package app;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads whitespace separated numbers straight from the bytes of a stream.
+ * Decimal numbers whose digits fit exactly in a double and with small exponents, which is what the configuration
+ * files have, are converted with a single exact multiplication or division. Any other token is handed to
+ * Double.parseDouble, so every value is the same one Double.parseDouble would give.
+ */
+public class NumberReader implements Closeable {
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        PROPERTIES
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    // Longest mantissa that is always exactly representable as a double
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    // Powers of ten that are exactly representable as a double
+    private static final double[] POWERS_OF_TEN = new double[]{
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private final InputStream input;
+    private final String name;
+    private byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    private int limit;
+    private boolean eof;
+    private long tokens;
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        CONSTRUCTORS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * @param input stream with the numbers, closed with the reader
+     * @param name  name of the source, used in error messages
+     */
+    public NumberReader(InputStream input, String name) {
+        this.input = input;
+        this.name = name;
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        METHODS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Skips the whitespace before the next number
+     *
+     * @return true if there is another number to read
+     */
+    public boolean hasNext() throws IOException {
+        while (true) {
+            while (this.position < this.limit) {
+                if (!isWhitespace(this.buffer[this.position])) {
+                    return true;
+                }
+                this.position++;
+            }
+            if (!this.fill()) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Reads the next number
+     *
+     * @return the value of the number
+     * @throws EOFException if there are no more numbers
+     * @throws IOException  if the next token is not a number
+     */
+    public double nextDouble() throws IOException {
+        if (!this.hasNext()) {
+            throw new EOFException("Missing values in " + this.name);
+        }
+
+        // Making sure the whole token is in the buffer
+        int end = this.findTokenEnd();
+        int start = this.position;
+        this.position = end;
+        this.tokens++;
+
+        double value = parseSimple(this.buffer, start, end);
+        if (!Double.isNaN(value)) {
+            return value;
+        }
+        String token = new String(this.buffer, start, end - start, StandardCharsets.US_ASCII);
+        try {
+            return Double.parseDouble(token);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid number '" + token + "' at value " + this.tokens + " of " + this.name, e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.input.close();
+    }
+
+    /**
+     * Finds the end of the token at the current position, reading more bytes if it reaches the end of the buffer
+     */
+    private int findTokenEnd() throws IOException {
+        int end = this.position;
+        while (true) {
+            while (end < this.limit) {
+                if (isWhitespace(this.buffer[end])) {
+                    return end;
+                }
+                end++;
+            }
+            int offset = end - this.position;
+            if (!this.fill()) {
+                return this.limit;
+            }
+            end = this.position + offset;
+        }
+    }
+
+    /**
+     * Reads more bytes, keeping the ones after the current position at the start of the buffer
+     *
+     * @return false if there are no more bytes
+     */
+    private boolean fill() throws IOException {
+        if (this.eof) {
+            return false;
+        }
+
+        // Moving the unread bytes to the start, growing the buffer if a single token fills it
+        int remaining = this.limit - this.position;
+        if (remaining == this.buffer.length) {
+            byte[] larger = new byte[this.buffer.length * 2];
+            System.arraycopy(this.buffer, this.position, larger, 0, remaining);
+            this.buffer = larger;
+        } else {
+            System.arraycopy(this.buffer, this.position, this.buffer, 0, remaining);
+        }
+        this.position = 0;
+        this.limit = remaining;
+
+        int read = this.input.read(this.buffer, this.limit, this.buffer.length - this.limit);
+        if (read < 0) {
+            this.eof = true;
+            return false;
+        }
+        this.limit += read;
+        return true;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t' || b == '\f';
+    }
+
+    /**
+     * Converts a token of the form [+-]digits[.digits][(e|E)[+-]digits] when the result is exact,
+     * which happens when the digits fit in a double and the power of ten is exactly representable
+     *
+     * @return the value, NaN if the token has to be converted by Double.parseDouble
+     */
+    static double parseSimple(byte[] bytes, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+            negative = bytes[i] == '-';
+            i++;
+        }
+
+        // Mantissa, the digits after the point lower the exponent
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean point = false;
+        boolean any = false;
+        for (; i < end; i++) {
+            byte b = bytes[i];
+            if (b >= '0' && b <= '9') {
+                any = true;
+                if (mantissa == 0 && b == '0') {
+                    // Leading zeros are not significant
+                    if (point) {
+                        exponent--;
+                    }
+                    continue;
+                }
+                if (++digits > 18) {
+                    return Double.NaN;
+                }
+                mantissa = mantissa * 10 + (b - '0');
+                if (point) {
+                    exponent--;
+                }
+            } else if (b == '.' && !point) {
+                point = true;
+            } else {
+                break;
+            }
+        }
+        if (!any) {
+            return Double.NaN;
+        }
+
+        // Exponent
+        if (i < end && (bytes[i] == 'e' || bytes[i] == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+                negativeExponent = bytes[i] == '-';
+                i++;
+            }
+            if (i == end) {
+                return Double.NaN;
+            }
+            int value = 0;
+            for (; i < end; i++) {
+                byte b = bytes[i];
+                if (b < '0' || b > '9' || value > 1000) {
+                    return Double.NaN;
+                }
+                value = value * 10 + (b - '0');
+            }
+            exponent += negativeExponent ? -value : value;
+        }
+        if (i != end) {
+            return Double.NaN;
+        }
+
+        if (mantissa == 0) {
+            return negative ? -0.0 : 0.0;
+        }
+        if (mantissa > MAX_EXACT_MANTISSA || exponent < -22 || exponent > 22) {
+            return Double.NaN;
+        }
+
+        // Both the mantissa and the power are exact, so the single operation is correctly rounded
+        double value = exponent >= 0 ? mantissa * POWERS_OF_TEN[exponent] : mantissa / POWERS_OF_TEN[-exponent];
+        return negative ? -value : value;
+    }
+}
@@ -1,17 +1,92 @@
 package app;
 
 import org.apache.commons.cli.*;
+import pca.Integrator;
+import pca.ObstacleContacts;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
 
 public class OptionsParser {
     protected static Double dt;
     protected static Double dt2;
     protected static String dynamicFile;
     protected static String staticFile;
+    protected static boolean multiAgent;
+    protected static int threads;
+    protected static String goalsFile;
+    protected static String outputMode;
+    protected static String outputFile;
+    protected static String statsFile;
+    protected static boolean adaptiveStep;
+    protected static double minStep;
+    protected static double maxStep;
+    protected static double stepTolerance;
+    protected static boolean analyticObstacles;
+    protected static boolean activationQueue;
+    protected static String profileFile;
+    protected static String checkpointFile;
+    protected static double checkpointTime;
+    protected static String restoreFile;
+    protected static Double forkDmin;
+    protected static double[] forkWeights;
+    protected static int strips;
+    protected static List<InetSocketAddress> workers;
+    protected static int captureBefore;
+    protected static int captureAfter;
+    protected static double captureTime;
+    protected static String offHeap;
+    protected static String geometryFile;
+    protected static Integrator integrator;
+    protected static double desiredHorizon;
+    protected static double neighbourSkin;
+    protected static ObstacleContacts.Model contactModel;
+    protected static double contactStiffness;
 
     private static final String PARAM_DT = "dt";
     private static final String PARAM_DT2 = "dt2";
     private static final String PARAM_SF = "sf";
     private static final String PARAM_DF = "df";
+    private static final String PARAM_MA = "ma";
+    private static final String PARAM_TH = "th";
+    private static final String PARAM_GF = "gf";
+    private static final String PARAM_OM = "om";
+    private static final String PARAM_OF = "of";
+    private static final String PARAM_ST = "st";
+    private static final String PARAM_AS = "as";
+    private static final String PARAM_DTMIN = "dtmin";
+    private static final String PARAM_DTMAX = "dtmax";
+    private static final String PARAM_TOL = "tol";
+    private static final String PARAM_AO = "ao";
+    private static final String PARAM_AQ = "aq";
+    private static final String PARAM_PF = "pf";
+    private static final String PARAM_CKF = "ckf";
+    private static final String PARAM_CKT = "ckt";
+    private static final String PARAM_RS = "rs";
+    private static final String PARAM_FD = "fd";
+    private static final String PARAM_FW = "fw";
+    private static final String PARAM_SP = "sp";
+    private static final String PARAM_WK = "wk";
+    private static final String PARAM_CB = "cb";
+    private static final String PARAM_CA = "ca";
+    private static final String PARAM_CT = "ct";
+    private static final String PARAM_OH = "oh";
+    private static final String PARAM_GM = "gm";
+    private static final String PARAM_IG = "ig";
+    private static final String PARAM_VH = "vh";
+    private static final String PARAM_NL = "nl";
+    private static final String PARAM_OC = "oc";
+    private static final String PARAM_CK = "ck";
+
+    private static final String DEFAULT_TOL = "0.05";
+    private static final String DEFAULT_CT = "1";
+    private static final String DEFAULT_IG = "semi_implicit_euler";
+    private static final String DEFAULT_CK = "5000";
+
+    protected static final String OUTPUT_TEXT = "text";
+    protected static final String OUTPUT_BINARY = "binary";
+    protected static final String OFF_HEAP_DIRECT = "direct";
 
     /**
      * Generates the options for the help.
@@ -24,6 +99,36 @@ public class OptionsParser {
         options.addOption(PARAM_DT2, "delta2", true, "Delta 2 of time to be used.");
         options.addOption(PARAM_SF, "static_file", true, "Path to the file with the static values.");
         options.addOption(PARAM_DF, "dynamic_file", true, "Path to the file with the dynamic values.");
+        options.addOption(PARAM_MA, "multi_agent", false, "Every particle steers towards its own goal, instead of only the main one.");
+        options.addOption(PARAM_TH, "threads", true, "Amount of threads used to steer the agents in multi agent mode, defaults to the available processors.");
+        options.addOption(PARAM_GF, "goals_file", true, "Path to the file with the goal of each agent in multi agent mode.");
+        options.addOption(PARAM_OM, "output_mode", true, "Format of the output, text (default) or binary.");
+        options.addOption(PARAM_OF, "output_file", true, "Path to the output file, defaults to ./parsable_files/output.txt or output.bin.");
+        options.addOption(PARAM_ST, "stats_file", true, "Path to the statistics file where the metrics of the main particle are appended.");
+        options.addOption(PARAM_AS, "adaptive_step", false, "Every step picks its size from the time to the closest collision, wall and goal, instead of using dt.");
+        options.addOption(PARAM_DTMIN, "min_step", true, "Smallest adaptive step, defaults to dt.");
+        options.addOption(PARAM_DTMAX, "max_step", true, "Largest adaptive step, defaults to dt2.");
+        options.addOption(PARAM_TOL, "step_tolerance", true, "Fraction of the shortest time scale covered by an adaptive step, defaults to " + DEFAULT_TOL + ".");
+        options.addOption(PARAM_AO, "analytic_obstacles", false, "The obstacles are computed from their closed form motion only where needed, instead of moving them every step.");
+        options.addOption(PARAM_AQ, "activation_queue", false, "Only the obstacles that may be reached within the anticipation time are tested, waking the rest when they could get close.");
+        options.addOption(PARAM_PF, "profile_file", true, "Path to the file where the profile of the phases is written, as CSV if it ends in .csv and JSON otherwise. Needs -Dpca.profile=true.");
+        options.addOption(PARAM_CKF, "checkpoint_file", true, "Path to the file where the state of the simulation is saved, at the checkpoint time.");
+        options.addOption(PARAM_CKT, "checkpoint_time", true, "Time at which the state of the simulation is saved, defaults to 0.");
+        options.addOption(PARAM_RS, "restore_file", true, "Path to a checkpoint to continue from instead of the static and dynamic files, with its time deltas and options.");
+        options.addOption(PARAM_FD, "fork_dmin", true, "Minimum distance used after restoring the checkpoint, defaults to the one of the checkpoint.");
+        options.addOption(PARAM_FW, "fork_weights", true, "Comma separated weights of the 3 closest collisions used after restoring the checkpoint, defaults to the ones of the checkpoint.");
+        options.addOption(PARAM_SP, "strips", true, "Amount of strips the area is split in along x, each one simulated by a worker process started on this machine.");
+        options.addOption(PARAM_WK, "workers", true, "Comma separated host:port of running app.StripWorker processes, each one simulating a strip of the area from left to right.");
+        options.addOption(PARAM_CB, "capture_before", true, "Only the frames around the events of the main particle are written, keeping this amount of frames before each one.");
+        options.addOption(PARAM_CA, "capture_after", true, "Amount of frames written after each event of the main particle, defaults to the amount before.");
+        options.addOption(PARAM_CT, "capture_time", true, "Predicted collisions of the main particle sooner than this time are events, defaults to " + DEFAULT_CT + ".");
+        options.addOption(PARAM_OH, "off_heap", true, "The particles, and the frames kept before the events, are stored off the heap, in direct memory with direct or in a memory-mapped file at the given path.");
+        options.addOption(PARAM_GM, "geometry_file", true, "Path to the file with the walls inside the area, each one the amount of vertices, 1 if it is a closed solid polygon or 0, and the x and y of each vertex.");
+        options.addOption(PARAM_IG, "integrator", true, "Scheme moving the agents, explicit_euler, semi_implicit_euler (default), velocity_verlet or rk4.");
+        options.addOption(PARAM_VH, "velocity_horizon", true, "Time the desired velocity looks ahead with the wall and goal forces, defaults to the step. Fixing it keeps the model when changing the step.");
+        options.addOption(PARAM_NL, "neighbour_lists", true, "The obstacles around each agent are kept in a list reused between steps, built with this skin added to the reach and rebuilt once they may have moved through it.");
+        options.addOption(PARAM_OC, "obstacle_contacts", true, "The obstacles collide with each other instead of passing through, elastic or soft.");
+        options.addOption(PARAM_CK, "contact_stiffness", true, "Force per unit of overlap of the soft contacts, defaults to " + DEFAULT_CK + ".");
         return options;
     }
 
@@ -38,24 +143,28 @@ public class OptionsParser {
             // Parsing the options
             CommandLine cmd = parser.parse(options, args);
 
+            // A checkpoint already has the time deltas and the particles
+            restoreFile = cmd.getOptionValue(PARAM_RS);
+            boolean restoring = restoreFile != null;
+
             // Checking if the time amount is present
-            if (!cmd.hasOption(PARAM_DT)){
+            if (!cmd.hasOption(PARAM_DT) && !restoring){
                 System.out.println("A delta time must be specified");
                 System.exit(1);
             }
             // Retrieving the amount of "time" to iterate with
-            dt = Double.parseDouble(cmd.getOptionValue(PARAM_DT));
+            dt = restoring ? null : Double.parseDouble(cmd.getOptionValue(PARAM_DT));
 
             // Checking if the time amount is present
-            if (!cmd.hasOption(PARAM_DT2)){
+            if (!cmd.hasOption(PARAM_DT2) && !restoring){
                 System.out.println("A delta 2 time must be specified");
                 System.exit(1);
             }
             // Retrieving the amount of "time" to iterate with
-            dt2 = Double.parseDouble(cmd.getOptionValue(PARAM_DT2));
+            dt2 = restoring ? null : Double.parseDouble(cmd.getOptionValue(PARAM_DT2));
 
             // Checking if the files were present
-            if (!cmd.hasOption(PARAM_SF) | !cmd.hasOption(PARAM_DF)){
+            if ((!cmd.hasOption(PARAM_SF) | !cmd.hasOption(PARAM_DF)) && !restoring){
                 System.out.println("The dynamic and static file path are needed");
                 System.exit(1);
             }
@@ -63,6 +172,188 @@ public class OptionsParser {
             // Parsing the file paths
             staticFile = cmd.getOptionValue(PARAM_SF);
             dynamicFile = cmd.getOptionValue(PARAM_DF);
+
+            // Parsing the multi agent options
+            multiAgent = cmd.hasOption(PARAM_MA);
+            threads = cmd.hasOption(PARAM_TH) ? Integer.parseInt(cmd.getOptionValue(PARAM_TH)) : Runtime.getRuntime().availableProcessors();
+            goalsFile = cmd.getOptionValue(PARAM_GF);
+
+            // Parsing the output options
+            outputMode = cmd.getOptionValue(PARAM_OM, OUTPUT_TEXT);
+            if (!outputMode.equals(OUTPUT_TEXT) && !outputMode.equals(OUTPUT_BINARY)){
+                System.out.println("The output mode must be text or binary");
+                System.exit(1);
+            }
+            outputFile = cmd.getOptionValue(PARAM_OF);
+            statsFile = cmd.getOptionValue(PARAM_ST);
+
+            // Parsing the adaptive step options
+            adaptiveStep = cmd.hasOption(PARAM_AS);
+            minStep = cmd.hasOption(PARAM_DTMIN) ? Double.parseDouble(cmd.getOptionValue(PARAM_DTMIN)) : restoring ? 0 : dt;
+            maxStep = cmd.hasOption(PARAM_DTMAX) ? Double.parseDouble(cmd.getOptionValue(PARAM_DTMAX)) : restoring ? 0 : dt2;
+            stepTolerance = Double.parseDouble(cmd.getOptionValue(PARAM_TOL, DEFAULT_TOL));
+            if (adaptiveStep && (minStep <= 0 || maxStep < minStep || stepTolerance <= 0)){
+                System.out.println("The adaptive steps must be positive with the minimum under the maximum, and the tolerance positive");
+                System.exit(1);
+            }
+
+            // Parsing the obstacle motion options
+            analyticObstacles = cmd.hasOption(PARAM_AO);
+            if (analyticObstacles && multiAgent){
+                System.out.println("The obstacles only have a closed form motion when they are not agents");
+                System.exit(1);
+            }
+            activationQueue = cmd.hasOption(PARAM_AQ);
+            if (activationQueue && multiAgent){
+                System.out.println("The activation queue only follows the main particle");
+                System.exit(1);
+            }
+
+            neighbourSkin = cmd.hasOption(PARAM_NL) ? Double.parseDouble(cmd.getOptionValue(PARAM_NL)) : Double.NaN;
+            if (cmd.hasOption(PARAM_NL) && !(neighbourSkin >= 0)){
+                System.out.println("The skin of the neighbour lists can not be negative");
+                System.exit(1);
+            }
+            if (cmd.hasOption(PARAM_NL) && (analyticObstacles || activationQueue)){
+                System.out.println("The neighbour lists need the obstacles moved every step and replace the activation queue");
+                System.exit(1);
+            }
+            if (cmd.hasOption(PARAM_NL) && restoring){
+                System.out.println("A restored checkpoint keeps its neighbour lists");
+                System.exit(1);
+            }
+
+            // Parsing the contacts between the obstacles, a checkpoint already has its contacts
+            contactModel = null;
+            if (cmd.hasOption(PARAM_OC)){
+                try {
+                    contactModel = ObstacleContacts.Model.valueOf(cmd.getOptionValue(PARAM_OC).toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    System.out.println("The contacts between the obstacles must be elastic or soft");
+                    System.exit(1);
+                }
+            }
+            contactStiffness = Double.parseDouble(cmd.getOptionValue(PARAM_CK, DEFAULT_CK));
+            if (contactModel == ObstacleContacts.Model.SOFT && !(contactStiffness > 0)){
+                System.out.println("The stiffness of the soft contacts must be positive");
+                System.exit(1);
+            }
+            if (cmd.hasOption(PARAM_CK) && contactModel != ObstacleContacts.Model.SOFT){
+                System.out.println("The stiffness is only used by the soft contacts");
+                System.exit(1);
+            }
+            if (contactModel != null && (multiAgent || analyticObstacles)){
+                System.out.println("Only the obstacles that are not agents and move every step collide with each other");
+                System.exit(1);
+            }
+            if (contactModel != null && restoring){
+                System.out.println("A restored checkpoint keeps its contacts between the obstacles");
+                System.exit(1);
+            }
+
+            // Parsing the profiling options
+            profileFile = cmd.getOptionValue(PARAM_PF);
+
+            // Parsing the checkpoint options
+            checkpointFile = cmd.getOptionValue(PARAM_CKF);
+            checkpointTime = Double.parseDouble(cmd.getOptionValue(PARAM_CKT, "0"));
+            forkDmin = cmd.hasOption(PARAM_FD) ? Double.parseDouble(cmd.getOptionValue(PARAM_FD)) : null;
+            if (cmd.hasOption(PARAM_FW)){
+                String[] weights = cmd.getOptionValue(PARAM_FW).split(",");
+                forkWeights = new double[weights.length];
+                for (int i = 0; i < weights.length; i++) {
+                    forkWeights[i] = Double.parseDouble(weights[i].trim());
+                }
+                if (forkWeights.length != 3){
+                    System.out.println("There must be a weight for each of the 3 closest collisions");
+                    System.exit(1);
+                }
+            }
+            if ((forkDmin != null || forkWeights != null) && !restoring){
+                System.out.println("Only a restored checkpoint can be forked");
+                System.exit(1);
+            }
+
+            // Parsing the distribution options
+            strips = cmd.hasOption(PARAM_SP) ? Integer.parseInt(cmd.getOptionValue(PARAM_SP)) : 0;
+            if (cmd.hasOption(PARAM_SP) && strips < 1){
+                System.out.println("There must be at least one strip");
+                System.exit(1);
+            }
+            workers = null;
+            if (cmd.hasOption(PARAM_WK)){
+                workers = new ArrayList<>();
+                for (String address : cmd.getOptionValue(PARAM_WK).split(",")) {
+                    int separator = address.lastIndexOf(':');
+                    if (separator < 0){
+                        System.out.println("The workers must be given as host:port");
+                        System.exit(1);
+                    }
+                    workers.add(new InetSocketAddress(address.substring(0, separator).trim(), Integer.parseInt(address.substring(separator + 1).trim())));
+                }
+            }
+            if (strips > 0 && workers != null){
+                System.out.println("The strips are either started here or given as workers");
+                System.exit(1);
+            }
+            if ((strips > 0 || workers != null) && (adaptiveStep || analyticObstacles || activationQueue || !Double.isNaN(neighbourSkin) || contactModel != null)){
+                System.out.println("The strips only run fixed steps with the obstacles moved every step");
+                System.exit(1);
+            }
+            if ((strips > 0 || workers != null) && (statsFile != null || profileFile != null || checkpointFile != null)){
+                System.out.println("The statistics, profile and checkpoint are only kept when the simulation is not split in strips");
+                System.exit(1);
+            }
+
+            // Parsing the capture options, no frames are kept around events without them
+            captureBefore = cmd.hasOption(PARAM_CB) ? Integer.parseInt(cmd.getOptionValue(PARAM_CB)) : -1;
+            captureAfter = cmd.hasOption(PARAM_CA) ? Integer.parseInt(cmd.getOptionValue(PARAM_CA)) : captureBefore;
+            captureTime = Double.parseDouble(cmd.getOptionValue(PARAM_CT, DEFAULT_CT));
+            if (cmd.hasOption(PARAM_CB) && (captureBefore < 0 || captureAfter < 0)){
+                System.out.println("The amount of frames captured around the events can not be negative");
+                System.exit(1);
+            }
+            if (cmd.hasOption(PARAM_CA) && !cmd.hasOption(PARAM_CB)){
+                System.out.println("The frames after the events are only captured with the frames before them");
+                System.exit(1);
+            }
+            offHeap = cmd.getOptionValue(PARAM_OH);
+            if (offHeap != null && restoring){
+                System.out.println("A restored simulation keeps its particles on the heap, like the checkpoint it is read from");
+                System.exit(1);
+            }
+            if (captureBefore >= 0 && (strips > 0 || workers != null)){
+                System.out.println("The frames around the events are only captured when the simulation is not split in strips");
+                System.exit(1);
+            }
+
+            // Parsing the geometry options, a checkpoint already has its geometry
+            geometryFile = cmd.getOptionValue(PARAM_GM);
+            if (geometryFile != null && (restoring || analyticObstacles)){
+                System.out.println("The geometry is only added to new simulations whose obstacles move every step");
+                System.exit(1);
+            }
+
+            // Parsing the integrator, a checkpoint already has its integrator
+            try {
+                integrator = Integrator.valueOf(cmd.getOptionValue(PARAM_IG, DEFAULT_IG).toUpperCase());
+            } catch (IllegalArgumentException e) {
+                System.out.println("The integrator must be explicit_euler, semi_implicit_euler, velocity_verlet or rk4");
+                System.exit(1);
+            }
+            desiredHorizon = cmd.hasOption(PARAM_VH) ? Double.parseDouble(cmd.getOptionValue(PARAM_VH)) : Double.NaN;
+            if (cmd.hasOption(PARAM_VH) && !(desiredHorizon > 0)){
+                System.out.println("The horizon of the desired velocity must be positive");
+                System.exit(1);
+            }
+            if ((cmd.hasOption(PARAM_IG) || cmd.hasOption(PARAM_VH)) && restoring){
+                System.out.println("A restored checkpoint keeps its integrator and horizon");
+                System.exit(1);
+            }
+            if (integrator != Integrator.SEMI_IMPLICIT_EULER && (strips > 0 || workers != null)){
+                System.out.println("The strips only move the agents with the semi-implicit Euler integrator");
+                System.exit(1);
+            }
         } catch (ParseException e) {
             System.out.println("Unknown command used");
 
@@ -0,0 +1,189 @@
+package app;
+
+import pca.Scenario;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Generates random scenarios the same way generator/generate_configuration.py does: the main particle starts
+ * at the left, in the middle of the height, and the rest of the people are placed at random walking up or down.
+ * Like the script, a person only overlaps another one if they are too close on the x axis. The people already placed
+ * are kept in buckets along the x axis as wide as the largest overlapping distance, so every position tried is only
+ * checked against the people of its bucket and the neighbouring ones, instead of every person placed.
+ */
+public class ScenarioGenerator {
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        PROPERTIES
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    // Maximum amount of positions tried for a single person before giving up
+    private static final int MAX_ATTEMPTS = 1000000;
+
+    private final double width;
+    private final double height;
+    private final int peopleCount;
+    private final double peopleRadius;
+    private final double peopleVelocity;
+    private final double comfortRadius;
+    private final double wallDistance;
+    private final double mainRadius;
+    private final double mass;
+    private final double borderLimit;
+    private final double prefSpeed;
+    private final double prefTime;
+    private final double maxSpeed;
+    private final double dmin;
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        CONSTRUCTORS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Takes the same parameters as the generator script, in the same order
+     */
+    public ScenarioGenerator(double width, double height, int peopleCount, double peopleRadius, double peopleVelocity, double comfortRadius, double wallDistance,
+                             double mainRadius, double mass, double borderLimit, double prefSpeed, double prefTime, double maxSpeed, double dmin) {
+        this.width = width;
+        this.height = height;
+        this.peopleCount = peopleCount;
+        this.peopleRadius = peopleRadius;
+        this.peopleVelocity = peopleVelocity;
+        this.comfortRadius = comfortRadius;
+        this.wallDistance = wallDistance;
+        this.mainRadius = mainRadius;
+        this.mass = mass;
+        this.borderLimit = borderLimit;
+        this.prefSpeed = prefSpeed;
+        this.prefTime = prefTime;
+        this.maxSpeed = maxSpeed;
+        this.dmin = dmin;
+    }
+
+    /**
+     * Generates a scenario with the given options and writes it to the static and dynamic files
+     */
+    public static void main(String[] args) {
+        long startTime = Instant.now().toEpochMilli();
+
+        // Parsing the options
+        GeneratorOptionsParser.ParseOptions(args);
+
+        ScenarioGenerator generator = new ScenarioGenerator(GeneratorOptionsParser.width, GeneratorOptionsParser.height, GeneratorOptionsParser.peopleCount,
+                GeneratorOptionsParser.peopleRadius, GeneratorOptionsParser.peopleVelocity, GeneratorOptionsParser.comfortRadius, GeneratorOptionsParser.wallDistance,
+                GeneratorOptionsParser.mainRadius, GeneratorOptionsParser.mass, GeneratorOptionsParser.borderLimit, GeneratorOptionsParser.prefSpeed,
+                GeneratorOptionsParser.prefTime, GeneratorOptionsParser.maxSpeed, GeneratorOptionsParser.dmin);
+        try {
+            ScenarioWriter.SaveScenario(generator.generate(GeneratorOptionsParser.seed), GeneratorOptionsParser.staticFile, GeneratorOptionsParser.dynamicFile);
+        } catch (IllegalStateException e) {
+            System.out.println(e.getMessage());
+            System.exit(1);
+        } catch (IOException e) {
+            System.out.println("Error writing the scenario files");
+            System.exit(1);
+        }
+
+        long endTime = Instant.now().toEpochMilli();
+
+        System.out.format("Total Time %d millis\n", endTime - startTime);
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        METHODS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Generates a scenario, the same seed always gives the same scenario
+     *
+     * @param seed seed of the random positions and directions
+     * @return the scenario
+     * @throws IllegalStateException if the people do not fit in the area
+     */
+    public Scenario generate(long seed) {
+        Random random = new Random(seed);
+        int count = this.peopleCount + 1;
+        double[] radius = new double[count];
+        double[] masses = new double[count];
+        double[] x = new double[count];
+        double[] y = new double[count];
+        double[] vx = new double[count];
+        double[] vy = new double[count];
+
+        // The main particle starts at its comfort radius from the left wall
+        radius[0] = this.mainRadius;
+        masses[0] = this.mass;
+        x[0] = this.comfortRadius;
+        y[0] = this.height / 2;
+
+        // Determine limits to be used for X and Y
+        double xLeft = this.borderLimit, xRight = this.width - 2 * this.borderLimit;
+        double yBottom = this.borderLimit, yTop = this.height - this.borderLimit;
+
+        // Buckets along x, a linked list of the people in each one, starting with the main particle
+        double overlapDistance = Math.max(this.mainRadius, this.peopleRadius) + this.peopleRadius + this.mainRadius;
+        double bucketWidth = Math.max(overlapDistance, this.width / count);
+        if (!(bucketWidth > 0)) {
+            bucketWidth = 1;
+        }
+        int[] bucketHead = new int[(int) Math.min(Math.max(this.width, 0) / bucketWidth, count) + 1];
+        int[] bucketNext = new int[count];
+        Arrays.fill(bucketHead, -1);
+        this.addToBucket(bucketHead, bucketNext, bucketWidth, x, 0);
+
+        for (int generated = 1; generated < count; generated++) {
+            int attempts = 0;
+            double targetX, targetY;
+            do {
+                if (attempts++ == MAX_ATTEMPTS) {
+                    throw new IllegalStateException("Could not place " + this.peopleCount + " people without overlapping, only " + (generated - 1) + " fit");
+                }
+                targetX = xLeft + (xRight - xLeft) * random.nextDouble();
+                targetY = yBottom + (yTop - yBottom) * random.nextDouble();
+            } while (this.isOverlapping(bucketHead, bucketNext, bucketWidth, radius, x, targetX));
+
+            radius[generated] = this.peopleRadius;
+            masses[generated] = this.mass;
+            x[generated] = targetX;
+            y[generated] = targetY;
+            vy[generated] = random.nextDouble() > 0.5 ? -1 * this.peopleVelocity : this.peopleVelocity;
+            this.addToBucket(bucketHead, bucketNext, bucketWidth, x, generated);
+        }
+
+        return new Scenario(this.width, this.height, this.comfortRadius, this.wallDistance, this.prefSpeed, this.prefTime, this.maxSpeed, this.dmin,
+                Scenario.ANTICIPATION_TIME, radius, masses, x, y, vx, vy);
+    }
+
+    /**
+     * Checks if a person at the given x overlaps any of the people already placed, only looking at the x axis.
+     * People farther than a bucket never overlap, so only the bucket of the person and its neighbours are checked.
+     */
+    private boolean isOverlapping(int[] bucketHead, int[] bucketNext, double bucketWidth, double[] radius, double[] x, double targetX) {
+        int bucket = getBucket(bucketHead, bucketWidth, targetX);
+        int last = Math.min(bucket + 1, bucketHead.length - 1);
+        for (int b = Math.max(bucket - 1, 0); b <= last; b++) {
+            for (int i = bucketHead[b]; i != -1; i = bucketNext[i]) {
+                double distance = Math.abs(x[i] - targetX) - radius[i] - this.peopleRadius - this.mainRadius;
+                if (distance <= 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void addToBucket(int[] bucketHead, int[] bucketNext, double bucketWidth, double[] x, int i) {
+        int bucket = getBucket(bucketHead, bucketWidth, x[i]);
+        bucketNext[i] = bucketHead[bucket];
+        bucketHead[bucket] = i;
+    }
+
+    /**
+     * Bucket of the given x, the positions out of the area go to the first or last bucket
+     */
+    private static int getBucket(int[] bucketHead, double bucketWidth, double x) {
+        int bucket = (int) Math.floor(x / bucketWidth);
+        return Math.max(0, Math.min(bucket, bucketHead.length - 1));
+    }
+}
@@ -0,0 +1,186 @@
+package app;
+
+import pca.Scenario;
+import pca.StaticGeometry;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Loads scenarios from the static, dynamic and goals files, and the walls inside the area from the geometry files.
+ * Nothing is shared between calls, so several scenarios can be loaded at the same time from different threads.
+ */
+public class ScenarioLoader {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * Parses the files given with the static and dynamic information in order to create the initial state of the simulation
+     *
+     * @param staticFileName  File path for the static file
+     * @param dynamicFileName File path for the dynamic file
+     * @return the scenario
+     */
+    public static Scenario LoadScenario(String staticFileName, String dynamicFileName) throws IOException {
+        try (NumberReader staticReader = OpenReader(staticFileName); NumberReader dynamicReader = OpenReader(dynamicFileName)) {
+            return LoadScenario(staticReader, dynamicReader);
+        }
+    }
+
+    /**
+     * Parses the files with the static and dynamic information and the goals of the agents
+     *
+     * @param staticFileName  File path for the static file
+     * @param dynamicFileName File path for the dynamic file
+     * @param goalsFileName   File path for the goals file, null if the particles use the default goals
+     * @return the scenario
+     */
+    public static Scenario LoadScenario(String staticFileName, String dynamicFileName, String goalsFileName) throws IOException {
+        Scenario scenario = LoadScenario(staticFileName, dynamicFileName);
+        if (goalsFileName == null) {
+            return scenario;
+        }
+        try (NumberReader goalsReader = OpenReader(goalsFileName)) {
+            return LoadGoals(scenario, goalsReader);
+        }
+    }
+
+    /**
+     * Creates the scenario from the numbers of the static and dynamic files
+     *
+     * @param staticReader  numbers of the static file
+     * @param dynamicReader numbers of the dynamic file
+     * @return the scenario
+     */
+    public static Scenario LoadScenario(NumberReader staticReader, NumberReader dynamicReader) throws IOException {
+        // Static data
+        double width = staticReader.nextDouble();
+        double height = staticReader.nextDouble();
+
+        double comfortRadius = staticReader.nextDouble();
+        double safeWallDistance = staticReader.nextDouble();
+
+        double prefSpeed = staticReader.nextDouble();
+        double prefTime = staticReader.nextDouble();
+        double maxSpeed = staticReader.nextDouble();
+        double dmin = staticReader.nextDouble();
+
+        double[] radius = new double[INITIAL_CAPACITY];
+        double[] mass = new double[INITIAL_CAPACITY];
+        int particleCount = 0;
+
+        while (staticReader.hasNext()) {
+            if (particleCount == radius.length) {
+                radius = Arrays.copyOf(radius, particleCount * 2);
+                mass = Arrays.copyOf(mass, particleCount * 2);
+            }
+            radius[particleCount] = staticReader.nextDouble();
+            mass[particleCount] = staticReader.nextDouble();
+            particleCount++;
+        }
+
+        // Dynamic data, skipping the time of the file which is 0
+        dynamicReader.nextDouble();
+
+        double[] x = new double[particleCount];
+        double[] y = new double[particleCount];
+        double[] vx = new double[particleCount];
+        double[] vy = new double[particleCount];
+
+        for (int i = 0; i < particleCount; i++) {
+            if (!dynamicReader.hasNext()) {
+                throw new IOException("The dynamic file has " + i + " particles but the static file has " + particleCount);
+            }
+            x[i] = dynamicReader.nextDouble();
+            y[i] = dynamicReader.nextDouble();
+            vx[i] = dynamicReader.nextDouble();
+            vy[i] = dynamicReader.nextDouble();
+        }
+        if (dynamicReader.hasNext()) {
+            throw new IOException("The dynamic file has more particles than the static file, which has " + particleCount);
+        }
+
+        return new Scenario(width, height, comfortRadius, safeWallDistance, prefSpeed, prefTime, maxSpeed, dmin, Scenario.ANTICIPATION_TIME,
+                Arrays.copyOf(radius, particleCount), Arrays.copyOf(mass, particleCount), x, y, vx, vy);
+    }
+
+    /**
+     * Adds the goals to the scenario, each line has the x and y of the goal of the particle with that id
+     *
+     * @param scenario    scenario without goals
+     * @param goalsReader numbers of the goals file
+     * @return the scenario with the goals
+     */
+    public static Scenario LoadGoals(Scenario scenario, NumberReader goalsReader) throws IOException {
+        double[] goalX = new double[scenario.getParticleCount()];
+        double[] goalY = new double[scenario.getParticleCount()];
+        int goalCount = 0;
+
+        while (goalsReader.hasNext()) {
+            if (goalCount == goalX.length) {
+                throw new IOException("The goals file has more goals than particles, which are " + goalX.length);
+            }
+            goalX[goalCount] = goalsReader.nextDouble();
+            goalY[goalCount] = goalsReader.nextDouble();
+            goalCount++;
+        }
+
+        return scenario.withGoals(Arrays.copyOf(goalX, goalCount), Arrays.copyOf(goalY, goalCount));
+    }
+
+    /**
+     * Parses the file with the walls inside the area
+     *
+     * @param geometryFileName File path for the geometry file
+     * @return the geometry
+     */
+    public static StaticGeometry LoadGeometry(String geometryFileName) throws IOException {
+        try (NumberReader geometryReader = OpenReader(geometryFileName)) {
+            return LoadGeometry(geometryReader);
+        }
+    }
+
+    /**
+     * Creates the geometry from the numbers of the geometry file. Each chain of segments has the amount of vertices,
+     * 1 if it is closed into a solid polygon or 0 if it is an open wall, and then the x and y of each vertex
+     *
+     * @param geometryReader numbers of the geometry file
+     * @return the geometry
+     */
+    public static StaticGeometry LoadGeometry(NumberReader geometryReader) throws IOException {
+        double[][] chains = new double[INITIAL_CAPACITY][];
+        boolean[] closed = new boolean[INITIAL_CAPACITY];
+        int chainCount = 0;
+
+        while (geometryReader.hasNext()) {
+            if (chainCount == chains.length) {
+                chains = Arrays.copyOf(chains, chainCount * 2);
+                closed = Arrays.copyOf(closed, chainCount * 2);
+            }
+            int vertices = (int) geometryReader.nextDouble();
+            double kind = geometryReader.nextDouble();
+            if (vertices < 2 || (kind != 0 && kind != 1)) {
+                throw new IOException("Chain " + chainCount + " of the geometry file needs at least 2 vertices and to be closed (1) or open (0)");
+            }
+            closed[chainCount] = kind == 1;
+            chains[chainCount] = new double[vertices * 2];
+            for (int k = 0; k < vertices * 2; k++) {
+                if (!geometryReader.hasNext()) {
+                    throw new IOException("Chain " + chainCount + " of the geometry file is missing vertices");
+                }
+                chains[chainCount][k] = geometryReader.nextDouble();
+            }
+            chainCount++;
+        }
+
+        try {
+            return new StaticGeometry(Arrays.copyOf(chains, chainCount), Arrays.copyOf(closed, chainCount));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid geometry file: " + e.getMessage());
+        }
+    }
+
+    private static NumberReader OpenReader(String fileName) throws IOException {
+        return new NumberReader(new FileInputStream(fileName), fileName);
+    }
+}
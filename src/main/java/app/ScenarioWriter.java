@@ -0,0 +1,48 @@
+package app;
+
+import pca.Scenario;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes scenarios to the static and dynamic files, in the same format generator/generate_configuration.py writes
+ * and ScenarioLoader reads.
+ */
+public class ScenarioWriter {
+    /**
+     * Writes the static file, with the area, the model constants and the radius and mass of every particle,
+     * and the dynamic file, with the position and velocity of every particle at time 0
+     *
+     * @param scenario        scenario to be written
+     * @param staticFileName  File path for the static file
+     * @param dynamicFileName File path for the dynamic file
+     */
+    public static void SaveScenario(Scenario scenario, String staticFileName, String dynamicFileName) throws IOException {
+        try (Writer writer = new BufferedWriter(new FileWriter(staticFileName, false))) {
+            // Adding the width and height of area
+            writer.write(scenario.getWidth() + " " + scenario.getHeight() + "\n");
+
+            // Adding the comfort radius and the wall safe distance
+            writer.write(scenario.getComfortRadius() + " " + scenario.getSafeWallDistance() + "\n");
+
+            // Adding speed info
+            writer.write(scenario.getPrefSpeed() + " " + scenario.getPrefTime() + " " + scenario.getMaxSpeed() + " " + scenario.getDmin() + "\n");
+
+            for (int i = 0; i < scenario.getParticleCount(); i++) {
+                writer.write(scenario.getRadius(i) + " " + scenario.getMass(i) + "\n");
+            }
+        }
+
+        try (Writer writer = new BufferedWriter(new FileWriter(dynamicFileName, false))) {
+            // Only the state at time 0
+            writer.write("0\n");
+
+            for (int i = 0; i < scenario.getParticleCount(); i++) {
+                writer.write(scenario.getX(i) + " " + scenario.getY(i) + " " + scenario.getVx(i) + " " + scenario.getVy(i) + "\n");
+            }
+        }
+    }
+}
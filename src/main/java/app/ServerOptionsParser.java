@@ -0,0 +1,64 @@
+package app;
+
+import org.apache.commons.cli.*;
+
+public class ServerOptionsParser {
+    protected static int port;
+    protected static int workers;
+
+    private static final String PARAM_PORT = "port";
+    private static final String PARAM_W = "w";
+
+    private static final String DEFAULT_PORT = "8090";
+
+    /**
+     * Generates the options for the help.
+     *
+     * @return Options object with the options
+     */
+    private static Options GenerateOptions() {
+        Options options = new Options();
+        options.addOption(PARAM_PORT, "port", true, "Port the server listens to on localhost, defaults to " + DEFAULT_PORT + ".");
+        options.addOption(PARAM_W, "workers", true, "Amount of simulations run at the same time, defaults to the available processors.");
+        return options;
+    }
+
+    public static void ParseOptions(String[] args) {
+        // Generating the options
+        Options options = GenerateOptions();
+
+        // Creating the parser
+        CommandLineParser parser = new DefaultParser();
+
+        try {
+            // Parsing the options
+            CommandLine cmd = parser.parse(options, args);
+
+            port = Integer.parseInt(cmd.getOptionValue(PARAM_PORT, DEFAULT_PORT));
+            workers = cmd.hasOption(PARAM_W) ? Integer.parseInt(cmd.getOptionValue(PARAM_W)) : Runtime.getRuntime().availableProcessors();
+            if (workers < 1) {
+                System.out.println("At least one worker is needed");
+                System.exit(1);
+            }
+        } catch (ParseException e) {
+            System.out.println("Unknown command used");
+
+            // Display the help again
+            help(options);
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid number " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Prints the help for the system to the standard output, given the options
+     *
+     * @param options Options to be printed as help
+     */
+    private static void help(Options options) {
+        HelpFormatter formatter = new HelpFormatter();
+        formatter.printHelp("app.SimulationServer", options);
+        System.exit(0);
+    }
+}
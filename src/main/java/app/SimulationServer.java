@@ -0,0 +1,370 @@
+package app;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import pca.AgentMetrics;
+import pca.FrameSink;
+import pca.PredictiveCollisionAvoidance;
+import pca.Scenario;
+import pca.SimulationOutcome;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resident HTTP server on localhost that runs simulation jobs, so a single JVM with warm compiled code runs
+ * every job instead of starting a new one for each run. Jobs run at the same time on a fixed pool of workers.
+ *
+ * POST /simulate runs a job given by the query parameters: dt and dt2, the sf, df and gf paths of the scenario files,
+ * or the static and dynamic files inline in the body with static_length the bytes of the static one, the ma, as, ao and aq
+ * flags and th, dtmin, dtmax and tol with the same meaning as in app.Main, and output. With output=metrics, the default,
+ * the response is a JSON object with the outcome and the metrics of the main particle. With output=text the frames are
+ * streamed back as the run goes, unless of gives a path on the server to write them to, as output=binary needs.
+ * GET /status returns the amount of jobs running, completed and failed.
+ * The requests are handled by a couple of threads of their own that hand the jobs to the workers, so the status
+ * is answered while every worker is busy.
+ */
+public class SimulationServer {
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        PROPERTIES
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    private static final int MAIN_PARTICLE_ID = 0;
+    private static final int STREAM_BUFFERS = 16;
+    private static final int HANDLER_THREADS = 2;
+
+    private static final String OUTPUT_METRICS = "metrics";
+    private static final String OUTPUT_TEXT = "text";
+    private static final String OUTPUT_BINARY = "binary";
+
+    // Frames are not needed for the metrics, they are computed while the simulation runs
+    private static final FrameSink NO_FRAMES = (time, store) -> {
+    };
+
+    private final HttpServer server;
+    private final ExecutorService handlers;
+    private final ExecutorService workers;
+    private final int workerCount;
+
+    private final AtomicLong running = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * Error in the job that is reported to the client with the given status
+     */
+    private static final class JobException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        JobException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        CONSTRUCTORS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Creates the server listening to the port on the loopback address, it does not run jobs until started
+     *
+     * @param port    port to listen to, 0 picks any free port
+     * @param workers amount of jobs run at the same time
+     */
+    public SimulationServer(int port, int workers) throws IOException {
+        this.workerCount = workers;
+        this.workers = Executors.newFixedThreadPool(workers);
+        this.handlers = Executors.newFixedThreadPool(HANDLER_THREADS);
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.server.setExecutor(this.handlers);
+        this.server.createContext("/simulate", this::handleSimulate);
+        this.server.createContext("/status", this::handleStatus);
+    }
+
+    public static void main(String[] args) {
+        // Parsing the options
+        ServerOptionsParser.ParseOptions(args);
+
+        try {
+            SimulationServer server = new SimulationServer(ServerOptionsParser.port, ServerOptionsParser.workers);
+            server.start();
+            System.out.format("Listening on http://localhost:%d with %d workers\n", server.getPort(), ServerOptionsParser.workers);
+        } catch (IOException e) {
+            System.out.println("Could not listen on port " + ServerOptionsParser.port + ": " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        METHODS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    public int getPort() {
+        return this.server.getAddress().getPort();
+    }
+
+    public void start() {
+        this.server.start();
+    }
+
+    /**
+     * Stops accepting jobs, waiting up to the given seconds for the running ones
+     *
+     * @param delay seconds to wait for the running jobs
+     */
+    public void stop(int delay) {
+        this.server.stop(delay);
+        this.handlers.shutdownNow();
+        this.workers.shutdownNow();
+    }
+
+    private void handleStatus(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("GET")) {
+            this.sendText(exchange, 405, "Only GET is allowed");
+            return;
+        }
+        this.sendJson(exchange, 200, "{\"workers\": " + this.workerCount + ", \"running\": " + this.running.get()
+                + ", \"completed\": " + this.completed.get() + ", \"failed\": " + this.failed.get() + "}");
+    }
+
+    private void handleSimulate(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("POST")) {
+            this.sendText(exchange, 405, "Only POST is allowed");
+            return;
+        }
+
+        // The job runs on the workers, leaving the handler threads free for the next requests
+        try {
+            this.workers.execute(() -> this.simulate(exchange));
+        } catch (RejectedExecutionException e) {
+            this.sendText(exchange, 503, "The server is stopping");
+        }
+    }
+
+    /**
+     * Runs the job of the request on a worker and sends its response
+     */
+    private void simulate(HttpExchange exchange) {
+        this.running.incrementAndGet();
+        try {
+            this.runJob(exchange);
+            this.completed.incrementAndGet();
+        } catch (JobException e) {
+            this.failed.incrementAndGet();
+            this.sendError(exchange, e.status, e.getMessage());
+        } catch (RuntimeException e) {
+            this.failed.incrementAndGet();
+            this.sendError(exchange, 500, "Unexpected error: " + e);
+        } catch (IOException e) {
+            // The client left or the output file could not be written
+            this.failed.incrementAndGet();
+            this.sendError(exchange, 500, "Error writing the output: " + e.getMessage());
+        } finally {
+            this.running.decrementAndGet();
+            exchange.close();
+        }
+    }
+
+    /**
+     * Runs the job of the request and sends its response
+     */
+    private void runJob(HttpExchange exchange) throws IOException, JobException {
+        Map<String, String> parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+
+        // Creating the simulation
+        Scenario scenario = this.loadScenario(exchange, parameters);
+        double dt = getDouble(parameters, "dt", null);
+        double dt2 = getDouble(parameters, "dt2", null);
+        boolean multiAgent = getFlag(parameters, "ma");
+        int threads = (int) getDouble(parameters, "th", 1.0);
+        PredictiveCollisionAvoidance pca;
+        try {
+            pca = new PredictiveCollisionAvoidance(dt, dt2, scenario, multiAgent, threads);
+            if (getFlag(parameters, "as")) {
+                pca.setAdaptiveStepping(getDouble(parameters, "dtmin", dt), getDouble(parameters, "dtmax", dt2), getDouble(parameters, "tol", 0.05));
+            }
+            if (getFlag(parameters, "ao")) {
+                pca.useAnalyticObstacles();
+            }
+            if (getFlag(parameters, "aq")) {
+                pca.useActivationQueue();
+            }
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            throw new JobException(400, e.getMessage());
+        }
+        AgentMetrics metrics = new AgentMetrics(MAIN_PARTICLE_ID);
+        pca.addObserver(metrics);
+
+        // Running it, streaming the frames back or writing them to a file on the server
+        String output = parameters.getOrDefault("output", OUTPUT_METRICS);
+        String outputFile = parameters.get("of");
+        long startTime = System.nanoTime();
+        SimulationOutcome outcome;
+        if (output.equals(OUTPUT_TEXT) && outputFile == null) {
+            exchange.getResponseHeaders().set("Content-Type", "text/plain");
+            exchange.sendResponseHeaders(200, 0);
+            try (TrajectoryOutput frames = new TrajectoryWriter(exchange.getResponseBody(), scenario.getParticleCount(), STREAM_BUFFERS)) {
+                pca.simulate(frames);
+            }
+            return;
+        } else if (output.equals(OUTPUT_TEXT) || output.equals(OUTPUT_BINARY)) {
+            if (outputFile == null) {
+                throw new JobException(400, "The binary output is only written to a file on the server, given with of");
+            }
+            TrajectoryOutput writer;
+            try {
+                writer = output.equals(OUTPUT_TEXT) ? new TrajectoryWriter(outputFile, scenario.getParticleCount())
+                        : new BinaryTrajectoryWriter(outputFile, scenario.getParticleCount(), dt, dt2);
+            } catch (IOException e) {
+                throw new JobException(400, "Could not open the output file: " + e.getMessage());
+            }
+            try (TrajectoryOutput frames = writer) {
+                outcome = pca.simulate(frames);
+            }
+        } else if (output.equals(OUTPUT_METRICS)) {
+            outcome = pca.simulate(NO_FRAMES);
+        } else {
+            throw new JobException(400, "The output must be metrics, text or binary");
+        }
+        long wallMillis = (System.nanoTime() - startTime) / 1000000;
+
+        this.sendJson(exchange, 200, String.format(Locale.ROOT,
+                "{\"outcome\": \"%s\", \"time\": %s, \"distance\": %s, \"mean_velocity\": %s, \"collisions\": %d, \"wall_millis\": %d}",
+                outcome.name(), metrics.getTimeToGoal(), metrics.getDistance(), metrics.getMeanVelocity(), metrics.getCollisions(), wallMillis));
+    }
+
+    /**
+     * Loads the scenario from the files on the server, or from the body of the request
+     */
+    private Scenario loadScenario(HttpExchange exchange, Map<String, String> parameters) throws JobException {
+        try {
+            if (parameters.containsKey("sf") || parameters.containsKey("df")) {
+                if (!parameters.containsKey("sf") || !parameters.containsKey("df")) {
+                    throw new JobException(400, "The dynamic and static file path are needed");
+                }
+                return ScenarioLoader.LoadScenario(parameters.get("sf"), parameters.get("df"), parameters.get("gf"));
+            }
+
+            // The static file goes first in the body, followed by the dynamic one
+            byte[] body = readFully(exchange.getRequestBody());
+            int staticLength = (int) getDouble(parameters, "static_length", null);
+            if (staticLength < 0 || staticLength > body.length) {
+                throw new JobException(400, "The static length must be within the " + body.length + " bytes of the body");
+            }
+            try (NumberReader staticReader = new NumberReader(new ByteArrayInputStream(body, 0, staticLength), "static");
+                 NumberReader dynamicReader = new NumberReader(new ByteArrayInputStream(body, staticLength, body.length - staticLength), "dynamic")) {
+                return ScenarioLoader.LoadScenario(staticReader, dynamicReader);
+            }
+        } catch (FileNotFoundException e) {
+            throw new JobException(404, "File not found: " + e.getMessage());
+        } catch (IOException e) {
+            throw new JobException(400, "Invalid configuration: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Sends the error of a job. Once the frames started streaming the response can only be cut short, which closing
+     * the exchange does, and there is nobody to tell if the client already left.
+     */
+    private void sendError(HttpExchange exchange, int status, String message) {
+        if (exchange.getResponseCode() != -1) {
+            return;
+        }
+        try {
+            this.sendText(exchange, status, message);
+        } catch (IOException e) {
+            // The client left
+        }
+    }
+
+    private void sendJson(HttpExchange exchange, int status, String json) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        this.send(exchange, status, json + "\n");
+    }
+
+    private void sendText(HttpExchange exchange, int status, String text) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/plain");
+        this.send(exchange, status, text + "\n");
+    }
+
+    private void send(HttpExchange exchange, int status, String content) throws IOException {
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream body = exchange.getResponseBody()) {
+            body.write(bytes);
+        }
+    }
+
+    private static Map<String, String> parseQuery(String query) throws JobException {
+        Map<String, String> parameters = new HashMap<>();
+        if (query == null || query.isEmpty()) {
+            return parameters;
+        }
+        try {
+            for (String pair : query.split("&")) {
+                int separator = pair.indexOf('=');
+                String key = URLDecoder.decode(separator < 0 ? pair : pair.substring(0, separator), "UTF-8");
+                String value = separator < 0 ? "" : URLDecoder.decode(pair.substring(separator + 1), "UTF-8");
+                parameters.put(key, value);
+            }
+        } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+            throw new JobException(400, "Invalid query: " + e.getMessage());
+        }
+        return parameters;
+    }
+
+    /**
+     * @param fallback value if the parameter is missing, null if it is required
+     */
+    private static double getDouble(Map<String, String> parameters, String name, Double fallback) throws JobException {
+        String value = parameters.get(name);
+        if (value == null) {
+            if (fallback == null) {
+                throw new JobException(400, "The parameter " + name + " is needed");
+            }
+            return fallback;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new JobException(400, "Invalid number " + value + " for " + name);
+        }
+    }
+
+    /**
+     * A flag is set if it is present without a value or with true
+     */
+    private static boolean getFlag(Map<String, String> parameters, String name) {
+        String value = parameters.get(name);
+        return value != null && (value.isEmpty() || value.equals("true"));
+    }
+
+    private static byte[] readFully(InputStream input) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1 << 16];
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            bytes.write(buffer, 0, read);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,273 @@
+package app;
+
+import pca.FrameSink;
+import pca.ParticleStore;
+import pca.PredictiveCollisionAvoidance;
+import pca.SimulationCheckpoint;
+import pca.SimulationOutcome;
+import pca.StripSimulation;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a simulation split in strips along x, each one simulated by a worker process, see app.StripWorker.
+ * The coordinator keeps the time of the run: every step it sends the fastest obstacle of the last one to every
+ * worker and gets back the fastest obstacle of each strip and whether their agents reached their goal, and on every
+ * dt2 frame it merges the particles of every strip into the store of the simulation before handing it to the sink.
+ * The workers can be started as processes of this machine, or be already running anywhere reachable.
+ */
+public class StripCoordinator implements Closeable {
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        PROPERTIES
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    // Time given to the started workers to exit once the run finishes
+    private static final long EXIT_TIMEOUT_SECONDS = 10;
+
+    private final List<InetSocketAddress> addresses;
+    private final List<Process> processes;
+
+    private final Socket[] sockets;
+    private final DataInputStream[] inputs;
+    private final DataOutputStream[] outputs;
+
+    // Whether the last run finished, the started workers are stopped right away otherwise
+    private boolean finished;
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        CONSTRUCTORS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Creates a coordinator for workers already running, a strip for each one in the given order from left to right
+     *
+     * @param addresses addresses the workers listen on
+     */
+    public StripCoordinator(List<InetSocketAddress> addresses) {
+        this(addresses, new ArrayList<>());
+    }
+
+    private StripCoordinator(List<InetSocketAddress> addresses, List<Process> processes) {
+        if (addresses.isEmpty()) {
+            throw new IllegalArgumentException("There must be at least one worker");
+        }
+        this.addresses = new ArrayList<>(addresses);
+        this.processes = processes;
+        this.sockets = new Socket[addresses.size()];
+        this.inputs = new DataInputStream[addresses.size()];
+        this.outputs = new DataOutputStream[addresses.size()];
+    }
+
+    /**
+     * Starts the given amount of workers as processes of this machine, listening on the loopback address.
+     * They are stopped once the coordinator is closed.
+     *
+     * @param strips amount of strips, one worker for each
+     * @return the coordinator of the workers
+     */
+    public static StripCoordinator startWorkers(int strips) throws IOException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        List<Process> processes = new ArrayList<>();
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        try {
+            for (int k = 0; k < strips; k++) {
+                Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), StripWorker.class.getName())
+                        .redirectErrorStream(true)
+                        .start();
+                processes.add(process);
+                addresses.add(new InetSocketAddress("127.0.0.1", readPort(process)));
+            }
+        } catch (IOException e) {
+            processes.forEach(Process::destroy);
+            throw e;
+        }
+        return new StripCoordinator(addresses, processes);
+    }
+
+    /**
+     * Reads the port from the first line the worker prints, and keeps copying the rest of its output
+     */
+    private static int readPort(Process process) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        String line = reader.readLine();
+        if (line == null || !line.startsWith(StripWorker.LISTENING)) {
+            throw new IOException("The worker did not start" + (line != null ? ": " + line : ""));
+        }
+
+        Thread output = new Thread(() -> {
+            try {
+                String next;
+                while ((next = reader.readLine()) != null) {
+                    System.out.println("Worker: " + next);
+                }
+            } catch (IOException e) {
+                // The worker exited
+            }
+        });
+        output.setDaemon(true);
+        output.start();
+        return Integer.parseInt(line.substring(StripWorker.LISTENING.length()).trim());
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        METHODS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Runs the simulation in the workers from its current state, with the same frames and outcome of running it alone
+     *
+     * @param simulation simulation to be run, its store holds the frames handed to the sink
+     * @param frameSink  receiver of the frames
+     * @return whether the agents reached their goals or the time limit stopped the run
+     * @throws IllegalArgumentException if the simulation uses options the strips do not support
+     * @throws IOException              if a worker fails or the agents search past the neighbour strips
+     */
+    public SimulationOutcome simulate(PredictiveCollisionAvoidance simulation, FrameSink frameSink) throws IOException {
+        SimulationCheckpoint checkpoint = simulation.checkpoint();
+        StripSimulation.checkSupported(checkpoint);
+        ParticleStore store = simulation.getStore();
+        int strips = this.addresses.size();
+        this.finished = false;
+
+        // Connecting to every worker before any of them connects to its neighbours
+        for (int k = 0; k < strips; k++) {
+            this.sockets[k] = new Socket(this.addresses.get(k).getAddress(), this.addresses.get(k).getPort());
+            this.sockets[k].setTcpNoDelay(true);
+            this.inputs[k] = new DataInputStream(new BufferedInputStream(this.sockets[k].getInputStream()));
+            this.outputs[k] = new DataOutputStream(new BufferedOutputStream(this.sockets[k].getOutputStream()));
+            this.outputs[k].writeInt(StripWorker.ROLE_COORDINATOR);
+            this.outputs[k].flush();
+        }
+
+        // Sending each worker its strip, every worker gets the whole simulation
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        checkpoint.write(bytes);
+        double[] bounds = StripSimulation.getStripBounds(checkpoint, strips);
+        for (int k = 0; k < strips; k++) {
+            DataOutputStream output = this.outputs[k];
+            output.writeInt(k);
+            output.writeInt(strips);
+            output.writeDouble(bounds[k]);
+            output.writeDouble(bounds[k + 1]);
+            InetSocketAddress right = k < strips - 1 ? this.addresses.get(k + 1) : null;
+            output.writeUTF(right != null ? right.getHostString() : "");
+            output.writeInt(right != null ? right.getPort() : 0);
+            output.writeInt(bytes.size());
+            bytes.writeTo(output);
+            output.flush();
+        }
+        double maxObstacleSpeed = 0;
+        for (int k = 0; k < strips; k++) {
+            this.readReport(k);
+            maxObstacleSpeed = Math.max(maxObstacleSpeed, this.inputs[k].readDouble());
+        }
+
+        // Running the steps with the same time and frames as the simulation alone
+        double dt = checkpoint.getDt(), dt2 = checkpoint.getDt2();
+        double totalTime = checkpoint.getTotalTime();
+        int frameIndex = checkpoint.getFrameIndex();
+        boolean reachedGoal = checkpoint.hasReachedGoal();
+        while (!reachedGoal && totalTime < PredictiveCollisionAvoidance.TIME_LIMIT) {
+            // Merging the strips in the frames
+            int targetIndex = (int) Math.floor(totalTime / dt2);
+            if (targetIndex > frameIndex) {
+                for (int k = 0; k < strips; k++) {
+                    this.outputs[k].writeInt(StripWorker.COMMAND_FRAME);
+                    this.outputs[k].flush();
+                }
+                int particles = 0;
+                for (int k = 0; k < strips; k++) {
+                    particles += StripSimulation.readParticles(this.inputs[k], store);
+                }
+                if (particles != store.size()) {
+                    throw new IOException("The strips have " + particles + " particles instead of " + store.size());
+                }
+                frameSink.accept(totalTime, store);
+                frameIndex = targetIndex;
+            }
+
+            // Stepping every strip
+            for (int k = 0; k < strips; k++) {
+                this.outputs[k].writeInt(StripWorker.COMMAND_STEP);
+                this.outputs[k].writeDouble(maxObstacleSpeed);
+                this.outputs[k].flush();
+            }
+            maxObstacleSpeed = 0;
+            reachedGoal = true;
+            for (int k = 0; k < strips; k++) {
+                this.readReport(k);
+                maxObstacleSpeed = Math.max(maxObstacleSpeed, this.inputs[k].readDouble());
+                reachedGoal &= this.inputs[k].readBoolean();
+            }
+            totalTime = totalTime + dt;
+        }
+
+        // Letting the workers wait for the next run, the started ones exit
+        for (int k = 0; k < strips; k++) {
+            this.outputs[k].writeInt(StripWorker.COMMAND_FINISH);
+            this.outputs[k].writeBoolean(!this.processes.isEmpty());
+            this.outputs[k].flush();
+        }
+        this.closeConnections();
+        this.finished = true;
+
+        return reachedGoal ? SimulationOutcome.REACHED_GOAL : SimulationOutcome.TIME_LIMIT;
+    }
+
+    /**
+     * Reads whether the worker succeeded, the rest of the report follows if it did
+     *
+     * @param k index of the worker
+     * @throws IOException with the error of the worker if it failed
+     */
+    private void readReport(int k) throws IOException {
+        if (!this.inputs[k].readBoolean()) {
+            throw new IOException("Strip " + k + " failed: " + this.inputs[k].readUTF());
+        }
+    }
+
+    private void closeConnections() throws IOException {
+        for (int k = 0; k < this.sockets.length; k++) {
+            if (this.sockets[k] != null) {
+                this.sockets[k].close();
+                this.sockets[k] = null;
+            }
+        }
+    }
+
+    /**
+     * Closes the connections to the workers, stopping the ones started by the coordinator
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            this.closeConnections();
+        } finally {
+            for (Process process : this.processes) {
+                try {
+                    if (!this.finished || !process.waitFor(EXIT_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                        process.destroy();
+                    }
+                } catch (InterruptedException e) {
+                    process.destroy();
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+}
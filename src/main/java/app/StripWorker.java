@@ -0,0 +1,320 @@
+package app;
+
+import pca.SimulationCheckpoint;
+import pca.StripSimulation;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Process simulating a strip of a distributed run, see pca.StripSimulation. The worker listens for a coordinator,
+ * which sends the state of the whole simulation and the bounds of the strip, and then connects to the workers of
+ * the neighbour strips. Every step the neighbours exchange how far their agents search, their halos and their
+ * migrating particles directly, and the coordinator only gets the fastest obstacle and whether the agents reached
+ * their goal, plus the particles of the strip for the frames.
+ *
+ * Every exchange between two neighbours is done by the left one writing first and the right one reading first,
+ * the pairs starting at an even strip go first and then the ones starting at an odd strip, so no two workers
+ * wait to write to each other. Once the run finishes the worker waits for the next one, unless told to exit.
+ */
+public class StripWorker implements Closeable {
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        PROPERTIES
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    // First message of every connection, telling who connected
+    static final int ROLE_COORDINATOR = 1;
+    static final int ROLE_NEIGHBOUR = 2;
+
+    // Commands sent by the coordinator
+    static final int COMMAND_FRAME = 1;
+    static final int COMMAND_STEP = 2;
+    static final int COMMAND_FINISH = 3;
+
+    // Line printed once the worker listens, followed by its port
+    static final String LISTENING = "Listening on port ";
+
+    private final ServerSocket server;
+
+    // Connections of the run, the neighbours are null for the first and last strips
+    private Connection coordinator;
+    private Connection left;
+    private Connection right;
+
+    // Strip of the run
+    private int index;
+    private StripSimulation strip;
+
+    /**
+     * Socket with its buffered streams
+     */
+    private static final class Connection implements Closeable {
+        final Socket socket;
+        final DataInputStream input;
+        final DataOutputStream output;
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.socket.setTcpNoDelay(true);
+            this.input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            this.output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.socket.close();
+        }
+    }
+
+    /**
+     * Writes the part of an exchange going to one of the neighbours
+     */
+    private interface Sender {
+        void send(DataOutputStream output, boolean toLeft) throws IOException;
+    }
+
+    /**
+     * Reads the part of an exchange coming from one of the neighbours
+     */
+    private interface Receiver {
+        void receive(DataInputStream input, boolean fromLeft) throws IOException;
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        CONSTRUCTORS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Creates a worker waiting for runs on the given socket
+     *
+     * @param server socket the coordinators and the neighbours connect to
+     */
+    public StripWorker(ServerSocket server) {
+        this.server = server;
+    }
+
+    public static void main(String[] args) {
+        // Parsing the options
+        WorkerOptionsParser.ParseOptions(args);
+
+        try (ServerSocket server = new ServerSocket(WorkerOptionsParser.port, 0, InetAddress.getByName(WorkerOptionsParser.host));
+             StripWorker worker = new StripWorker(server)) {
+            System.out.println(LISTENING + server.getLocalPort());
+            System.out.flush();
+
+            // Serving runs until a coordinator tells the worker to exit
+            boolean serving = true;
+            while (serving) {
+                serving = worker.serve();
+            }
+        } catch (IOException e) {
+            System.out.println("Could not listen on port " + WorkerOptionsParser.port + ": " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        METHODS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Serves a single run, from the connection of the coordinator until it finishes or a connection breaks
+     *
+     * @return false if the coordinator told the worker to exit
+     */
+    public boolean serve() throws IOException {
+        try {
+            this.coordinator = this.accept(ROLE_COORDINATOR);
+            this.setUp();
+            return this.run();
+        } catch (EOFException e) {
+            System.out.println("Run aborted, a connection was closed");
+            return true;
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Run aborted: " + e.getMessage());
+            return true;
+        } finally {
+            this.close();
+        }
+    }
+
+    /**
+     * Reads the strip from the coordinator and connects to the neighbours, the one on the right is connected to
+     * and the one on the left connects to this worker
+     */
+    private void setUp() throws IOException {
+        DataInputStream input = this.coordinator.input;
+        this.index = input.readInt();
+        int strips = input.readInt();
+        double lowerX = input.readDouble();
+        double upperX = input.readDouble();
+        String rightHost = input.readUTF();
+        int rightPort = input.readInt();
+
+        // The checkpoint is read from its own buffer, as it buffers its input
+        int length = input.readInt();
+        if (length < 0) {
+            throw new IOException("Invalid checkpoint length " + length);
+        }
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        SimulationCheckpoint checkpoint = SimulationCheckpoint.read(new ByteArrayInputStream(bytes));
+        this.strip = new StripSimulation(checkpoint, lowerX, upperX);
+
+        // Connecting to the neighbours
+        if (this.index < strips - 1) {
+            this.right = new Connection(new Socket(rightHost, rightPort));
+            this.right.output.writeInt(ROLE_NEIGHBOUR);
+            this.right.output.writeInt(this.index);
+            this.right.output.flush();
+        }
+        if (this.index > 0) {
+            this.left = this.accept(ROLE_NEIGHBOUR);
+            int neighbour = this.left.input.readInt();
+            if (neighbour != this.index - 1) {
+                throw new IOException("Expected strip " + (this.index - 1) + " on the left, got " + neighbour);
+            }
+        }
+
+        // Reporting the strip ready, with the state the first step needs
+        DataOutputStream output = this.coordinator.output;
+        output.writeBoolean(true);
+        output.writeDouble(this.strip.getMaxObstacleSpeed());
+        output.flush();
+    }
+
+    /**
+     * Runs the commands of the coordinator until the run finishes
+     *
+     * @return false if the coordinator told the worker to exit
+     */
+    private boolean run() throws IOException {
+        DataInputStream input = this.coordinator.input;
+        DataOutputStream output = this.coordinator.output;
+        while (true) {
+            int command = input.readInt();
+            switch (command) {
+                case COMMAND_FRAME:
+                    this.strip.writeParticles(output);
+                    output.flush();
+                    break;
+                case COMMAND_STEP:
+                    this.step(input.readDouble());
+                    break;
+                case COMMAND_FINISH:
+                    return !input.readBoolean();
+                default:
+                    throw new IOException("Unknown command " + command);
+            }
+        }
+    }
+
+    /**
+     * Runs a step of the strip, exchanging the halos before it and the migrating particles after it
+     *
+     * @param maxObstacleSpeed fastest obstacle of the whole simulation
+     */
+    private void step(double maxObstacleSpeed) throws IOException {
+        // Telling the neighbours how far the agents search, the left one gets the lowest x and the right one the highest
+        double[] bounds = this.strip.computeSearchBounds(maxObstacleSpeed);
+        double[] searched = new double[]{Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY};
+        this.exchange((out, toLeft) -> out.writeDouble(bounds[toLeft ? 0 : 1]), (in, fromLeft) -> searched[fromLeft ? 0 : 1] = in.readDouble());
+
+        // Only the particles of the neighbours are exchanged, a search reaching past them breaks the run
+        String error = null;
+        if (searched[0] >= this.strip.getUpperX() || searched[1] < this.strip.getLowerX()) {
+            error = "The agents of a strip search past the next strip, the strips must be wider than the search reach";
+        }
+
+        // Exchanging the halos, the left neighbour gets the particles up to its highest x and the right one from its lowest x
+        this.strip.clearHalo();
+        this.exchange((out, toLeft) -> {
+            if (toLeft) {
+                this.strip.writeHalo(out, Double.NEGATIVE_INFINITY, searched[0]);
+            } else {
+                this.strip.writeHalo(out, searched[1], Double.POSITIVE_INFINITY);
+            }
+        }, (in, fromLeft) -> this.strip.readHalo(in));
+
+        // Steering and moving the particles of the strip
+        double maxSpeed = this.strip.step();
+
+        // Handing the particles that left the strip to the neighbours
+        this.exchange((out, toLeft) -> this.strip.writeMigrants(out, toLeft), (in, fromLeft) -> this.strip.readMigrants(in));
+
+        // Reporting the step
+        DataOutputStream output = this.coordinator.output;
+        output.writeBoolean(error == null);
+        if (error != null) {
+            output.writeUTF(error);
+        } else {
+            output.writeDouble(maxSpeed);
+            output.writeBoolean(this.strip.hasReachedGoal());
+        }
+        output.flush();
+    }
+
+    /**
+     * Exchanges a message with each neighbour, the pairs starting at an even strip go first
+     *
+     * @param sender   writes the message for a neighbour
+     * @param receiver reads the message of a neighbour
+     */
+    private void exchange(Sender sender, Receiver receiver) throws IOException {
+        boolean even = this.index % 2 == 0;
+        for (int round = 0; round < 2; round++) {
+            boolean withRight = (round == 0) == even;
+            if (withRight && this.right != null) {
+                sender.send(this.right.output, false);
+                this.right.output.flush();
+                receiver.receive(this.right.input, false);
+            } else if (!withRight && this.left != null) {
+                receiver.receive(this.left.input, true);
+                sender.send(this.left.output, true);
+                this.left.output.flush();
+            }
+        }
+    }
+
+    /**
+     * Waits for a connection of the given role, closing the ones of another role
+     */
+    private Connection accept(int role) throws IOException {
+        while (true) {
+            Connection connection = new Connection(this.server.accept());
+            try {
+                if (connection.input.readInt() == role) {
+                    return connection;
+                }
+            } catch (IOException e) {
+                // Connections that break before telling their role are ignored
+            }
+            connection.close();
+        }
+    }
+
+    /**
+     * Closes the connections of the current run
+     */
+    @Override
+    public void close() throws IOException {
+        for (Connection connection : new Connection[]{this.coordinator, this.left, this.right}) {
+            if (connection != null) {
+                connection.close();
+            }
+        }
+        this.coordinator = null;
+        this.left = null;
+        this.right = null;
+        this.strip = null;
+    }
+}
@@ -0,0 +1,191 @@
+package app;
+
+import org.apache.commons.cli.*;
+
+public class SweepOptionsParser {
+    protected static double dt;
+    protected static double dt2;
+    protected static double[] dmins;
+    protected static int[] peopleCounts;
+    protected static double[] peopleVelocities;
+    protected static double[] prefSpeeds;
+    protected static int repetitions;
+    protected static int threads;
+    protected static long seed;
+    protected static double width;
+    protected static double height;
+    protected static String summaryFile;
+    protected static String statsFile;
+    protected static boolean adaptiveStep;
+    protected static double minStep;
+    protected static double maxStep;
+    protected static double stepTolerance;
+    protected static boolean analyticObstacles;
+    protected static boolean activationQueue;
+    protected static String profileFile;
+    protected static boolean ensemble;
+
+    private static final String PARAM_DT = "dt";
+    private static final String PARAM_DT2 = "dt2";
+    private static final String PARAM_DMIN = "dmin";
+    private static final String PARAM_P = "p";
+    private static final String PARAM_PV = "pv";
+    private static final String PARAM_PS = "ps";
+    private static final String PARAM_R = "r";
+    private static final String PARAM_TH = "th";
+    private static final String PARAM_S = "s";
+    private static final String PARAM_W = "W";
+    private static final String PARAM_H = "H";
+    private static final String PARAM_O = "o";
+    private static final String PARAM_ST = "st";
+    private static final String PARAM_AS = "as";
+    private static final String PARAM_DTMIN = "dtmin";
+    private static final String PARAM_DTMAX = "dtmax";
+    private static final String PARAM_TOL = "tol";
+    private static final String PARAM_AO = "ao";
+    private static final String PARAM_AQ = "aq";
+    private static final String PARAM_PF = "pf";
+    private static final String PARAM_E = "e";
+
+    // Defaults of scripts/run_all.sh
+    private static final String DEFAULT_DT = "0.001";
+    private static final String DEFAULT_DT2 = "0.01";
+    private static final String DEFAULT_DMIN = "0,0.2,0.4,0.6,0.8,1";
+    private static final String DEFAULT_P = "25";
+    private static final String DEFAULT_PV = "1.3";
+    private static final String DEFAULT_PS = "1.3";
+    private static final String DEFAULT_R = "20";
+    private static final String DEFAULT_S = "0";
+    private static final String DEFAULT_W = "36";
+    private static final String DEFAULT_H = "9";
+    private static final String DEFAULT_O = "./parsable_files/sweep.csv";
+    private static final String DEFAULT_TOL = "0.05";
+
+    /**
+     * Generates the options for the help.
+     *
+     * @return Options object with the options
+     */
+    private static Options GenerateOptions() {
+        Options options = new Options();
+        options.addOption(PARAM_DT, "delta", true, "Delta of time to be used, defaults to " + DEFAULT_DT + ".");
+        options.addOption(PARAM_DT2, "delta2", true, "Delta 2 of time to be used, defaults to " + DEFAULT_DT2 + ".");
+        options.addOption(PARAM_DMIN, "dmin", true, "Comma separated minimum distances, defaults to " + DEFAULT_DMIN + ".");
+        options.addOption(PARAM_P, "people", true, "Comma separated amounts of people, defaults to " + DEFAULT_P + ".");
+        options.addOption(PARAM_PV, "people_velocity", true, "Comma separated speeds of the people, defaults to " + DEFAULT_PV + ".");
+        options.addOption(PARAM_PS, "pref_speed", true, "Comma separated preferred speeds of the main particle, defaults to " + DEFAULT_PS + ".");
+        options.addOption(PARAM_R, "repetitions", true, "Runs for each combination of parameters, defaults to " + DEFAULT_R + ".");
+        options.addOption(PARAM_TH, "threads", true, "Amount of simulations run at the same time, defaults to the available processors.");
+        options.addOption(PARAM_S, "seed", true, "Seed of the first repetition, defaults to " + DEFAULT_S + ".");
+        options.addOption(PARAM_W, "width", true, "Width of the area, defaults to " + DEFAULT_W + ".");
+        options.addOption(PARAM_H, "height", true, "Height of the area, defaults to " + DEFAULT_H + ".");
+        options.addOption(PARAM_O, "output_file", true, "Path to the summary file, defaults to " + DEFAULT_O + ".");
+        options.addOption(PARAM_ST, "stats_file", true, "Path to the statistics file where the metrics of every run that did not reach the time limit are appended, as post/postprocessing.py -p plots them.");
+        options.addOption(PARAM_AS, "adaptive_step", false, "Every step picks its size from the time to the closest collision, wall and goal, instead of using dt.");
+        options.addOption(PARAM_DTMIN, "min_step", true, "Smallest adaptive step, defaults to dt.");
+        options.addOption(PARAM_DTMAX, "max_step", true, "Largest adaptive step, defaults to dt2.");
+        options.addOption(PARAM_TOL, "step_tolerance", true, "Fraction of the shortest time scale covered by an adaptive step, defaults to " + DEFAULT_TOL + ".");
+        options.addOption(PARAM_AO, "analytic_obstacles", false, "The obstacles are computed from their closed form motion only where needed, instead of moving them every step.");
+        options.addOption(PARAM_AQ, "activation_queue", false, "Only the obstacles that may be reached within the anticipation time are tested, waking the rest when they could get close.");
+        options.addOption(PARAM_PF, "profile_file", true, "Path to the file where the profile of the phases of every run is written, as CSV if it ends in .csv and JSON otherwise. Needs -Dpca.profile=true.");
+        options.addOption(PARAM_E, "ensemble", false, "The repetitions of each combination are simulated together in lockstep, with the same results as running them apart.");
+        return options;
+    }
+
+    public static void ParseOptions(String[] args) {
+        // Generating the options
+        Options options = GenerateOptions();
+
+        // Creating the parser
+        CommandLineParser parser = new DefaultParser();
+
+        try {
+            // Parsing the options
+            CommandLine cmd = parser.parse(options, args);
+
+            // Time options
+            dt = Double.parseDouble(cmd.getOptionValue(PARAM_DT, DEFAULT_DT));
+            dt2 = Double.parseDouble(cmd.getOptionValue(PARAM_DT2, DEFAULT_DT2));
+
+            // Parameter grid
+            dmins = ParseDoubles(cmd.getOptionValue(PARAM_DMIN, DEFAULT_DMIN));
+            peopleCounts = ParseInts(cmd.getOptionValue(PARAM_P, DEFAULT_P));
+            peopleVelocities = ParseDoubles(cmd.getOptionValue(PARAM_PV, DEFAULT_PV));
+            prefSpeeds = ParseDoubles(cmd.getOptionValue(PARAM_PS, DEFAULT_PS));
+            repetitions = Integer.parseInt(cmd.getOptionValue(PARAM_R, DEFAULT_R));
+            if (repetitions < 1) {
+                System.out.println("At least one repetition is needed");
+                System.exit(1);
+            }
+
+            // Run options
+            threads = cmd.hasOption(PARAM_TH) ? Integer.parseInt(cmd.getOptionValue(PARAM_TH)) : Runtime.getRuntime().availableProcessors();
+            seed = Long.parseLong(cmd.getOptionValue(PARAM_S, DEFAULT_S));
+            width = Double.parseDouble(cmd.getOptionValue(PARAM_W, DEFAULT_W));
+            height = Double.parseDouble(cmd.getOptionValue(PARAM_H, DEFAULT_H));
+            summaryFile = cmd.getOptionValue(PARAM_O, DEFAULT_O);
+            statsFile = cmd.getOptionValue(PARAM_ST);
+
+            // Adaptive step options
+            adaptiveStep = cmd.hasOption(PARAM_AS);
+            minStep = cmd.hasOption(PARAM_DTMIN) ? Double.parseDouble(cmd.getOptionValue(PARAM_DTMIN)) : dt;
+            maxStep = cmd.hasOption(PARAM_DTMAX) ? Double.parseDouble(cmd.getOptionValue(PARAM_DTMAX)) : dt2;
+            stepTolerance = Double.parseDouble(cmd.getOptionValue(PARAM_TOL, DEFAULT_TOL));
+            if (adaptiveStep && (minStep <= 0 || maxStep < minStep || stepTolerance <= 0)) {
+                System.out.println("The adaptive steps must be positive with the minimum under the maximum, and the tolerance positive");
+                System.exit(1);
+            }
+
+            // Obstacle motion options
+            analyticObstacles = cmd.hasOption(PARAM_AO);
+            activationQueue = cmd.hasOption(PARAM_AQ);
+
+            // Profiling options
+            profileFile = cmd.getOptionValue(PARAM_PF);
+
+            // Ensemble options
+            ensemble = cmd.hasOption(PARAM_E);
+            if (ensemble && (adaptiveStep || analyticObstacles || activationQueue || profileFile != null)) {
+                System.out.println("The ensembles only run fixed steps, without -ao, -aq or -pf");
+                System.exit(1);
+            }
+        } catch (ParseException e) {
+            System.out.println("Unknown command used");
+
+            // Display the help again
+            help(options);
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid number " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static double[] ParseDoubles(String values) {
+        String[] parts = values.split(",");
+        double[] parsed = new double[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            parsed[i] = Double.parseDouble(parts[i].trim());
+        }
+        return parsed;
+    }
+
+    private static int[] ParseInts(String values) {
+        String[] parts = values.split(",");
+        int[] parsed = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            parsed[i] = Integer.parseInt(parts[i].trim());
+        }
+        return parsed;
+    }
+
+    /**
+     * Prints the help for the system to the standard output, given the options
+     *
+     * @param options Options to be printed as help
+     */
+    private static void help(Options options) {
+        HelpFormatter formatter = new HelpFormatter();
+        formatter.printHelp("app.SweepRunner", options);
+        System.exit(0);
+    }
+}
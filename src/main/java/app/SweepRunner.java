@@ -0,0 +1,305 @@
+package app;
+
+import pca.AgentMetrics;
+import pca.EnsembleSimulation;
+import pca.FrameSink;
+import pca.PredictiveCollisionAvoidance;
+import pca.ProfileSummary;
+import pca.Scenario;
+import pca.SimulationOutcome;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs every combination of a parameter grid several times, generating each scenario in memory and running
+ * the simulations in parallel inside the same JVM. The metrics of the main particle are computed while each run goes,
+ * without writing its trajectory, and written to a single summary file in the order of the runs. The metrics can also
+ * be appended to the statistics file post/postprocessing.py plots from, in the same order.
+ * Repetition r of every combination uses the seed plus r, so every combination is run over the same crowds.
+ * The repetitions of each combination can also be simulated together as an ensemble, with the same results.
+ */
+public class SweepRunner {
+    // Generator parameters of scripts/run_all.sh that are not part of the grid
+    private static final double PEOPLE_RADIUS = 0.3;
+    private static final double COMFORT_RADIUS = 1.2;
+    private static final double WALL_DISTANCE = 0.6;
+    private static final double MAIN_RADIUS = 0.3;
+    private static final double MASS = 70;
+    private static final double BORDER_LIMIT = 1;
+    private static final double PREF_TIME = 0.5;
+    private static final double MAX_SPEED = 2;
+
+    private static final String SUMMARY_HEADER = "run,dmin,people,people_velocity,pref_speed,repetition,seed,outcome,time,distance,mean_velocity,collisions,wall_millis";
+    private static final String ERROR_OUTCOME = "ERROR";
+
+    private static final int MAIN_PARTICLE_ID = 0;
+
+    // Frames are not needed for the summary, the metrics are computed while the simulation runs
+    private static final FrameSink NO_FRAMES = (time, store) -> {
+    };
+
+    /**
+     * Parameters of a single run
+     */
+    private static final class Run {
+        final int index;
+        final double dmin;
+        final int people;
+        final double peopleVelocity;
+        final double prefSpeed;
+        final int repetition;
+        final long seed;
+
+        Run(int index, double dmin, int people, double peopleVelocity, double prefSpeed, int repetition, long seed) {
+            this.index = index;
+            this.dmin = dmin;
+            this.people = people;
+            this.peopleVelocity = peopleVelocity;
+            this.prefSpeed = prefSpeed;
+            this.repetition = repetition;
+            this.seed = seed;
+        }
+    }
+
+    /**
+     * Result of a single run with the metrics of the main particle, the outcome is null if the run failed
+     */
+    private static final class RunResult {
+        final Run run;
+        final SimulationOutcome outcome;
+        final double timeToGoal;
+        final double distance;
+        final double meanVelocity;
+        final int collisions;
+        final long wallMillis;
+        final String error;
+        final ProfileSummary profile;
+
+        RunResult(Run run, SimulationOutcome outcome, double timeToGoal, double distance, double meanVelocity, int collisions,
+                  long wallMillis, ProfileSummary profile) {
+            this.run = run;
+            this.outcome = outcome;
+            this.timeToGoal = timeToGoal;
+            this.distance = distance;
+            this.meanVelocity = meanVelocity;
+            this.collisions = collisions;
+            this.wallMillis = wallMillis;
+            this.error = null;
+            this.profile = profile;
+        }
+
+        RunResult(Run run, long wallMillis, String error) {
+            this.run = run;
+            this.outcome = null;
+            this.timeToGoal = 0;
+            this.distance = 0;
+            this.meanVelocity = 0;
+            this.collisions = 0;
+            this.wallMillis = wallMillis;
+            this.error = error;
+            this.profile = null;
+        }
+    }
+
+    public static void main(String[] args) {
+        long startTime = Instant.now().toEpochMilli();
+
+        // Parsing the options
+        SweepOptionsParser.ParseOptions(args);
+
+        // Expanding the grid, repetitions last so the runs of a combination are together
+        List<Run> runs = new ArrayList<>();
+        for (double dmin : SweepOptionsParser.dmins) {
+            for (int people : SweepOptionsParser.peopleCounts) {
+                for (double peopleVelocity : SweepOptionsParser.peopleVelocities) {
+                    for (double prefSpeed : SweepOptionsParser.prefSpeeds) {
+                        for (int r = 0; r < SweepOptionsParser.repetitions; r++) {
+                            runs.add(new Run(runs.size(), dmin, people, peopleVelocity, prefSpeed, r, SweepOptionsParser.seed + r));
+                        }
+                    }
+                }
+            }
+        }
+
+        // Grouping the runs simulated together, the repetitions of a combination form an ensemble and otherwise each run is alone
+        int groupSize = SweepOptionsParser.ensemble ? SweepOptionsParser.repetitions : 1;
+        List<List<Run>> groups = new ArrayList<>();
+        for (int from = 0; from < runs.size(); from += groupSize) {
+            groups.add(runs.subList(from, from + groupSize));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(SweepOptionsParser.threads, 1));
+        try (Writer summary = new BufferedWriter(new FileWriter(SweepOptionsParser.summaryFile, false));
+             Writer stats = SweepOptionsParser.statsFile != null ? new BufferedWriter(new FileWriter(SweepOptionsParser.statsFile, true)) : null) {
+            List<Future<List<RunResult>>> results = new ArrayList<>(groups.size());
+            for (List<Run> group : groups) {
+                if (SweepOptionsParser.ensemble) {
+                    results.add(executor.submit(() -> ExecuteEnsemble(group)));
+                } else {
+                    results.add(executor.submit(() -> Collections.singletonList(Execute(group.get(0)))));
+                }
+            }
+
+            // Writing the results in order, as soon as each one is available
+            summary.write(SUMMARY_HEADER);
+            summary.write('\n');
+            int reachedGoal = 0;
+            for (Future<List<RunResult>> future : results) {
+                for (RunResult result : future.get()) {
+                    if (result.outcome == SimulationOutcome.REACHED_GOAL) {
+                        reachedGoal++;
+                    }
+                    if (result.error != null) {
+                        System.out.format("Run %d failed: %s\n", result.run.index, result.error);
+                    }
+                    summary.write(FormatResult(result));
+                    summary.write('\n');
+
+                    // Runs stopped by the time limit or failed are left out of the statistics, as scripts/run_all.sh always did
+                    if (stats != null && result.outcome == SimulationOutcome.REACHED_GOAL) {
+                        Main.WriteStats(stats, result.run.dmin, result.timeToGoal, result.distance, result.meanVelocity, result.collisions);
+                    }
+                }
+                summary.flush();
+                if (stats != null) {
+                    stats.flush();
+                }
+            }
+
+            System.out.format("%d of %d runs reached the goal\n", reachedGoal, runs.size());
+
+            // Saving the profile of every run together
+            if (SweepOptionsParser.profileFile != null) {
+                ProfileSummary profile = new ProfileSummary();
+                for (Future<List<RunResult>> future : results) {
+                    for (RunResult result : future.get()) {
+                        if (result.profile != null) {
+                            profile.add(result.profile);
+                        }
+                    }
+                }
+                Main.SaveProfile(SweepOptionsParser.profileFile, profile);
+            }
+        } catch (IOException e) {
+            System.out.println("Error writing to the summary or statistics file");
+            System.exit(1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.out.println("Interrupted while waiting for the runs");
+            System.exit(1);
+        } catch (ExecutionException e) {
+            System.out.println("Unexpected error in a run: " + e.getCause());
+            System.exit(1);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        long endTime = Instant.now().toEpochMilli();
+
+        long total = endTime - startTime;
+
+        System.out.format("Total Time %d millis\n", total);
+    }
+
+    /**
+     * Generates the scenario of the run and simulates it
+     *
+     * @param run parameters of the run
+     * @return the result of the run
+     */
+    private static RunResult Execute(Run run) {
+        long startTime = System.nanoTime();
+        try {
+            Scenario scenario = Generate(run);
+
+            PredictiveCollisionAvoidance pca = new PredictiveCollisionAvoidance(SweepOptionsParser.dt, SweepOptionsParser.dt2, scenario, false, 1);
+            if (SweepOptionsParser.adaptiveStep) {
+                pca.setAdaptiveStepping(SweepOptionsParser.minStep, SweepOptionsParser.maxStep, SweepOptionsParser.stepTolerance);
+            }
+            if (SweepOptionsParser.analyticObstacles) {
+                pca.useAnalyticObstacles();
+            }
+            if (SweepOptionsParser.activationQueue) {
+                pca.useActivationQueue();
+            }
+            AgentMetrics metrics = new AgentMetrics(MAIN_PARTICLE_ID);
+            pca.addObserver(metrics);
+            SimulationOutcome outcome = pca.simulate(NO_FRAMES);
+
+            return new RunResult(run, outcome, metrics.getTimeToGoal(), metrics.getDistance(), metrics.getMeanVelocity(), metrics.getCollisions(),
+                    (System.nanoTime() - startTime) / 1000000, pca.getProfile());
+        } catch (IllegalStateException e) {
+            return new RunResult(run, (System.nanoTime() - startTime) / 1000000, e.getMessage());
+        }
+    }
+
+    /**
+     * Generates the scenarios of the runs and simulates them together as an ensemble. A run whose scenario can not
+     * be generated fails alone, and the wall time of the others is the one of the whole ensemble.
+     *
+     * @param group runs of the same combination
+     * @return the result of each run, in the same order
+     */
+    private static List<RunResult> ExecuteEnsemble(List<Run> group) {
+        long startTime = System.nanoTime();
+        RunResult[] results = new RunResult[group.size()];
+
+        // Generating the replicas
+        List<Scenario> replicas = new ArrayList<>(group.size());
+        List<Integer> members = new ArrayList<>(group.size());
+        for (int k = 0; k < group.size(); k++) {
+            try {
+                replicas.add(Generate(group.get(k)));
+                members.add(k);
+            } catch (IllegalStateException e) {
+                results[k] = new RunResult(group.get(k), (System.nanoTime() - startTime) / 1000000, e.getMessage());
+            }
+        }
+
+        if (!replicas.isEmpty()) {
+            EnsembleSimulation ensemble = new EnsembleSimulation(SweepOptionsParser.dt, replicas);
+            ensemble.simulate();
+            long wallMillis = (System.nanoTime() - startTime) / 1000000;
+            for (int m = 0; m < members.size(); m++) {
+                int k = members.get(m);
+                results[k] = new RunResult(group.get(k), ensemble.getOutcome(m), ensemble.getTimeToGoal(m), ensemble.getDistance(m),
+                        ensemble.getMeanVelocity(m), ensemble.getCollisions(m), wallMillis, null);
+            }
+        }
+        List<RunResult> list = new ArrayList<>(results.length);
+        Collections.addAll(list, results);
+        return list;
+    }
+
+    /**
+     * Generates the scenario of the run
+     *
+     * @throws IllegalStateException if the people do not fit in the area
+     */
+    private static Scenario Generate(Run run) {
+        ScenarioGenerator generator = new ScenarioGenerator(SweepOptionsParser.width, SweepOptionsParser.height, run.people, PEOPLE_RADIUS, run.peopleVelocity,
+                COMFORT_RADIUS, WALL_DISTANCE, MAIN_RADIUS, MASS, BORDER_LIMIT, run.prefSpeed, PREF_TIME, MAX_SPEED, run.dmin);
+        return generator.generate(run.seed);
+    }
+
+    private static String FormatResult(RunResult result) {
+        Run run = result.run;
+        String line = run.index + "," + run.dmin + "," + run.people + "," + run.peopleVelocity + "," + run.prefSpeed + "," + run.repetition + "," + run.seed + ",";
+        if (result.outcome == null) {
+            return line + ERROR_OUTCOME + ",,,,," + result.wallMillis;
+        }
+        return line + result.outcome.name() + "," + result.timeToGoal + "," + result.distance + "," + result.meanVelocity + ","
+                + result.collisions + "," + result.wallMillis;
+    }
+}
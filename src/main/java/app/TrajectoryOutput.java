@@ -0,0 +1,13 @@
+package app;
+
+import pca.FrameSink;
+
+import java.io.IOException;
+
+/**
+ * Destination of the frames of a simulation, which has to be closed once the simulation ends
+ */
+public interface TrajectoryOutput extends FrameSink, AutoCloseable {
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,197 @@
+package app;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads files in the binary trajectory format written by BinaryTrajectoryWriter.
+ * The file is memory mapped, so any frame or value is read straight from the mapping without parsing or copying.
+ * Files larger than a single mapping are mapped in chunks of whole frames.
+ */
+public class TrajectoryReader implements AutoCloseable {
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        PROPERTIES
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Columns stored for each particle in every frame
+     */
+    public enum Column {
+        X, Y, VX, VY
+    }
+
+    /* Maximum size of each mapping */
+    private static final long MAX_CHUNK_SIZE = Integer.MAX_VALUE;
+
+    private final FileChannel channel;
+    private final int particleCount;
+    private final double dt;
+    private final double dt2;
+    private final int frameCount;
+    private final long frameSize;
+    private final int framesPerChunk;
+    private final DoubleBuffer[] chunks;
+    private final double[] times;
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        CONSTRUCTORS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    public TrajectoryReader(String fileName) throws IOException {
+        this.channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+
+        // Reading the header
+        ByteBuffer header = ByteBuffer.allocate(BinaryTrajectoryWriter.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        while (header.hasRemaining() && this.channel.read(header) >= 0) ;
+        ((Buffer) header).flip();
+        byte[] magic = new byte[BinaryTrajectoryWriter.MAGIC.length];
+        if (header.remaining() == BinaryTrajectoryWriter.HEADER_SIZE) {
+            header.get(magic);
+        }
+        if (!Arrays.equals(magic, BinaryTrajectoryWriter.MAGIC)) {
+            this.channel.close();
+            throw new IOException("Not a trajectory file: " + fileName);
+        }
+        int version = header.getInt();
+        if (version != BinaryTrajectoryWriter.VERSION) {
+            this.channel.close();
+            throw new IOException("Unsupported trajectory file version " + version);
+        }
+        this.particleCount = header.getInt();
+        this.dt = header.getDouble();
+        this.dt2 = header.getDouble();
+        long storedFrames = header.getLong();
+        long indexOffset = header.getLong();
+
+        // Without an index the run did not finish, every complete frame is used
+        this.frameSize = BinaryTrajectoryWriter.getFrameSize(this.particleCount);
+        long framesEnd = indexOffset > 0 ? indexOffset : this.channel.size();
+        this.frameCount = (int) (indexOffset > 0 ? storedFrames : (framesEnd - BinaryTrajectoryWriter.HEADER_SIZE) / this.frameSize);
+
+        // Mapping the frames in chunks
+        this.framesPerChunk = (int) Math.max(Math.min(MAX_CHUNK_SIZE / this.frameSize, Integer.MAX_VALUE), 1);
+        int chunkCount = (this.frameCount + this.framesPerChunk - 1) / this.framesPerChunk;
+        this.chunks = new DoubleBuffer[chunkCount];
+        for (int c = 0; c < chunkCount; c++) {
+            long offset = BinaryTrajectoryWriter.HEADER_SIZE + c * this.framesPerChunk * this.frameSize;
+            long frames = Math.min(this.framesPerChunk, this.frameCount - (long) c * this.framesPerChunk);
+            MappedByteBuffer mapped = this.channel.map(FileChannel.MapMode.READ_ONLY, offset, frames * this.frameSize);
+            this.chunks[c] = mapped.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+        }
+
+        // Loading the times of the frames, from the index if the run finished
+        this.times = new double[this.frameCount];
+        if (indexOffset > 0) {
+            ByteBuffer index = ByteBuffer.allocate(Double.BYTES * this.frameCount).order(ByteOrder.LITTLE_ENDIAN);
+            while (index.hasRemaining() && this.channel.read(index, indexOffset + index.position()) >= 0) ;
+            ((Buffer) index).flip();
+            index.asDoubleBuffer().get(this.times);
+        } else {
+            for (int f = 0; f < this.frameCount; f++) {
+                this.times[f] = this.getChunk(f).get(this.getFrameStart(f));
+            }
+        }
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        GETTERS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    public int getParticleCount() {
+        return particleCount;
+    }
+
+    public double getDt() {
+        return dt;
+    }
+
+    public double getDt2() {
+        return dt2;
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    public double getTime(int frame) {
+        return times[frame];
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        METHODS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Gets a value of a particle in a frame
+     *
+     * @param frame    index of the frame
+     * @param particle index of the particle
+     * @param column   value to get
+     * @return the value
+     */
+    public double get(int frame, int particle, Column column) {
+        return this.getChunk(frame).get(this.getFrameStart(frame) + 1 + column.ordinal() * this.particleCount + particle);
+    }
+
+    /**
+     * Gets a view over a column of a frame, with one value per particle. The view reads from the mapped file.
+     *
+     * @param frame  index of the frame
+     * @param column values to get
+     * @return read only view of the column
+     */
+    public DoubleBuffer getColumn(int frame, Column column) {
+        DoubleBuffer view = this.getChunk(frame).duplicate();
+        int start = this.getFrameStart(frame) + 1 + column.ordinal() * this.particleCount;
+        ((Buffer) view).position(start);
+        ((Buffer) view).limit(start + this.particleCount);
+        return view.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Copies the values of a particle in every frame into the given array
+     *
+     * @param particle index of the particle
+     * @param column   values to get
+     * @param series   array of at least one value per frame
+     * @return the series array
+     */
+    public double[] getSeries(int particle, Column column, double[] series) {
+        for (int f = 0; f < this.frameCount; f++) {
+            series[f] = this.get(f, particle, column);
+        }
+        return series;
+    }
+
+    /**
+     * Finds the last frame at or before the given time
+     *
+     * @param time time to look for
+     * @return index of the frame, -1 if every frame is after the time
+     */
+    public int findFrame(double time) {
+        int index = Arrays.binarySearch(this.times, time);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    private DoubleBuffer getChunk(int frame) {
+        return this.chunks[frame / this.framesPerChunk];
+    }
+
+    private int getFrameStart(int frame) {
+        return (int) ((frame % this.framesPerChunk) * (this.frameSize / Double.BYTES));
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+}
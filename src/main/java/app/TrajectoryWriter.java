@@ -0,0 +1,286 @@
+package app;
+
+import pca.ParticleStore;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Writes the frames of a simulation to the output file while the simulation runs.
+ * Frames are copied into recycled buffers and handed through a bounded queue to a writer thread,
+ * so the simulation only waits for the disk when it gets a full queue ahead of it.
+ */
+public class TrajectoryWriter implements TrajectoryOutput {
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        PROPERTIES
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    private static final int DEFAULT_BUFFERS = 16;
+    private static final int FLUSH_SIZE = 1 << 16;
+    private static final int TIME_DECIMALS = 6;
+
+    /* Frame used to tell the writer thread there are no more frames */
+    private static final Frame END = new Frame(0);
+
+    private final OutputStream output;
+    private final BlockingQueue<Frame> pending;
+    private final BlockingQueue<Frame> free;
+    private final Thread thread;
+    private volatile IOException error;
+
+    /* Formatting buffers, only used by the writer thread */
+    private final StringBuilder text = new StringBuilder(FLUSH_SIZE + 1024);
+    private final StringBuilder number = new StringBuilder(32);
+    private final byte[] bytes = new byte[FLUSH_SIZE + 1024];
+
+    /**
+     * State of the particles at a given time
+     */
+    private static final class Frame {
+        double time;
+        final double[] state;
+
+        Frame(int particleCount) {
+            this.state = new double[particleCount * 4];
+        }
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        CONSTRUCTORS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    public TrajectoryWriter(String fileName, int particleCount) throws IOException {
+        this(new FileOutputStream(fileName, false), particleCount, DEFAULT_BUFFERS);
+    }
+
+    /**
+     * @param output        stream where the frames are written, closed with the writer
+     * @param particleCount amount of particles of each frame
+     * @param buffers       amount of frames that can be waiting to be written
+     */
+    public TrajectoryWriter(OutputStream output, int particleCount, int buffers) {
+        this.output = new BufferedOutputStream(output, FLUSH_SIZE);
+        this.pending = new ArrayBlockingQueue<>(buffers + 1);
+        this.free = new ArrayBlockingQueue<>(buffers);
+        for (int i = 0; i < buffers; i++) {
+            this.free.add(new Frame(particleCount));
+        }
+
+        this.thread = new Thread(this::writeFrames, "trajectory-writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        METHODS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Copies the frame into a free buffer and queues it, waiting for one if every buffer is in use
+     */
+    @Override
+    public void accept(double time, ParticleStore store) {
+        this.checkError();
+        try {
+            Frame frame = this.free.take();
+            if (frame == END) {
+                // The writer thread failed, keeping the end for later calls
+                this.free.offer(END);
+                this.checkError();
+            }
+            frame.time = time;
+            store.copyState(frame.state);
+            this.pending.put(frame);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while queueing a frame", e);
+        }
+    }
+
+    /**
+     * Waits for every queued frame to be written and closes the file
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            this.pending.put(END);
+            this.thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing the output file", e);
+        }
+        if (this.error != null) {
+            throw this.error;
+        }
+    }
+
+    private void checkError() {
+        if (this.error != null) {
+            throw new IllegalStateException("Error writing to the output file", this.error);
+        }
+    }
+
+    /**
+     * Body of the writer thread, writes frames until the end is received
+     */
+    private void writeFrames() {
+        try {
+            Frame frame;
+            while ((frame = this.pending.take()) != END) {
+                this.writeFrame(frame);
+                this.free.put(frame);
+            }
+            this.flush();
+        } catch (IOException e) {
+            this.error = e;
+        } catch (InterruptedException e) {
+            this.error = new IOException("Writer thread interrupted", e);
+        } finally {
+            // The output is closed by the writer thread, keeping the first error
+            try {
+                this.output.close();
+            } catch (IOException e) {
+                if (this.error == null) {
+                    this.error = e;
+                }
+            }
+        }
+
+        // Releasing the simulation in case it is waiting for a buffer
+        if (this.error != null) {
+            this.pending.clear();
+            this.free.offer(END);
+        }
+    }
+
+    private void writeFrame(Frame frame) throws IOException {
+        // Adding the time
+        appendFixed(this.text, this.number, frame.time, TIME_DECIMALS);
+        this.text.append('\n');
+
+        double[] state = frame.state;
+        for (int k = 0; k < state.length; k += 4) {
+            // Adding the position and velocity
+            this.text.append(state[k]).append(' ')
+                    .append(state[k + 1]).append(' ')
+                    .append(state[k + 2]).append(' ')
+                    .append(state[k + 3]).append('\n');
+
+            if (this.text.length() >= FLUSH_SIZE) {
+                this.flush();
+            }
+        }
+    }
+
+    /**
+     * Moves the formatted text to the output, every character is ASCII so each one is a single byte
+     */
+    private void flush() throws IOException {
+        int length = this.text.length();
+        for (int i = 0; i < length; i++) {
+            this.bytes[i] = (byte) this.text.charAt(i);
+        }
+        this.output.write(this.bytes, 0, length);
+        this.text.setLength(0);
+    }
+
+    /**
+     * Appends the value with a fixed amount of decimals, the same way String.format("%f") does:
+     * the shortest decimal representation of the value is rounded half up at the last decimal.
+     *
+     * @param out      where the value is appended
+     * @param scratch  buffer used for the shortest representation
+     * @param value    value to be appended
+     * @param decimals amount of decimals
+     */
+    static void appendFixed(StringBuilder out, StringBuilder scratch, double value, int decimals) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            out.append(value);
+            return;
+        }
+
+        // Shortest representation, either plain or in scientific notation
+        scratch.setLength(0);
+        scratch.append(value);
+        int start = 0;
+        if (scratch.charAt(0) == '-') {
+            out.append('-');
+            start = 1;
+        }
+
+        // Finding the exponent and the position of the decimal point
+        int length = scratch.length();
+        int end = length;
+        int exponent = 0;
+        for (int i = start; i < length; i++) {
+            if (scratch.charAt(i) == 'E') {
+                end = i;
+                boolean negative = scratch.charAt(i + 1) == '-';
+                for (int j = negative ? i + 2 : i + 1; j < length; j++) {
+                    exponent = exponent * 10 + (scratch.charAt(j) - '0');
+                }
+                exponent = negative ? -exponent : exponent;
+                break;
+            }
+        }
+        int point = start;
+        while (scratch.charAt(point) != '.') {
+            point++;
+        }
+
+        // The value is 0.digits x 10^integerDigits, so the rounded value in units of the last decimal
+        // has integerDigits + decimals digits, which are written after the representation
+        int integerDigits = point - start + exponent;
+        int keep = integerDigits + decimals;
+        int digits = length;
+        boolean roundUp = false;
+        for (int i = start, kept = 0; i < end; i++) {
+            if (i == point) {
+                continue;
+            }
+            if (kept >= keep) {
+                // Only the first discarded digit decides the rounding
+                roundUp = kept == keep && scratch.charAt(i) >= '5';
+                break;
+            }
+            scratch.append(scratch.charAt(i));
+            kept++;
+        }
+        while (scratch.length() - digits < keep) {
+            scratch.append('0');
+        }
+
+        // Rounding half up, carrying to the left
+        if (roundUp) {
+            int i = scratch.length() - 1;
+            while (i >= digits && scratch.charAt(i) == '9') {
+                scratch.setCharAt(i, '0');
+                i--;
+            }
+            if (i >= digits) {
+                scratch.setCharAt(i, (char) (scratch.charAt(i) + 1));
+            } else {
+                scratch.insert(digits, '1');
+            }
+        }
+
+        // Integer part and decimals, padding with zeros if the value is smaller than one
+        int count = scratch.length() - digits;
+        if (count <= decimals) {
+            out.append('0');
+        } else {
+            out.append(scratch, digits, digits + count - decimals);
+        }
+        if (decimals > 0) {
+            out.append('.');
+            for (int i = count; i < decimals; i++) {
+                out.append('0');
+            }
+            out.append(scratch, digits + Math.max(count - decimals, 0), digits + count);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package app;
+
+import org.apache.commons.cli.*;
+
+public class WorkerOptionsParser {
+    protected static int port;
+    protected static String host;
+
+    private static final String PARAM_PORT = "port";
+    private static final String PARAM_HOST = "host";
+
+    private static final String DEFAULT_PORT = "0";
+    private static final String DEFAULT_HOST = "127.0.0.1";
+
+    /**
+     * Generates the options for the help.
+     *
+     * @return Options object with the options
+     */
+    private static Options GenerateOptions() {
+        Options options = new Options();
+        options.addOption(PARAM_PORT, "port", true, "Port the worker listens to, defaults to any free port, which is printed once listening.");
+        options.addOption(PARAM_HOST, "host", true, "Address the worker listens on, defaults to " + DEFAULT_HOST + ".");
+        return options;
+    }
+
+    public static void ParseOptions(String[] args) {
+        // Generating the options
+        Options options = GenerateOptions();
+
+        // Creating the parser
+        CommandLineParser parser = new DefaultParser();
+
+        try {
+            // Parsing the options
+            CommandLine cmd = parser.parse(options, args);
+
+            port = Integer.parseInt(cmd.getOptionValue(PARAM_PORT, DEFAULT_PORT));
+            host = cmd.getOptionValue(PARAM_HOST, DEFAULT_HOST);
+        } catch (ParseException e) {
+            System.out.println("Unknown command used");
+
+            // Display the help again
+            help(options);
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid number " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Prints the help for the system to the standard output, given the options
+     *
+     * @param options Options to be printed as help
+     */
+    private static void help(Options options) {
+        HelpFormatter formatter = new HelpFormatter();
+        formatter.printHelp("app.StripWorker", options);
+        System.exit(0);
+    }
+}
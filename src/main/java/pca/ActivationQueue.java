@@ -0,0 +1,135 @@
+package pca;
+
+/**
+ * Splits the obstacles in the active ones, close enough to the agent to be tested every step, and the inactive ones,
+ * each waiting in a priority queue for the earliest time it could get close enough.
+ * The queue is a binary min heap kept in primitive arrays, every inactive obstacle is in it exactly once.
+ */
+final class ActivationQueue {
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        PROPERTIES
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    /* Inactive obstacles ordered by their activation time */
+    private final int[] heap;
+    private final double[] activationTime;
+    private int queued;
+
+    /* Active obstacles, in no particular order */
+    private final int[] active;
+    private int activeCount;
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        CONSTRUCTORS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * @param particleCount amount of particles, indexes go from 0 to particleCount - 1
+     */
+    ActivationQueue(int particleCount) {
+        this.heap = new int[particleCount];
+        this.activationTime = new double[particleCount];
+        this.active = new int[particleCount];
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        GETTERS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    int getActiveCount() {
+        return activeCount;
+    }
+
+    int getActive(int k) {
+        return active[k];
+    }
+
+    int getQueuedCount() {
+        return queued;
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        METHODS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * @param time current time
+     * @return true if an inactive obstacle could be close enough at the given time
+     */
+    boolean hasDue(double time) {
+        return this.queued > 0 && this.activationTime[this.heap[0]] <= time;
+    }
+
+    /**
+     * Queues an inactive obstacle until the given time
+     *
+     * @param j    index of the obstacle
+     * @param time earliest time the obstacle could be close enough
+     */
+    void schedule(int j, double time) {
+        this.activationTime[j] = time;
+        int k = this.queued++;
+
+        // Moving the obstacle up while it is due before its parent
+        while (k > 0) {
+            int parent = (k - 1) >>> 1;
+            if (this.activationTime[this.heap[parent]] <= time) {
+                break;
+            }
+            this.heap[k] = this.heap[parent];
+            k = parent;
+        }
+        this.heap[k] = j;
+    }
+
+    /**
+     * Removes the inactive obstacle due first from the queue
+     *
+     * @return index of the obstacle
+     */
+    int poll() {
+        int first = this.heap[0];
+        int last = this.heap[--this.queued];
+        double time = this.activationTime[last];
+
+        // Moving the last obstacle down from the top while a child is due before it
+        int k = 0;
+        int half = this.queued >>> 1;
+        while (k < half) {
+            int child = 2 * k + 1;
+            if (child + 1 < this.queued && this.activationTime[this.heap[child + 1]] < this.activationTime[this.heap[child]]) {
+                child++;
+            }
+            if (time <= this.activationTime[this.heap[child]]) {
+                break;
+            }
+            this.heap[k] = this.heap[child];
+            k = child;
+        }
+        if (this.queued > 0) {
+            this.heap[k] = last;
+        }
+        return first;
+    }
+
+    /**
+     * Adds an obstacle to the active ones
+     *
+     * @param j index of the obstacle, which must not be queued
+     */
+    void activate(int j) {
+        this.active[this.activeCount++] = j;
+    }
+
+    /**
+     * Removes the k-th active obstacle, moving the last active obstacle to its place
+     *
+     * @param k position of the obstacle among the active ones
+     * @return index of the removed obstacle
+     */
+    int deactivate(int k) {
+        int j = this.active[k];
+        this.active[k] = this.active[--this.activeCount];
+        return j;
+    }
+}
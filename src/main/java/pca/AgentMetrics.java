@@ -0,0 +1,168 @@
+package pca;
+
+import java.util.Arrays;
+
+/**
+ * Computes the metrics of an agent while the simulation runs, at every dt step: the time it took to reach its goal,
+ * the distance it travelled, its mean velocity and the amount of collisions it had.
+ * A collision is counted every time the agent starts overlapping an obstacle, staying in contact with the same
+ * obstacle counts once. The obstacles touching the agent are found with the spatial index of the simulation.
+ */
+public class AgentMetrics implements SimulationObserver {
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        PROPERTIES
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    private static final int NEVER = Integer.MIN_VALUE;
+
+    private final int agent;
+
+    private double timeToGoal = Double.NaN;
+    private double distance;
+    private int collisions;
+    private double lastX;
+    private double lastY;
+    private double lastTime;
+
+    /* Step in which each obstacle was last overlapping the agent */
+    private int[] lastContact;
+    private int[] candidates;
+    private int step;
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        CONSTRUCTORS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * @param agent index of the agent to measure
+     */
+    public AgentMetrics(int agent) {
+        this.agent = agent;
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        GETTERS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * @return time at which the agent reached its goal, or the duration of the run if it never did
+     */
+    public double getTimeToGoal() {
+        return Double.isNaN(timeToGoal) ? lastTime : timeToGoal;
+    }
+
+    public boolean hasReachedGoal() {
+        return !Double.isNaN(timeToGoal);
+    }
+
+    public double getDistance() {
+        return distance;
+    }
+
+    public double getMeanVelocity() {
+        return meanVelocity(distance, this.getTimeToGoal());
+    }
+
+    public int getCollisions() {
+        return collisions;
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        METHODS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    @Override
+    public void onStart(PredictiveCollisionAvoidance simulation) {
+        ParticleStore store = simulation.getStore();
+        this.lastContact = new int[store.size()];
+        this.candidates = new int[store.size()];
+        Arrays.fill(this.lastContact, NEVER);
+
+        this.timeToGoal = Double.NaN;
+        this.distance = 0;
+        this.collisions = 0;
+        this.step = 0;
+        this.lastX = store.getX(this.agent);
+        this.lastY = store.getY(this.agent);
+        this.lastTime = simulation.getTotalTime();
+        this.countCollisions(simulation);
+    }
+
+    @Override
+    public void onStep(PredictiveCollisionAvoidance simulation) {
+        // Once at the goal the agent stops being measured
+        if (!Double.isNaN(this.timeToGoal)) {
+            return;
+        }
+        ParticleStore store = simulation.getStore();
+        this.step++;
+        this.lastTime = simulation.getTotalTime();
+
+        // Adding the distance of the step
+        double x = store.getX(this.agent), y = store.getY(this.agent);
+        this.distance += stepLength(this.lastX, this.lastY, x, y);
+        this.lastX = x;
+        this.lastY = y;
+
+        this.countCollisions(simulation);
+
+        if (simulation.hasReachedGoal(this.agent)) {
+            this.timeToGoal = this.lastTime;
+        }
+    }
+
+    /**
+     * Counts the obstacles that started overlapping the agent in the current step
+     */
+    private void countCollisions(PredictiveCollisionAvoidance simulation) {
+        ParticleStore store = simulation.getStore();
+        double x = store.getX(this.agent), y = store.getY(this.agent), radius = store.getRadius(this.agent);
+
+        int count = simulation.queryObstacles(x, y, radius + simulation.getMaxObstacleRadius(), this.candidates);
+        this.collisions += countNewContacts(store, this.agent, this.candidates, count, this.lastContact, this.step);
+    }
+
+    /**
+     * Records which of the obstacles overlap the agent in the given step
+     *
+     * @param candidates  obstacles that may overlap the agent, the agent itself is skipped
+     * @param count       amount of obstacles
+     * @param lastContact step in which each obstacle was last overlapping the agent, by index
+     * @param step        step being measured
+     * @return amount of obstacles that started overlapping the agent, staying in contact counts once
+     */
+    static int countNewContacts(ParticleStore store, int agent, int[] candidates, int count, int[] lastContact, int step) {
+        double x = store.x.get(agent), y = store.y.get(agent), radius = store.radius.get(agent);
+        int collisions = 0;
+        for (int k = 0; k < count; k++) {
+            int j = candidates[k];
+            if (j == agent) {
+                continue;
+            }
+            double dx = x - store.x.get(j), dy = y - store.y.get(j);
+            if (Math.sqrt(dx * dx + dy * dy) - radius - store.radius.get(j) <= 0) {
+                // Only a new contact is a new collision
+                if (lastContact[j] != step - 1) {
+                    collisions++;
+                }
+                lastContact[j] = step;
+            }
+        }
+        return collisions;
+    }
+
+    /**
+     * @return distance the agent travelled in a step, from the first position to the second one
+     */
+    static double stepLength(double lastX, double lastY, double x, double y) {
+        double dx = x - lastX, dy = y - lastY;
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /**
+     * @return mean velocity of the agent over the given distance and time, 0 for no time
+     */
+    static double meanVelocity(double distance, double time) {
+        return time > 0 ? distance / time : 0;
+    }
+}
@@ -0,0 +1,125 @@
+package pca;
+
+/**
+ * Batch version of the collision prediction, solving the time to collision quadratic for a block of obstacles at once.
+ * The obstacles are gathered in contiguous arrays and the loop has no calls nor early exits, so the JIT can unroll
+ * and vectorize it. It is the only implementation of the prediction, a single pair is solved as a block of one obstacle.
+ */
+public final class CollisionKernel {
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        PROPERTIES
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    /* Amount of obstacles solved at once, small enough for the block to stay in the first level cache */
+    public static final int BATCH_SIZE = 256;
+
+    /* Gathered obstacles */
+    final double[] x = new double[BATCH_SIZE];
+    final double[] y = new double[BATCH_SIZE];
+    final double[] vx = new double[BATCH_SIZE];
+    final double[] vy = new double[BATCH_SIZE];
+    final double[] radius = new double[BATCH_SIZE];
+    final int[] indexes = new int[BATCH_SIZE];
+    int count;
+
+    /* Time to collision of each gathered obstacle, NO_COLLISION if there is none */
+    final double[] times = new double[BATCH_SIZE];
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        METHODS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Gathers up to BATCH_SIZE obstacles from the store, skipping the given one
+     *
+     * @param store      store with the particles
+     * @param candidates indexes of the obstacles
+     * @param from       first candidate to gather
+     * @param to         end of the candidates, exclusive
+     * @param exclude    index to skip, the agent looking for collisions
+     * @return first candidate that was not gathered
+     */
+    int gather(ParticleStore store, int[] candidates, int from, int to, int exclude) {
+        int c = from;
+        int n = 0;
+        for (; c < to && n < BATCH_SIZE; c++) {
+            int j = candidates[c];
+            if (j == exclude) {
+                continue;
+            }
+            this.x[n] = store.x.get(j);
+            this.y[n] = store.y.get(j);
+            this.vx[n] = store.vx.get(j);
+            this.vy[n] = store.vy.get(j);
+            this.radius[n] = store.radius.get(j);
+            this.indexes[n] = j;
+            n++;
+        }
+        this.count = n;
+        return c;
+    }
+
+    /**
+     * Gathers up to BATCH_SIZE obstacles from the store moved along their velocity, skipping the given one
+     *
+     * @param offset time the obstacles are moved by, 0 for their current positions
+     * @return first candidate that was not gathered
+     * @see #gather(ParticleStore, int[], int, int, int)
+     */
+    int gather(ParticleStore store, int[] candidates, int from, int to, int exclude, double offset) {
+        int c = this.gather(store, candidates, from, to, exclude);
+        if (offset != 0) {
+            for (int k = 0; k < this.count; k++) {
+                this.x[k] = this.x[k] + offset * this.vx[k];
+                this.y[k] = this.y[k] + offset * this.vy[k];
+            }
+        }
+        return c;
+    }
+
+    /**
+     * Computes the time to collision of every gathered obstacle for an agent moving with the desired velocity
+     */
+    void computeTimes(double xi, double yi, double desiredVx, double desiredVy, double comfortRadius, double anticipationTime) {
+        collisionTimes(xi, yi, desiredVx, desiredVy, comfortRadius, anticipationTime,
+                this.x, this.y, this.vx, this.vy, this.radius, this.count, this.times);
+    }
+
+    /**
+     * Computes the time until a particle moving with the desired velocity gets within its comfort radius
+     * of each of the given obstacles, storing NO_COLLISION when there is none within the anticipation time
+     *
+     * @param count amount of obstacles, the first count positions of each array are used
+     * @param times where the time of each obstacle is stored
+     */
+    public static void collisionTimes(double xi, double yi, double desiredVx, double desiredVy, double comfortRadius, double anticipationTime,
+                                      double[] xj, double[] yj, double[] vxj, double[] vyj, double[] radius, int count, double[] times) {
+        for (int k = 0; k < count; k++) {
+            // Velocity variables
+            double vx = desiredVx - vxj[k];
+            double vy = desiredVy - vyj[k];
+
+            double xd = xj[k] - xi;
+            double yd = yj[k] - yi;
+
+            // Quadratic variables
+            double cr = comfortRadius + radius[k];
+            double c = xd*xd + yd*yd - Math.pow(cr, 2);
+            double b = -1 * (2*vx*xd + 2*vy*yd);
+            double a = vx*vx + vy*vy;
+            double value = (b * b) - 4.0 * a * c;
+
+            // Solutions, NaN when there is no solution
+            double root = Math.sqrt(value);
+            double t1 = (-b + root) / (2.0 * a);
+            double t2 = (-b - root) / (2.0 * a);
+            double min = Math.min(t1, t2);
+
+            // No solution, one solution or both negative means no collision,
+            // one negative and the other one positive means the collision is imminent
+            boolean none = value < 0 || t1 == t2 || (t1 < 0.0 && t2 < 0.0);
+            double time = t1 * t2 < 0 ? 0.0 : (min <= anticipationTime ? min : ParticleStore.NO_COLLISION);
+            times[k] = none ? ParticleStore.NO_COLLISION : time;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package pca;
+
+import java.nio.DoubleBuffer;
+
+/**
+ * Column of values of a ParticleStore, kept either in an array on the heap or in a buffer outside of it.
+ * Only one of both is set, so reading a value is a branch the JIT predicts once the store is built.
+ */
+final class DoubleColumn {
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        PROPERTIES
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    // Values on the heap, null if they are in the buffer
+    private final double[] array;
+    // Values outside of the heap, null if they are in the array
+    private final DoubleBuffer buffer;
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        CONSTRUCTORS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    private DoubleColumn(double[] array, DoubleBuffer buffer) {
+        this.array = array;
+        this.buffer = buffer;
+    }
+
+    /**
+     * @param size amount of values
+     * @return column kept in an array, with every value in 0
+     */
+    static DoubleColumn onHeap(int size) {
+        return new DoubleColumn(new double[size], null);
+    }
+
+    /**
+     * @param buffer direct or mapped buffer with the values, read and written at absolute indexes
+     * @return column kept in the buffer
+     */
+    static DoubleColumn of(DoubleBuffer buffer) {
+        return new DoubleColumn(null, buffer);
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        GETTERS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    double get(int i) {
+        if (this.array != null) {
+            return this.array[i];
+        }
+        return this.buffer.get(i);
+    }
+
+    /**
+     * @return true if the values are kept outside of the heap
+     */
+    boolean isOffHeap() {
+        return this.buffer != null;
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        SETTERS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    void set(int i, double value) {
+        if (this.array != null) {
+            this.array[i] = value;
+        } else {
+            this.buffer.put(i, value);
+        }
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        METHODS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * @return copy of the values in an array on the heap
+     */
+    double[] toArray() {
+        if (this.array != null) {
+            return this.array.clone();
+        }
+        double[] values = new double[this.buffer.limit()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = this.buffer.get(i);
+        }
+        return values;
+    }
+}
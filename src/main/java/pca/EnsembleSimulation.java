@@ -0,0 +1,419 @@
+package pca;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Several replicas of a scenario, differing only in their particles, simulated together in lockstep. The particles
+ * of every replica are kept in a single store, replica by replica with its main particle first, and each phase of a
+ * step runs over every replica still walking before the next phase starts, so the work of all of them goes through
+ * the same loops over contiguous arrays. A replica stops being stepped once its main particle reaches its goal.
+ *
+ * Each replica is steered and moved by the same static helpers a {@link PredictiveCollisionAvoidance} of its scenario
+ * uses with fixed steps, in the same order, so its outcome and metrics are the same ones {@link AgentMetrics} measures
+ * in its own run.
+ * Only the main particle steers, with semi-implicit Euler, and no frames are kept.
+ */
+public final class EnsembleSimulation {
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        PROPERTIES
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    private static final int NEVER = Integer.MIN_VALUE;
+
+    private final double stepSize;
+    private double totalTime;
+
+    private final double areaHeight;
+    private final double areaWidth;
+    private final double safeWallDistance;
+    private final double dmin;
+    private final double[][] weights;
+
+    /* Particles of every replica, replica r has the ones from first[r] to first[r + 1], its main particle first */
+    private final ParticleStore store;
+    private final int[] first;
+    private final int replicaCount;
+
+    /* Goal of the main particle of each replica, and its largest and fastest obstacles */
+    private final double[] goalX;
+    private final double[] goalY;
+    private final double[] maxObstacleRadius;
+    private final double[] maxObstacleSpeed;
+
+    /* Replicas still walking, in order */
+    private final int[] live;
+    private int liveCount;
+
+    /* Forces of the main particle of each replica in the current step */
+    private final double[] wallForceX;
+    private final double[] wallForceY;
+    private final double[] goalForceX;
+    private final double[] goalForceY;
+    private final double[] avoidanceForceX;
+    private final double[] avoidanceForceY;
+
+    /* Metrics of the main particle of each replica, timeToGoal is NaN until it reaches the goal */
+    private final double[] timeToGoal;
+    private final double[] distance;
+    private final int[] collisions;
+    private final double[] lastX;
+    private final double[] lastY;
+
+    /* Step in which each obstacle was last overlapping the main particle of its replica */
+    private final int[] lastContact;
+    private int step;
+
+    /* Working memory */
+    private final int[] candidates;
+    private final CollisionKernel kernel = new CollisionKernel();
+    private final TopKSelector closest = new TopKSelector(PredictiveCollisionAvoidance.OBSTACLE_LIMIT);
+    private final double[] force = new double[2];
+    private final double[] next = new double[4];
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        CONSTRUCTORS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Creates the ensemble with its own copy of the initial state of each scenario
+     *
+     * @param dt       size of the steps
+     * @param replicas scenarios of the replicas, with the same area, safe wall distance and dmin
+     * @throws IllegalArgumentException if there are no replicas, one has no particles or they do not share the area
+     */
+    public EnsembleSimulation(double dt, List<Scenario> replicas) {
+        if (replicas.isEmpty()) {
+            throw new IllegalArgumentException("An ensemble needs at least one replica");
+        }
+        Scenario model = replicas.get(0);
+        this.stepSize = dt;
+        this.totalTime = 0;
+        this.areaHeight = model.getHeight();
+        this.areaWidth = model.getWidth();
+        this.safeWallDistance = model.getSafeWallDistance();
+        this.dmin = model.getDmin();
+        this.weights = PredictiveCollisionAvoidance.computeWeights(PredictiveCollisionAvoidance.BASE_WEIGHTS);
+
+        // Laying out the replicas one after the other
+        this.replicaCount = replicas.size();
+        this.first = new int[this.replicaCount + 1];
+        for (int r = 0; r < this.replicaCount; r++) {
+            Scenario scenario = replicas.get(r);
+            if (scenario.getWidth() != this.areaWidth || scenario.getHeight() != this.areaHeight
+                    || scenario.getSafeWallDistance() != this.safeWallDistance || scenario.getDmin() != this.dmin) {
+                throw new IllegalArgumentException("The replicas of an ensemble must share the area, the safe wall distance and dmin");
+            }
+            if (scenario.getParticleCount() == 0) {
+                throw new IllegalArgumentException("Replica " + r + " has no particles");
+            }
+            this.first[r + 1] = this.first[r] + scenario.getParticleCount();
+        }
+        this.store = new ParticleStore(this.first[this.replicaCount]);
+        for (int r = 0; r < this.replicaCount; r++) {
+            ParticleStore replica = replicas.get(r).createStore();
+            for (int i = 0; i < replica.size(); i++) {
+                this.store.copy(this.first[r] + i, replica, i);
+            }
+        }
+
+        // Goals and obstacles of each replica
+        this.goalX = new double[this.replicaCount];
+        this.goalY = new double[this.replicaCount];
+        this.maxObstacleRadius = new double[this.replicaCount];
+        this.maxObstacleSpeed = new double[this.replicaCount];
+        ParticleStore s = this.store;
+        for (int r = 0; r < this.replicaCount; r++) {
+            int agent = this.first[r];
+            Scenario scenario = replicas.get(r);
+            if (!Double.isNaN(scenario.getGoalX(0)) && !Double.isNaN(scenario.getGoalY(0))) {
+                this.goalX[r] = scenario.getGoalX(0);
+                this.goalY[r] = scenario.getGoalY(0);
+            } else {
+                // The main particle walks to the right wall
+                this.goalX[r] = this.areaWidth - (s.comfortRadius.get(agent) + s.radius.get(agent) / 2);
+                this.goalY[r] = this.areaHeight / 2;
+            }
+            for (int j = agent + 1; j < this.first[r + 1]; j++) {
+                this.maxObstacleRadius[r] = Math.max(this.maxObstacleRadius[r], s.radius.get(j));
+                this.maxObstacleSpeed[r] = Math.max(this.maxObstacleSpeed[r], this.getSpeed(j));
+            }
+        }
+
+        // Every replica starts walking
+        this.live = new int[this.replicaCount];
+        for (int r = 0; r < this.replicaCount; r++) {
+            this.live[r] = r;
+        }
+        this.liveCount = this.replicaCount;
+
+        this.wallForceX = new double[this.replicaCount];
+        this.wallForceY = new double[this.replicaCount];
+        this.goalForceX = new double[this.replicaCount];
+        this.goalForceY = new double[this.replicaCount];
+        this.avoidanceForceX = new double[this.replicaCount];
+        this.avoidanceForceY = new double[this.replicaCount];
+
+        this.timeToGoal = new double[this.replicaCount];
+        this.distance = new double[this.replicaCount];
+        this.collisions = new int[this.replicaCount];
+        this.lastX = new double[this.replicaCount];
+        this.lastY = new double[this.replicaCount];
+        this.lastContact = new int[s.size()];
+
+        int largest = 0;
+        for (int r = 0; r < this.replicaCount; r++) {
+            largest = Math.max(largest, this.first[r + 1] - this.first[r]);
+        }
+        this.candidates = new int[largest];
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        GETTERS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    public int getReplicaCount() {
+        return replicaCount;
+    }
+
+    /**
+     * @return simulated time so far, the time the last replica stopped once the run finishes
+     */
+    public double getTotalTime() {
+        return totalTime;
+    }
+
+    /**
+     * @return amount of replicas whose main particle has not reached its goal yet
+     */
+    public int getLiveCount() {
+        return liveCount;
+    }
+
+    /**
+     * @param replica index of the replica
+     * @return position in the store of the first particle of the replica, its main particle
+     */
+    public int getFirstParticle(int replica) {
+        return first[replica];
+    }
+
+    /**
+     * @return particles of every replica, one replica after the other
+     */
+    public ParticleStore getStore() {
+        return store;
+    }
+
+    public boolean hasReachedGoal(int replica) {
+        return !Double.isNaN(timeToGoal[replica]);
+    }
+
+    /**
+     * @return whether the replica reached its goal, TIME_LIMIT if it was still walking when the ensemble stopped
+     */
+    public SimulationOutcome getOutcome(int replica) {
+        return this.hasReachedGoal(replica) ? SimulationOutcome.REACHED_GOAL : SimulationOutcome.TIME_LIMIT;
+    }
+
+    /**
+     * @return time at which the main particle of the replica reached its goal, or the duration of the run if it never did
+     */
+    public double getTimeToGoal(int replica) {
+        return Double.isNaN(timeToGoal[replica]) ? totalTime : timeToGoal[replica];
+    }
+
+    public double getDistance(int replica) {
+        return distance[replica];
+    }
+
+    public double getMeanVelocity(int replica) {
+        return AgentMetrics.meanVelocity(distance[replica], this.getTimeToGoal(replica));
+    }
+
+    public int getCollisions(int replica) {
+        return collisions[replica];
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        METHODS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Runs every replica until its main particle reaches its goal or the time limit stops the ensemble
+     */
+    public void simulate() {
+        this.start();
+        while (this.liveCount > 0 && this.totalTime < PredictiveCollisionAvoidance.TIME_LIMIT) {
+            this.step();
+        }
+    }
+
+    private void start() {
+        Arrays.fill(this.timeToGoal, Double.NaN);
+        Arrays.fill(this.lastContact, NEVER);
+        this.step = 0;
+        for (int r = 0; r < this.replicaCount; r++) {
+            this.lastX[r] = this.store.x.get(this.first[r]);
+            this.lastY[r] = this.store.y.get(this.first[r]);
+            this.countCollisions(r);
+        }
+    }
+
+    /**
+     * Advances every replica still walking a single step, then retires the ones that reached their goal
+     */
+    private void step() {
+        // Forces that do not depend on the obstacles, and with them the desired velocities
+        for (int k = 0; k < this.liveCount; k++) {
+            this.computeDesiredVelocity(this.live[k]);
+        }
+
+        // Closest collisions and the avoidance force, only the obstacles within the reach are tested
+        for (int k = 0; k < this.liveCount; k++) {
+            this.computeAvoidanceForce(this.live[k]);
+        }
+
+        // Next state of the main particles
+        for (int k = 0; k < this.liveCount; k++) {
+            this.computeNextState(this.live[k]);
+        }
+
+        // Moving the main particles and the obstacles of every replica
+        for (int k = 0; k < this.liveCount; k++) {
+            this.updateParticles(this.live[k]);
+        }
+        this.totalTime = this.totalTime + this.stepSize;
+        this.step++;
+
+        // Measuring the step and retiring the replicas that reached their goal, keeping the order of the rest
+        int kept = 0;
+        for (int k = 0; k < this.liveCount; k++) {
+            int r = this.live[k];
+            if (!this.measure(r)) {
+                this.live[kept++] = r;
+            }
+        }
+        this.liveCount = kept;
+    }
+
+    /**
+     * Computes the wall and goal forces of the main particle of the replica and its desired velocity
+     */
+    private void computeDesiredVelocity(int r) {
+        ParticleStore s = this.store;
+        int agent = this.first[r];
+        double x = s.x.get(agent), y = s.y.get(agent), vx = s.vx.get(agent), vy = s.vy.get(agent);
+
+        PredictiveCollisionAvoidance.computeAreaWallForce(x, y, s.radius.get(agent), this.safeWallDistance, this.areaWidth, this.areaHeight, this.force);
+        this.wallForceX[r] = this.force[0];
+        this.wallForceY[r] = this.force[1];
+
+        PredictiveCollisionAvoidance.computeGoalForce(s, agent, this.goalX[r], this.goalY[r], x, y, vx, vy, this.force);
+        this.goalForceX[r] = this.force[0];
+        this.goalForceY[r] = this.force[1];
+
+        PredictiveCollisionAvoidance.computeDesiredVelocity(vx, vy, this.stepSize, this.wallForceX[r], this.wallForceY[r],
+                this.goalForceX[r], this.goalForceY[r], this.force);
+        s.desiredVx.set(agent, this.force[0]);
+        s.desiredVy.set(agent, this.force[1]);
+    }
+
+    /**
+     * Finds the closest collisions of the main particle of the replica and computes its avoidance force.
+     * A collision within the anticipation time needs the obstacle to be within the same reach a single run searches,
+     * and the closest ones are ordered by time, distance and index, so they are the same ones it finds.
+     */
+    private void computeAvoidanceForce(int r) {
+        ParticleStore s = this.store;
+        int agent = this.first[r];
+        double x = s.x.get(agent), y = s.y.get(agent);
+        double desiredVx = s.desiredVx.get(agent), desiredVy = s.desiredVy.get(agent);
+
+        // Obstacles of the replica within the reach
+        double reach = PredictiveCollisionAvoidance.computeReach(s, agent, desiredVx, desiredVy, this.maxObstacleRadius[r], this.maxObstacleSpeed[r]);
+        int count = 0;
+        for (int j = agent + 1; j < this.first[r + 1]; j++) {
+            if (Math.abs(s.x.get(j) - x) <= reach && Math.abs(s.y.get(j) - y) <= reach) {
+                this.candidates[count++] = j;
+            }
+        }
+
+        // Calculating collisions in batches, keeping the closest ones
+        TopKSelector closest = this.closest;
+        PredictiveCollisionAvoidance.selectClosest(s, agent, this.candidates, count, x, y, desiredVx, desiredVy, 0, this.kernel, closest, null);
+
+        PredictiveCollisionAvoidance.computeAvoidanceForce(s, closest, this.weights[closest.size()], this.dmin, s.radius.get(agent),
+                x, y, desiredVx, desiredVy, 0, this.force);
+        this.avoidanceForceX[r] = this.force[0];
+        this.avoidanceForceY[r] = this.force[1];
+    }
+
+    /**
+     * Computes the next velocity and position of the main particle of the replica, keeping its speed under its maximum
+     */
+    private void computeNextState(int r) {
+        PredictiveCollisionAvoidance.computeNextState(this.store, this.first[r], Integrator.SEMI_IMPLICIT_EULER, null, this.stepSize,
+                this.avoidanceForceX[r], this.avoidanceForceY[r], this.wallForceX[r], this.wallForceY[r], this.goalForceX[r], this.goalForceY[r], this.next);
+    }
+
+    /**
+     * Moves the main particle of the replica to its next state and its obstacles along their velocity,
+     * reversing the ones that hit the top or bottom wall
+     */
+    private void updateParticles(int r) {
+        ParticleStore s = this.store;
+        int agent = this.first[r];
+        s.commitNextState(agent);
+
+        double maxSpeed = 0;
+        for (int i = agent + 1; i < this.first[r + 1]; i++) {
+            PredictiveCollisionAvoidance.advanceObstacle(s, i, this.stepSize, this.areaHeight);
+            maxSpeed = Math.max(maxSpeed, this.getSpeed(i));
+        }
+        this.maxObstacleSpeed[r] = maxSpeed;
+    }
+
+    /**
+     * Adds the last step to the metrics of the replica, the same way {@link AgentMetrics} does
+     *
+     * @return true if its main particle reached its goal
+     */
+    private boolean measure(int r) {
+        ParticleStore s = this.store;
+        int agent = this.first[r];
+        double x = s.x.get(agent), y = s.y.get(agent);
+        this.distance[r] += AgentMetrics.stepLength(this.lastX[r], this.lastY[r], x, y);
+        this.lastX[r] = x;
+        this.lastY[r] = y;
+
+        this.countCollisions(r);
+
+        if (PredictiveCollisionAvoidance.isAtGoal(s, agent, this.goalX[r], this.goalY[r])) {
+            this.timeToGoal[r] = this.totalTime;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Counts the obstacles of the replica that started overlapping its main particle in the current step,
+     * testing the ones that may touch it
+     */
+    private void countCollisions(int r) {
+        ParticleStore s = this.store;
+        int agent = this.first[r];
+        double x = s.x.get(agent), y = s.y.get(agent), reach = s.radius.get(agent) + this.maxObstacleRadius[r];
+        int count = 0;
+        for (int j = agent + 1; j < this.first[r + 1]; j++) {
+            if (Math.abs(s.x.get(j) - x) <= reach && Math.abs(s.y.get(j) - y) <= reach) {
+                this.candidates[count++] = j;
+            }
+        }
+        this.collisions[r] += AgentMetrics.countNewContacts(s, agent, this.candidates, count, this.lastContact, this.step);
+    }
+
+    private double getSpeed(int i) {
+        return Math.sqrt(this.store.vx.get(i) * this.store.vx.get(i) + this.store.vy.get(i) * this.store.vy.get(i));
+    }
+}
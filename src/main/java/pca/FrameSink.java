@@ -0,0 +1,15 @@
+package pca;
+
+/**
+ * Receives the state of every particle each time the simulation stores a result, every dt2
+ */
+public interface FrameSink {
+    /**
+     * Called with the state of the particles at the given time. The store keeps changing once this returns,
+     * so implementations must copy whatever they need before returning.
+     *
+     * @param time  time of the frame
+     * @param store state of the particles
+     */
+    void accept(double time, ParticleStore store);
+}
@@ -0,0 +1,147 @@
+package pca;
+
+/**
+ * Scheme moving an agent from the forces applied to it. Every scheme gets the acceleration at the current state,
+ * the one the steering already computed, and the ones with several stages evaluate the forces again at the state
+ * of each stage, with the obstacles moved along their velocity to the time of the stage.
+ * The speed of the agent is clamped to its maximum at every stage.
+ */
+public enum Integrator {
+    /**
+     * Moves with the current velocity and then updates it, first order
+     */
+    EXPLICIT_EULER {
+        @Override
+        void integrate(Dynamics dynamics, double h, double maxSpeed, double[] state, double ax, double ay) {
+            double x = state[0] + h * state[2];
+            double y = state[1] + h * state[3];
+            state[2] = state[2] + h * ax;
+            state[3] = state[3] + h * ay;
+            clamp(state, maxSpeed);
+            state[0] = x;
+            state[1] = y;
+        }
+    },
+
+    /**
+     * Updates the velocity and then moves with the new one, first order but stable for larger steps, the default
+     */
+    SEMI_IMPLICIT_EULER {
+        @Override
+        void integrate(Dynamics dynamics, double h, double maxSpeed, double[] state, double ax, double ay) {
+            state[2] = state[2] + h * ax;
+            state[3] = state[3] + h * ay;
+            clamp(state, maxSpeed);
+            state[0] = state[0] + h * state[2];
+            state[1] = state[1] + h * state[3];
+        }
+    },
+
+    /**
+     * Moves with the velocity after half a step, then finishes the velocity update with the forces at the new
+     * position, second order with a single extra evaluation of the forces
+     */
+    VELOCITY_VERLET {
+        @Override
+        void integrate(Dynamics dynamics, double h, double maxSpeed, double[] state, double ax, double ay) {
+            state[2] = state[2] + 0.5 * h * ax;
+            state[3] = state[3] + 0.5 * h * ay;
+            clamp(state, maxSpeed);
+            state[0] = state[0] + h * state[2];
+            state[1] = state[1] + h * state[3];
+
+            double[] acceleration = dynamics.accelerate(state[0], state[1], state[2], state[3], h);
+            state[2] = state[2] + 0.5 * h * acceleration[0];
+            state[3] = state[3] + 0.5 * h * acceleration[1];
+            clamp(state, maxSpeed);
+        }
+    },
+
+    /**
+     * Classic fourth order Runge-Kutta, evaluating the forces three more times, at the middle and the end of the step
+     */
+    RK4 {
+        @Override
+        void integrate(Dynamics dynamics, double h, double maxSpeed, double[] state, double ax, double ay) {
+            double x = state[0], y = state[1], vx = state[2], vy = state[3];
+            double[] stage = dynamics.stage();
+
+            // Middle of the step with the current derivatives
+            stage[0] = x + 0.5 * h * vx;
+            stage[1] = y + 0.5 * h * vy;
+            stage[2] = vx + 0.5 * h * ax;
+            stage[3] = vy + 0.5 * h * ay;
+            clamp(stage, maxSpeed);
+            double vx2 = stage[2], vy2 = stage[3];
+            double[] acceleration = dynamics.accelerate(stage[0], stage[1], vx2, vy2, 0.5 * h);
+            double ax2 = acceleration[0], ay2 = acceleration[1];
+
+            // Middle of the step with the derivatives of the previous stage
+            stage[0] = x + 0.5 * h * vx2;
+            stage[1] = y + 0.5 * h * vy2;
+            stage[2] = vx + 0.5 * h * ax2;
+            stage[3] = vy + 0.5 * h * ay2;
+            clamp(stage, maxSpeed);
+            double vx3 = stage[2], vy3 = stage[3];
+            acceleration = dynamics.accelerate(stage[0], stage[1], vx3, vy3, 0.5 * h);
+            double ax3 = acceleration[0], ay3 = acceleration[1];
+
+            // End of the step with the derivatives of the previous stage
+            stage[0] = x + h * vx3;
+            stage[1] = y + h * vy3;
+            stage[2] = vx + h * ax3;
+            stage[3] = vy + h * ay3;
+            clamp(stage, maxSpeed);
+            double vx4 = stage[2], vy4 = stage[3];
+            acceleration = dynamics.accelerate(stage[0], stage[1], vx4, vy4, h);
+            double ax4 = acceleration[0], ay4 = acceleration[1];
+
+            state[0] = x + h / 6 * (vx + 2 * vx2 + 2 * vx3 + vx4);
+            state[1] = y + h / 6 * (vy + 2 * vy2 + 2 * vy3 + vy4);
+            state[2] = vx + h / 6 * (ax + 2 * ax2 + 2 * ax3 + ax4);
+            state[3] = vy + h / 6 * (ay + 2 * ay2 + 2 * ay3 + ay4);
+            clamp(state, maxSpeed);
+        }
+    };
+
+    /**
+     * Forces applied to the agent being moved, evaluated at another state
+     */
+    interface Dynamics {
+        /**
+         * @param offset time from the current one, the obstacles are evaluated at
+         * @return x and y of the acceleration of the agent at the given state, valid until the next call
+         */
+        double[] accelerate(double x, double y, double vx, double vy, double offset);
+
+        /**
+         * @return buffer of 4 values the schemes keep the state of a stage in, so the steps do not allocate
+         */
+        double[] stage();
+    }
+
+    /**
+     * Moves the agent a step
+     *
+     * @param dynamics forces applied to the agent at other states
+     * @param h        size of the step
+     * @param maxSpeed maximum speed of the agent
+     * @param state    x, y, vx and vy of the agent, replaced by the ones after the step
+     * @param ax       acceleration along x at the current state
+     * @param ay       acceleration along y at the current state
+     */
+    abstract void integrate(Dynamics dynamics, double h, double maxSpeed, double[] state, double ax, double ay);
+
+    /**
+     * Scales the velocity of the state down to the maximum speed if it is faster
+     */
+    static void clamp(double[] state, double maxSpeed) {
+        double vx = state[2], vy = state[3];
+        double speed = Math.sqrt(vx * vx + vy * vy);
+        if (speed > maxSpeed) {
+            double inverseSpeed = 1 / speed;
+            state[2] = maxSpeed * (inverseSpeed * vx);
+            state[3] = maxSpeed * (inverseSpeed * vy);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package pca;
+
+import java.util.Arrays;
+
+/**
+ * Verlet lists of the obstacles around each agent, reused between steps instead of searching the spatial index every
+ * step. A list holds the obstacles within its radius, the search reach of the agent plus a skin, around where the
+ * agent was when it was built. Neither the agent nor the obstacles can move further than a known bound, so the list
+ * still holds every obstacle within the current reach as long as the reach, the distance the agent moved and the
+ * distance any obstacle could have moved add up to less than its radius, and it is rebuilt otherwise.
+ * Each list is only used by the thread steering its agent, and the counters are kept per agent for the same reason.
+ */
+public final class NeighbourLists {
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        PROPERTIES
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final double skin;
+
+    /* Obstacles of each list, and where and with which radius it was built */
+    private final int[][] lists;
+    private final int[] sizes;
+    private final double[] centerX;
+    private final double[] centerY;
+    private final double[] radius;
+    private final boolean[] built;
+
+    /* Distance any obstacle could have moved since the start, and when each list was built */
+    private double travelled;
+    private final double[] travelledAtBuild;
+
+    /* Counters of each agent: lists built, steps served by an existing list, obstacles listed and listed within the reach */
+    private final long[] rebuilds;
+    private final long[] reuses;
+    private final long[] listed;
+    private final long[] withinReach;
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        CONSTRUCTORS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * @param agentCount amount of agents, indexes go from 0 to agentCount - 1
+     * @param skin       margin added to the reach when building a list
+     */
+    NeighbourLists(int agentCount, double skin) {
+        this.skin = skin;
+        this.lists = new int[agentCount][];
+        this.sizes = new int[agentCount];
+        this.centerX = new double[agentCount];
+        this.centerY = new double[agentCount];
+        this.radius = new double[agentCount];
+        this.built = new boolean[agentCount];
+        this.travelledAtBuild = new double[agentCount];
+        this.rebuilds = new long[agentCount];
+        this.reuses = new long[agentCount];
+        this.listed = new long[agentCount];
+        this.withinReach = new long[agentCount];
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        GETTERS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    public double getSkin() {
+        return skin;
+    }
+
+    /**
+     * @return amount of lists built
+     */
+    public long getRebuilds() {
+        return Arrays.stream(rebuilds).sum();
+    }
+
+    /**
+     * @return amount of steps an agent used the list it already had
+     */
+    public long getReuses() {
+        return Arrays.stream(reuses).sum();
+    }
+
+    /**
+     * @return fraction of the steps an agent used the list it already had
+     */
+    public double getReuseRate() {
+        long steps = this.getRebuilds() + this.getReuses();
+        return steps > 0 ? (double) this.getReuses() / steps : 0;
+    }
+
+    /**
+     * @return fraction of the obstacles handed out by the lists that were within the reach of the agent, the ones
+     * a search of the index would have returned as well
+     */
+    public double getHitRate() {
+        long total = Arrays.stream(listed).sum();
+        return total > 0 ? (double) Arrays.stream(withinReach).sum() / total : 0;
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        METHODS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Checks if the list of the agent holds every obstacle within the reach of the given point
+     *
+     * @param agent index of the agent
+     * @param x     x coordinate of the agent
+     * @param y     y coordinate of the agent
+     * @param reach half side of the square around the agent where the obstacles are needed
+     * @return true if the list can be used
+     */
+    boolean covers(int agent, double x, double y, double reach) {
+        if (!this.built[agent]) {
+            return false;
+        }
+        double moved = Math.max(Math.abs(x - this.centerX[agent]), Math.abs(y - this.centerY[agent]));
+        return reach + moved + (this.travelled - this.travelledAtBuild[agent]) <= this.radius[agent];
+    }
+
+    /**
+     * Replaces the list of the agent
+     *
+     * @param agent      index of the agent
+     * @param x          x coordinate of the agent
+     * @param y          y coordinate of the agent
+     * @param radius     half side of the square the obstacles were searched in, the reach plus the skin
+     * @param candidates obstacles found in the square
+     * @param count      amount of obstacles
+     */
+    void rebuild(int agent, double x, double y, double radius, int[] candidates, int count) {
+        int[] list = this.lists[agent];
+        if (list == null || list.length < count) {
+            list = new int[Math.max(count, Math.max(INITIAL_CAPACITY, list != null ? list.length * 2 : 0))];
+            this.lists[agent] = list;
+        }
+        System.arraycopy(candidates, 0, list, 0, count);
+        this.sizes[agent] = count;
+        this.centerX[agent] = x;
+        this.centerY[agent] = y;
+        this.radius[agent] = radius;
+        this.travelledAtBuild[agent] = this.travelled;
+        this.built[agent] = true;
+        this.rebuilds[agent]++;
+    }
+
+    int getSize(int agent) {
+        return sizes[agent];
+    }
+
+    int get(int agent, int k) {
+        return lists[agent][k];
+    }
+
+    /**
+     * Counts a step of the agent served by its list
+     *
+     * @param reused      whether the list was already built
+     * @param count       obstacles handed out
+     * @param withinReach obstacles handed out within the reach of the agent
+     */
+    void record(int agent, boolean reused, int count, int withinReach) {
+        if (reused) {
+            this.reuses[agent]++;
+        }
+        this.listed[agent] += count;
+        this.withinReach[agent] += withinReach;
+    }
+
+    /**
+     * Adds the distance any obstacle could have moved in the last step
+     */
+    void advance(double distance) {
+        this.travelled += distance;
+    }
+}
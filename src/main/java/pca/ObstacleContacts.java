@@ -0,0 +1,179 @@
+package pca;
+
+/**
+ * Contacts between the obstacles, which otherwise pass through each other. The pairs that may touch are found by
+ * sweeping the obstacles sorted by the lower end of their extent along the longer side of the area: an obstacle can
+ * only touch the ones that follow it until one starts past its upper end, and of those only the ones whose extent
+ * along the other axis overlaps its own. Along the longer side few obstacles share the extent of each one, so the
+ * sweep stays close to linear, while along a short side most of them would.
+ * The obstacles barely move between steps, so the order of the previous step is kept and restored with an insertion
+ * sort, which takes close to linear time on an almost sorted order.
+ * The pairs are then tested exactly, and each overlapping pair is resolved as it is found, in the order of the sweep.
+ * The order breaks ties by index, so it does not depend on the previous ones and a restored simulation resolves the
+ * same pairs in the same order.
+ */
+public final class ObstacleContacts {
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        PROPERTIES
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * How the velocities of two overlapping obstacles change
+     */
+    public enum Model {
+        /**
+         * The obstacles bounce off each other if they are getting closer, exchanging momentum along the line between
+         * their centers and keeping their kinetic energy
+         */
+        ELASTIC,
+
+        /**
+         * The obstacles push each other apart with a force proportional to their overlap, times the stiffness
+         */
+        SOFT
+    }
+
+    private final Model model;
+    private final double stiffness;
+    private final boolean alongX;
+
+    /* Obstacles sorted by the lower end of their extent along the sweep axis, and that end of each obstacle by index */
+    private final int[] order;
+    private final double[] lower;
+
+    /* Pairs tested exactly and contacts resolved */
+    private long pairsTested;
+    private long contacts;
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        CONSTRUCTORS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * @param model         how the velocities of overlapping obstacles change
+     * @param stiffness     force per unit of overlap of the soft contacts, not used by the elastic ones
+     * @param firstObstacle index of the first obstacle, the ones after it are obstacles too
+     * @param particleCount amount of particles
+     * @param alongX        true to sweep along x, false to sweep along y
+     */
+    ObstacleContacts(Model model, double stiffness, int firstObstacle, int particleCount, boolean alongX) {
+        this.model = model;
+        this.stiffness = stiffness;
+        this.alongX = alongX;
+        this.order = new int[particleCount - firstObstacle];
+        for (int k = 0; k < this.order.length; k++) {
+            this.order[k] = firstObstacle + k;
+        }
+        this.lower = new double[particleCount];
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        GETTERS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    public Model getModel() {
+        return model;
+    }
+
+    public double getStiffness() {
+        return stiffness;
+    }
+
+    /**
+     * @return amount of pairs the sweep found close enough along both axes to be tested exactly
+     */
+    public long getPairsTested() {
+        return pairsTested;
+    }
+
+    /**
+     * @return amount of contacts resolved, a soft contact is resolved every step the obstacles overlap
+     */
+    public long getContacts() {
+        return contacts;
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        METHODS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Changes the velocities of the obstacles that overlap at their current positions
+     *
+     * @param store    state of the particles
+     * @param stepSize size of the step the soft contacts push during
+     */
+    void resolve(ParticleStore store, double stepSize) {
+        DoubleColumn sweep = this.alongX ? store.x : store.y;
+        DoubleColumn other = this.alongX ? store.y : store.x;
+
+        // Restoring the order with the new positions
+        for (int i : this.order) {
+            this.lower[i] = sweep.get(i) - store.radius.get(i);
+        }
+        this.sort();
+
+        // Sweeping, the obstacles after one in the order start past its lower end
+        for (int a = 0; a < this.order.length; a++) {
+            int i = this.order[a];
+            double upper = sweep.get(i) + store.radius.get(i);
+            for (int b = a + 1; b < this.order.length && this.lower[this.order[b]] <= upper; b++) {
+                int j = this.order[b];
+                double contact = store.radius.get(i) + store.radius.get(j);
+                if (Math.abs(other.get(j) - other.get(i)) < contact) {
+                    this.pairsTested++;
+                    this.resolvePair(store, i, j, store.x.get(j) - store.x.get(i), store.y.get(j) - store.y.get(i), contact, stepSize);
+                }
+            }
+        }
+    }
+
+    /**
+     * Resolves the contact of two obstacles if they overlap
+     *
+     * @param dx      x of the center of j relative to i
+     * @param dy      y of the center of j relative to i
+     * @param contact distance between their centers when they touch
+     */
+    private void resolvePair(ParticleStore store, int i, int j, double dx, double dy, double contact, double stepSize) {
+        double distance = Math.sqrt(dx * dx + dy * dy);
+        if (distance >= contact || distance == 0) {
+            return;
+        }
+
+        // Impulse along the normal from i to j
+        double nx = dx / distance, ny = dy / distance;
+        double inverseMassI = 1 / store.mass.get(i), inverseMassJ = 1 / store.mass.get(j);
+        double impulse;
+        if (this.model == Model.ELASTIC) {
+            double approachSpeed = (store.vx.get(i) - store.vx.get(j)) * nx + (store.vy.get(i) - store.vy.get(j)) * ny;
+            if (approachSpeed <= 0) {
+                return;
+            }
+            impulse = 2 * approachSpeed / (inverseMassI + inverseMassJ);
+        } else {
+            impulse = stepSize * this.stiffness * (contact - distance);
+        }
+        this.contacts++;
+        store.vx.set(i, store.vx.get(i) - impulse * inverseMassI * nx);
+        store.vy.set(i, store.vy.get(i) - impulse * inverseMassI * ny);
+        store.vx.set(j, store.vx.get(j) + impulse * inverseMassJ * nx);
+        store.vy.set(j, store.vy.get(j) + impulse * inverseMassJ * ny);
+    }
+
+    /**
+     * Insertion sort of the order by the lower end and then by index
+     */
+    private void sort() {
+        for (int a = 1; a < this.order.length; a++) {
+            int i = this.order[a];
+            double key = this.lower[i];
+            int b = a - 1;
+            while (b >= 0 && (this.lower[this.order[b]] > key || (this.lower[this.order[b]] == key && this.order[b] > i))) {
+                this.order[b + 1] = this.order[b];
+                b--;
+            }
+            this.order[b + 1] = i;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package pca;
+
+import java.util.Arrays;
+
+/**
+ * Uniform grid over the simulation area used to index the particles by position, so the search for
+ * possible collisions only has to look at the particles close enough to matter.
+ *
+ * Each cell keeps an intrusive doubly linked list of particle indexes, which makes moving a particle
+ * from one cell to another O(1) and keeps the structure free of allocations once built.
+ * Particles outside of the area are stored in the closest border cell, queries are clamped the same way.
+ */
+public class ObstacleGrid {
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        PROPERTIES
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    private static final int EMPTY = -1;
+
+    private final double cellSize;
+    private final int columns;
+    private final int rows;
+
+    /* First particle of each cell, EMPTY if the cell has no particles */
+    private final int[] head;
+
+    /* Linked list of particles inside each cell, indexed by particle */
+    private final int[] next;
+    private final int[] previous;
+
+    /* Cell in which each particle is stored, EMPTY if the particle is not indexed */
+    private final int[] cellOf;
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        CONSTRUCTORS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Creates an empty grid for the given area, with roughly one cell per particle
+     *
+     * @param areaWidth     width of the area
+     * @param areaHeight    height of the area
+     * @param particleCount maximum amount of particles to be indexed, indexes go from 0 to particleCount - 1
+     */
+    public ObstacleGrid(double areaWidth, double areaHeight, int particleCount) {
+        this.cellSize = Math.max(Math.sqrt(areaWidth * areaHeight / Math.max(particleCount, 1)), Double.MIN_NORMAL);
+        this.columns = Math.max((int) Math.ceil(areaWidth / this.cellSize), 1);
+        this.rows = Math.max((int) Math.ceil(areaHeight / this.cellSize), 1);
+
+        this.head = new int[this.columns * this.rows];
+        Arrays.fill(this.head, EMPTY);
+
+        this.next = new int[particleCount];
+        this.previous = new int[particleCount];
+        this.cellOf = new int[particleCount];
+        Arrays.fill(this.cellOf, EMPTY);
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        GETTERS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    public double getCellSize() {
+        return cellSize;
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        METHODS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Stores the particle in the cell of the given position, moving it only if the cell changed
+     *
+     * @param index index of the particle
+     * @param x     x coordinate of the particle
+     * @param y     y coordinate of the particle
+     */
+    public void update(int index, double x, double y) {
+        int cell = this.getCell(this.getColumn(x), this.getRow(y));
+        int current = this.cellOf[index];
+
+        // Nothing to do if the particle remains in the same cell
+        if (cell == current) {
+            return;
+        }
+
+        if (current != EMPTY) {
+            this.unlink(index, current);
+        }
+
+        // Inserting at the start of the cell list
+        this.previous[index] = EMPTY;
+        this.next[index] = this.head[cell];
+        if (this.head[cell] != EMPTY) {
+            this.previous[this.head[cell]] = index;
+        }
+        this.head[cell] = index;
+        this.cellOf[index] = cell;
+    }
+
+    /**
+     * Removes the particle from the grid, if present
+     *
+     * @param index index of the particle
+     */
+    public void remove(int index) {
+        if (this.cellOf[index] != EMPTY) {
+            this.unlink(index, this.cellOf[index]);
+            this.cellOf[index] = EMPTY;
+        }
+    }
+
+    /**
+     * Collects every particle stored in the cells touching the square of the given half side centered in (x, y).
+     * The result is a superset of the particles whose position is inside that square.
+     * Queries only read the grid, so they can run concurrently as long as each one uses its own buffer.
+     *
+     * @param x          x coordinate of the center
+     * @param y          y coordinate of the center
+     * @param reach      half side of the square
+     * @param candidates buffer where the indexes of the candidates are stored, sized for every particle
+     * @return amount of candidates stored in the buffer
+     */
+    public int query(double x, double y, double reach, int[] candidates) {
+        int minColumn = this.getColumn(x - reach);
+        int maxColumn = this.getColumn(x + reach);
+        int minRow = this.getRow(y - reach);
+        int maxRow = this.getRow(y + reach);
+
+        int count = 0;
+        for (int row = minRow; row <= maxRow; row++) {
+            for (int column = minColumn; column <= maxColumn; column++) {
+                for (int i = this.head[this.getCell(column, row)]; i != EMPTY; i = this.next[i]) {
+                    candidates[count++] = i;
+                }
+            }
+        }
+
+        return count;
+    }
+
+    private void unlink(int index, int cell) {
+        if (this.previous[index] != EMPTY) {
+            this.next[this.previous[index]] = this.next[index];
+        } else {
+            this.head[cell] = this.next[index];
+        }
+        if (this.next[index] != EMPTY) {
+            this.previous[this.next[index]] = this.previous[index];
+        }
+    }
+
+    private int getColumn(double x) {
+        return this.clamp(x / this.cellSize, this.columns);
+    }
+
+    private int getRow(double y) {
+        return this.clamp(y / this.cellSize, this.rows);
+    }
+
+    private int clamp(double value, int limit) {
+        // Comparing as doubles avoids overflows for positions far away from the area
+        if (!(value >= 0)) {
+            return 0;
+        } else if (value >= limit - 1) {
+            return limit - 1;
+        }
+        return (int) value;
+    }
+
+    private int getCell(int column, int row) {
+        return row * this.columns + column;
+    }
+}
@@ -0,0 +1,104 @@
+package pca;
+
+/**
+ * Closed form motion of the obstacles: they move at constant velocity and reverse it whenever their center gets
+ * within their radius of the top or bottom wall. Unfolding the reflections, the height moves at constant speed
+ * along a line that is folded back into the band between both walls, so the state at any time is computed directly
+ * and every reflection happens exactly at the wall.
+ */
+final class ObstacleMotion {
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        PROPERTIES
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    private final double areaHeight;
+
+    /* State of each obstacle at time 0 */
+    private final double[] x0;
+    private final double[] y0;
+    private final double[] vx0;
+    private final double[] vy0;
+    private final double[] radius;
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        CONSTRUCTORS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Keeps the current state of the store as the state at time 0
+     *
+     * @param store      store with the obstacles
+     * @param areaHeight height of the area
+     */
+    ObstacleMotion(ParticleStore store, double areaHeight) {
+        this(new double[][]{store.x.toArray(), store.y.toArray(), store.vx.toArray(), store.vy.toArray()}, store.radius.toArray(), areaHeight);
+    }
+
+    /**
+     * @param initialState x, y, vx and vy of every obstacle at time 0
+     * @param radius       radius of every obstacle
+     * @param areaHeight   height of the area
+     */
+    ObstacleMotion(double[][] initialState, double[] radius, double areaHeight) {
+        this.areaHeight = areaHeight;
+        this.x0 = initialState[0].clone();
+        this.y0 = initialState[1].clone();
+        this.vx0 = initialState[2].clone();
+        this.vy0 = initialState[3].clone();
+        this.radius = radius.clone();
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        GETTERS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * @return copy of x, y, vx and vy of every obstacle at time 0
+     */
+    double[][] getInitialState() {
+        return new double[][]{this.x0.clone(), this.y0.clone(), this.vx0.clone(), this.vy0.clone()};
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        METHODS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Writes the position and velocity of the obstacle at the given time into the store.
+     * Obstacles starting too close to a wall are folded back into the band they can move in.
+     *
+     * @param j     index of the obstacle
+     * @param time  time since the start of the simulation
+     * @param store store where the state is written
+     */
+    void evaluate(int j, double time, ParticleStore store) {
+        double vx = this.vx0[j], vy = this.vy0[j];
+        double low = this.radius[j];
+        double span = this.areaHeight - 2 * low;
+
+        // Without vertical motion, or without room to move, the obstacle never reaches a wall
+        if (vy == 0 || span <= 0) {
+            store.x.set(j, this.x0[j] + vx * time);
+            store.y.set(j, this.y0[j] + vy * time);
+            store.vx.set(j, vx);
+            store.vy.set(j, vy);
+            return;
+        }
+
+        // Folding the unfolded height into the band, every period has a way up and a way down
+        double period = 2 * span;
+        double unfolded = (this.y0[j] - low + vy * time) % period;
+        if (unfolded < 0) {
+            unfolded += period;
+        }
+        boolean forward = unfolded <= span;
+        double y = low + (forward ? unfolded : period - unfolded);
+
+        // Both components reverse together, so the horizontal displacement follows the vertical one
+        double direction = forward ? 1 : -1;
+        store.x.set(j, this.x0[j] + vx * ((y - this.y0[j]) / vy));
+        store.y.set(j, y);
+        store.vx.set(j, direction * vx);
+        store.vy.set(j, direction * vy);
+    }
+}
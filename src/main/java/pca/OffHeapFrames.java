@@ -0,0 +1,236 @@
+package pca;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Frames of a simulation kept outside of the heap, either in direct buffers or in a memory-mapped file, so recording
+ * the frames of large crowds neither needs a heap as large as them nor adds to the work of the garbage collector.
+ * Each frame is the time followed by x, y, vx and vy of every particle, in the native byte order, and the frames are
+ * stored in chunks of whole frames allocated as they are needed. A mapped file is only a backing for the memory,
+ * not an output format, the operating system writes its pages to disk when it runs short of memory.
+ * Direct buffers are limited by -XX:MaxDirectMemorySize, which defaults to the size of the heap, a mapped file only by
+ * the disk. Buffers are released by the garbage collector once the frames are closed and no longer referenced.
+ */
+public final class OffHeapFrames implements FrameSink, Closeable {
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        PROPERTIES
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    // Size the chunks are filled up to with whole frames, a mapping can not be larger than 2 GB
+    private static final int CHUNK_BYTES = 64 << 20;
+    private static final int VALUES_PER_PARTICLE = 4;
+
+    private final int particleCount;
+    private final int frameValues;
+    private final int framesPerChunk;
+
+    // File the chunks are mapped from, null if they are direct buffers
+    private final RandomAccessFile file;
+    private final List<DoubleBuffer> chunks = new ArrayList<>();
+    private int frameCount;
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        CONSTRUCTORS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    private OffHeapFrames(int particleCount, RandomAccessFile file) {
+        long frameBytes = Double.BYTES * (1 + (long) VALUES_PER_PARTICLE * particleCount);
+        if (frameBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("A frame of " + particleCount + " particles does not fit in a buffer");
+        }
+        this.particleCount = particleCount;
+        this.frameValues = (int) (frameBytes / Double.BYTES);
+        this.framesPerChunk = (int) Math.max(1, CHUNK_BYTES / frameBytes);
+        this.file = file;
+    }
+
+    /**
+     * Creates frames kept in direct buffers
+     *
+     * @param particleCount amount of particles of each frame
+     * @return the frames, empty
+     */
+    public static OffHeapFrames allocateDirect(int particleCount) {
+        return new OffHeapFrames(particleCount, null);
+    }
+
+    /**
+     * Creates frames kept in a memory-mapped file, which is replaced and grows as frames are added
+     *
+     * @param path          path of the file
+     * @param particleCount amount of particles of each frame
+     * @return the frames, empty
+     */
+    public static OffHeapFrames map(String path, int particleCount) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(path, "rw");
+        try {
+            file.setLength(0);
+            return new OffHeapFrames(particleCount, file);
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        GETTERS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    public int getParticleCount() {
+        return particleCount;
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * @return true if the frames are kept in a memory-mapped file
+     */
+    public boolean isMapped() {
+        return file != null;
+    }
+
+    public double getTime(int frame) {
+        return this.chunkOf(frame).get(this.offsetOf(frame));
+    }
+
+    public double getX(int frame, int i) {
+        return this.chunkOf(frame).get(this.offsetOf(frame) + 1 + VALUES_PER_PARTICLE * i);
+    }
+
+    public double getY(int frame, int i) {
+        return this.chunkOf(frame).get(this.offsetOf(frame) + 2 + VALUES_PER_PARTICLE * i);
+    }
+
+    public double getVx(int frame, int i) {
+        return this.chunkOf(frame).get(this.offsetOf(frame) + 3 + VALUES_PER_PARTICLE * i);
+    }
+
+    public double getVy(int frame, int i) {
+        return this.chunkOf(frame).get(this.offsetOf(frame) + 4 + VALUES_PER_PARTICLE * i);
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        METHODS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Adds the state of the particles as the last frame
+     */
+    @Override
+    public void accept(double time, ParticleStore store) {
+        int frame = this.frameCount;
+        if (frame / this.framesPerChunk == this.chunks.size()) {
+            this.chunks.add(this.allocateChunk());
+        }
+        this.frameCount++;
+        this.set(frame, time, store);
+    }
+
+    /**
+     * Replaces a frame with the state of the particles
+     *
+     * @param frame index of a frame already added
+     * @param time  time of the frame
+     * @param store state of the particles
+     */
+    public void set(int frame, double time, ParticleStore store) {
+        if (store.size != this.particleCount) {
+            throw new IllegalArgumentException("The frames have " + this.particleCount + " particles, not " + store.size);
+        }
+        DoubleBuffer chunk = this.chunkOf(frame);
+        int k = this.offsetOf(frame);
+        chunk.put(k++, time);
+        for (int i = 0; i < this.particleCount; i++) {
+            chunk.put(k++, store.x.get(i));
+            chunk.put(k++, store.y.get(i));
+            chunk.put(k++, store.vx.get(i));
+            chunk.put(k++, store.vy.get(i));
+        }
+    }
+
+    /**
+     * Sets the position and velocity of every particle of the store from a frame
+     *
+     * @param frame index of the frame
+     * @param store store with the same amount of particles
+     */
+    public void load(int frame, ParticleStore store) {
+        if (store.size != this.particleCount) {
+            throw new IllegalArgumentException("The frames have " + this.particleCount + " particles, not " + store.size);
+        }
+        DoubleBuffer chunk = this.chunkOf(frame);
+        int k = this.offsetOf(frame) + 1;
+        for (int i = 0; i < this.particleCount; i++) {
+            store.x.set(i, chunk.get(k++));
+            store.y.set(i, chunk.get(k++));
+            store.vx.set(i, chunk.get(k++));
+            store.vy.set(i, chunk.get(k++));
+        }
+    }
+
+    /**
+     * Hands every frame to the sink in order, loading them into the store
+     *
+     * @param store store with the same amount of particles, it keeps the last frame
+     * @param sink  sink receiving the frames
+     */
+    public void replay(ParticleStore store, FrameSink sink) {
+        for (int frame = 0; frame < this.frameCount; frame++) {
+            this.load(frame, store);
+            sink.accept(this.getTime(frame), store);
+        }
+    }
+
+    /**
+     * Removes every frame, keeping the chunks to reuse them
+     */
+    public void clear() {
+        this.frameCount = 0;
+    }
+
+    /**
+     * Removes every frame and closes the mapped file, the frames can not be used afterwards
+     */
+    @Override
+    public void close() throws IOException {
+        this.chunks.clear();
+        this.frameCount = 0;
+        if (this.file != null) {
+            this.file.close();
+        }
+    }
+
+    private DoubleBuffer allocateChunk() {
+        int bytes = this.framesPerChunk * this.frameValues * Double.BYTES;
+        if (this.file == null) {
+            return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+        }
+        try {
+            long position = (long) this.chunks.size() * bytes;
+            return this.file.getChannel().map(FileChannel.MapMode.READ_WRITE, position, bytes).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not map the frames file: " + e.getMessage(), e);
+        }
+    }
+
+    private DoubleBuffer chunkOf(int frame) {
+        if (frame < 0 || frame >= this.frameCount) {
+            throw new IndexOutOfBoundsException("There is no frame " + frame + " of " + this.frameCount);
+        }
+        return this.chunks.get(frame / this.framesPerChunk);
+    }
+
+    private int offsetOf(int frame) {
+        return (frame % this.framesPerChunk) * this.frameValues;
+    }
+}
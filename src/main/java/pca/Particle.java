@@ -4,6 +4,10 @@ import org.apache.commons.math3.geometry.euclidean.twod.Vector2D;
 
 import java.util.Optional;
 
+/**
+ * View over a particle stored in a ParticleStore. A particle created on its own gets a store of a single particle,
+ * once it is part of a simulation it is attached to the store of the simulation and reflects its state.
+ */
 public class Particle implements Comparable<Particle> {
     //////////////////////////////////////////////////////////////////////////////////////////
     //                                        PROPERTIES
@@ -11,19 +15,10 @@ public class Particle implements Comparable<Particle> {
 
     /* Convention, ID starts at 0 */
     private final int id;
-    private final double radius;
-    private final double mass;
-    private final double comfortRadius;
-    private final double maxSpeed;
-    private final double preferredSpeed;
-    private final double pSpeedTime;
-    private final double anticipationTime;
-
-    /* Position + Velocity */
-    private Vector2D position;
-    private Vector2D nextPosition;
-    private Vector2D velocity;
-    private Vector2D desiredVelocity;
+
+    /* Store with the state of the particle */
+    private ParticleStore store;
+    private int index;
 
     //////////////////////////////////////////////////////////////////////////////////////////
     //                                        CONSTRUCTORS
@@ -31,15 +26,23 @@ public class Particle implements Comparable<Particle> {
 
     public Particle(int id, double radius, double mass, double comfortRadius, double maxSpeed, double preferredSpeed, double pSpeedTime, double anticipationTime) {
         this.id = id;
-        this.radius = radius;
-        this.mass = mass;
-        this.comfortRadius = comfortRadius;
-        this.maxSpeed = maxSpeed;
-        this.preferredSpeed = preferredSpeed;
-        this.pSpeedTime = pSpeedTime;
-        this.anticipationTime = anticipationTime;
+        this.store = new ParticleStore(1);
+        this.index = 0;
+        this.store.setConstants(0, radius, mass, comfortRadius, maxSpeed, preferredSpeed, pSpeedTime, anticipationTime);
     }
 
+    /**
+     * Creates a view over a particle already in a store
+     *
+     * @param id    id of the particle
+     * @param store store with the state of the particle
+     * @param index index of the particle in the store
+     */
+    public Particle(int id, ParticleStore store, int index) {
+        this.id = id;
+        this.store = store;
+        this.index = index;
+    }
 
     //////////////////////////////////////////////////////////////////////////////////////////
     //                                        GETTERS
@@ -50,31 +53,59 @@ public class Particle implements Comparable<Particle> {
     }
 
     public double getRadius() {
-        return radius;
+        return store.radius.get(index);
+    }
+
+    public double getMass() {
+        return store.mass.get(index);
     }
 
     public double getComfortRadius() {
-        return comfortRadius;
+        return store.comfortRadius.get(index);
     }
 
     public Vector2D getPosition() {
-        return position;
+        return new Vector2D(store.x.get(index), store.y.get(index));
     }
 
     public Vector2D getNextPosition() {
-        return nextPosition;
+        return new Vector2D(store.nextX.get(index), store.nextY.get(index));
     }
 
     public Vector2D getVelocity() {
-        return velocity;
+        return new Vector2D(store.vx.get(index), store.vy.get(index));
+    }
+
+    public Vector2D getNextVelocity() {
+        return new Vector2D(store.nextVx.get(index), store.nextVy.get(index));
     }
 
     public Vector2D getDesiredVelocity() {
-        return desiredVelocity;
+        return new Vector2D(store.desiredVx.get(index), store.desiredVy.get(index));
     }
 
     public double getMaxSpeed() {
-        return maxSpeed;
+        return store.maxSpeed.get(index);
+    }
+
+    public double getPreferredSpeed() {
+        return store.preferredSpeed.get(index);
+    }
+
+    public double getPreferredSpeedTime() {
+        return store.pSpeedTime.get(index);
+    }
+
+    public double getAnticipationTime() {
+        return store.anticipationTime.get(index);
+    }
+
+    ParticleStore getStore() {
+        return store;
+    }
+
+    int getIndex() {
+        return index;
     }
 
     //////////////////////////////////////////////////////////////////////////////////////////
@@ -82,23 +113,41 @@ public class Particle implements Comparable<Particle> {
     //////////////////////////////////////////////////////////////////////////////////////////
 
     public void setPosition(final double x, final double y) {
-        this.position = new Vector2D(x, y);
+        store.setPosition(index, x, y);
     }
 
     public void setPosition(Vector2D v) {
-        this.position = v;
+        store.setPosition(index, v.getX(), v.getY());
     }
 
     public void setVelocity(final double vx, final double vy) {
-        this.velocity = new Vector2D(vx, vy);
+        store.setVelocity(index, vx, vy);
     }
 
     public void setVelocity(Vector2D v) {
-        this.velocity = v;
+        store.setVelocity(index, v.getX(), v.getY());
+    }
+
+    public void setNextVelocity(Vector2D v) {
+        store.nextVx.set(index, v.getX());
+        store.nextVy.set(index, v.getY());
     }
 
     public void setDesiredVelocity(Vector2D v) {
-        this.desiredVelocity = v;
+        store.desiredVx.set(index, v.getX());
+        store.desiredVy.set(index, v.getY());
+    }
+
+    /**
+     * Moves the particle to another store, copying its current state
+     *
+     * @param store store to move the particle to
+     * @param index index of the particle in the new store
+     */
+    void attach(ParticleStore store, int index) {
+        store.copy(index, this.store, this.index);
+        this.store = store;
+        this.index = index;
     }
 
     //////////////////////////////////////////////////////////////////////////////////////////
@@ -115,18 +164,18 @@ public class Particle implements Comparable<Particle> {
      * @return Norm of the velocity vector
      */
     public double getVelocityNorm() {
-        return this.velocity.getNorm();
+        return Math.sqrt(store.vx.get(index) * store.vx.get(index) + store.vy.get(index) * store.vy.get(index));
     }
 
     public Vector2D getGoalForce(Vector2D goal) {
         return this.getNVector(goal)
-                .scalarMultiply(this.preferredSpeed)
-                .subtract(this.velocity)
-                .scalarMultiply(1/this.pSpeedTime);
+                .scalarMultiply(this.getPreferredSpeed())
+                .subtract(this.getVelocity())
+                .scalarMultiply(1/this.getPreferredSpeedTime());
     }
 
     private Vector2D getNVector(Vector2D goal) {
-        Vector2D N = goal.subtract(this.position);
+        Vector2D N = goal.subtract(this.getPosition());
         N.normalize();
         return N;
     }
@@ -150,6 +199,34 @@ public class Particle implements Comparable<Particle> {
         this.setPosition(this.getPosition().add(this.getVelocity().scalarMultiply(time)));
     }
 
+    /**
+     * Given a time and a force, will compute the next velocity, the current one is kept until the state is committed
+     *
+     * @param forces being applied to the particle
+     * @param time how much time will pass for our prediction
+     */
+    public void computeNextVelocity(Vector2D forces, double time) {
+        this.setNextVelocity(this.getVelocity().add(forces.scalarMultiply(time)));
+    }
+
+    /**
+     * Given a time, will compute the next position using the next velocity
+     *
+     * @param time how much time will pass for our prediction
+     */
+    public void computeNextPosition(double time) {
+        Vector2D nextPosition = this.getPosition().add(this.getNextVelocity().scalarMultiply(time));
+        store.nextX.set(index, nextPosition.getX());
+        store.nextY.set(index, nextPosition.getY());
+    }
+
+    /**
+     * Replaces the current position and velocity with the next ones
+     */
+    public void commitNextState() {
+        store.commitNextState(index);
+    }
+
 
     /**
      * Tells us if there will be a collision and if it is within the anticipated time
@@ -157,50 +234,13 @@ public class Particle implements Comparable<Particle> {
      * @return boolean
      */
     public Optional<Double> collisionIsNear(Particle particle) {
-        // Current variables
-        double xi  = this.getPosition().getX();
-        double yi  = this.getPosition().getY();
-
-        // Particle variables
-        double xj  = particle.getPosition().getX();
-        double yj  = particle.getPosition().getY();
-
-        // Velocity variables
-        Vector2D v = this.desiredVelocity.subtract(particle.getVelocity());
-        double vx = v.getX();
-        double vy = v.getY();
-
-        double xd = xj - xi;
-        double yd = yj - yi;
-
-        // Quadratic variables
-        double c = xd*xd + yd*yd - Math.pow(this.getComfortRadius() + particle.getRadius(), 2);
-        double b = -1 * (2*vx*xd + 2*vy*yd);
-        double a = vx*vx + vy*vy;
-        double value = (b * b) - 4.0 * a * c;
-
-        // No solution means no collision
-        if (value < 0) {
-            return Optional.empty();
-        }
-
-        // Solutions
-        double t1 = (-b + Math.sqrt(value)) / (2.0 * a);
-        double t2 = (-b - Math.sqrt(value)) / (2.0 * a);
-
-        // One solution or both negative means no collision
-        if (t1 == t2 || (t1 < 0.0 && t2 < 0.0)) {
-            return Optional.empty();
-        } else if (t1 * t2 < 0) {
-            // If one is negative and the other one positive,
-            // then a collision is imminent
-            return Optional.of(0.0);
-        } else {
-            double min = Math.min(t1,t2);
-            if (min <= this.anticipationTime){
-                return Optional.of(min);
-            }
-            return Optional.empty();
-        }
+        ParticleStore other = particle.store;
+        int j = particle.index;
+        double[] times = new double[1];
+        CollisionKernel.collisionTimes(store.x.get(index), store.y.get(index), store.desiredVx.get(index), store.desiredVy.get(index),
+                store.comfortRadius.get(index), store.anticipationTime.get(index), new double[]{other.x.get(j)}, new double[]{other.y.get(j)},
+                new double[]{other.vx.get(j)}, new double[]{other.vy.get(j)}, new double[]{other.radius.get(j)}, 1, times);
+        double time = times[0];
+        return time == ParticleStore.NO_COLLISION ? Optional.empty() : Optional.of(time);
     }
 }
@@ -0,0 +1,277 @@
+package pca;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Structure of arrays with the state of every particle of a simulation, indexed by particle id.
+ * Keeping each value in its own contiguous array lets the simulation loop run over primitives,
+ * without allocating vectors or following references to particle objects.
+ * The arrays live on the heap by default, a store can instead keep them in direct buffers or in a memory-mapped file.
+ * Direct buffers are limited by -XX:MaxDirectMemorySize, which defaults to the size of the heap, so only a mapped file
+ * lets the crowds simulated grow beyond -Xmx.
+ */
+public class ParticleStore {
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        PROPERTIES
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    /* Value returned when there is no collision within the anticipation time */
+    public static final double NO_COLLISION = Double.POSITIVE_INFINITY;
+
+    // Amount of values kept for each particle, each one in its own column
+    private static final int COLUMN_COUNT = 17;
+
+    final int size;
+    // True if the columns are kept in a memory-mapped file
+    private final boolean mapped;
+
+    /* Constants of each particle */
+    final DoubleColumn radius;
+    final DoubleColumn mass;
+    final DoubleColumn comfortRadius;
+    final DoubleColumn maxSpeed;
+    final DoubleColumn preferredSpeed;
+    final DoubleColumn pSpeedTime;
+    final DoubleColumn anticipationTime;
+
+    /* Position + Velocity */
+    final DoubleColumn x;
+    final DoubleColumn y;
+    final DoubleColumn vx;
+    final DoubleColumn vy;
+
+    /* Next state, computed while steering before being committed */
+    final DoubleColumn nextX;
+    final DoubleColumn nextY;
+    final DoubleColumn nextVx;
+    final DoubleColumn nextVy;
+
+    /* Desired velocity, computed while steering */
+    final DoubleColumn desiredVx;
+    final DoubleColumn desiredVy;
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        CONSTRUCTORS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    public ParticleStore(int size) {
+        this(size, heapColumns(size), false);
+    }
+
+    private ParticleStore(int size, DoubleColumn[] columns, boolean mapped) {
+        this.size = size;
+        this.mapped = mapped;
+        this.radius = columns[0];
+        this.mass = columns[1];
+        this.comfortRadius = columns[2];
+        this.maxSpeed = columns[3];
+        this.preferredSpeed = columns[4];
+        this.pSpeedTime = columns[5];
+        this.anticipationTime = columns[6];
+        this.x = columns[7];
+        this.y = columns[8];
+        this.vx = columns[9];
+        this.vy = columns[10];
+        this.nextX = columns[11];
+        this.nextY = columns[12];
+        this.nextVx = columns[13];
+        this.nextVy = columns[14];
+        this.desiredVx = columns[15];
+        this.desiredVy = columns[16];
+    }
+
+    /**
+     * Creates a store kept in direct buffers, outside of the heap but limited by -XX:MaxDirectMemorySize
+     *
+     * @param size amount of particles
+     * @return the store, with every value in 0
+     */
+    public static ParticleStore allocateDirect(int size) {
+        int bytes = columnBytes(size);
+        DoubleColumn[] columns = new DoubleColumn[COLUMN_COUNT];
+        for (int c = 0; c < COLUMN_COUNT; c++) {
+            columns[c] = DoubleColumn.of(ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder()).asDoubleBuffer());
+        }
+        return new ParticleStore(size, columns, false);
+    }
+
+    /**
+     * Creates a store kept in a memory-mapped file, which is replaced, with one region of the file for each value.
+     * The file is only a backing for the memory, the operating system writes its pages to disk when it runs short of memory.
+     *
+     * @param path path of the file
+     * @param size amount of particles
+     * @return the store, with every value in 0
+     */
+    public static ParticleStore map(String path, int size) throws IOException {
+        int bytes = columnBytes(size);
+        DoubleColumn[] columns = new DoubleColumn[COLUMN_COUNT];
+        // The mappings stay valid once the file is closed
+        try (RandomAccessFile file = new RandomAccessFile(path, "rw")) {
+            file.setLength(0);
+            FileChannel channel = file.getChannel();
+            for (int c = 0; c < COLUMN_COUNT; c++) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, (long) c * bytes, bytes);
+                columns[c] = DoubleColumn.of(buffer.order(ByteOrder.nativeOrder()).asDoubleBuffer());
+            }
+        }
+        return new ParticleStore(size, columns, true);
+    }
+
+    private static DoubleColumn[] heapColumns(int size) {
+        DoubleColumn[] columns = new DoubleColumn[COLUMN_COUNT];
+        for (int c = 0; c < COLUMN_COUNT; c++) {
+            columns[c] = DoubleColumn.onHeap(size);
+        }
+        return columns;
+    }
+
+    private static int columnBytes(int size) {
+        long bytes = (long) Double.BYTES * size;
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("The values of " + size + " particles do not fit in a buffer");
+        }
+        return (int) bytes;
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        GETTERS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return true if the values are kept outside of the heap, in direct buffers or in a memory-mapped file
+     */
+    public boolean isOffHeap() {
+        return x.isOffHeap();
+    }
+
+    /**
+     * @return true if the values are kept in a memory-mapped file
+     */
+    public boolean isMapped() {
+        return mapped;
+    }
+
+    public double getX(int i) {
+        return x.get(i);
+    }
+
+    public double getY(int i) {
+        return y.get(i);
+    }
+
+    public double getVx(int i) {
+        return vx.get(i);
+    }
+
+    public double getVy(int i) {
+        return vy.get(i);
+    }
+
+    public double getRadius(int i) {
+        return radius.get(i);
+    }
+
+    public double getMass(int i) {
+        return mass.get(i);
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        SETTERS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    public void setConstants(int i, double radius, double mass, double comfortRadius, double maxSpeed, double preferredSpeed, double pSpeedTime, double anticipationTime) {
+        this.radius.set(i, radius);
+        this.mass.set(i, mass);
+        this.comfortRadius.set(i, comfortRadius);
+        this.maxSpeed.set(i, maxSpeed);
+        this.preferredSpeed.set(i, preferredSpeed);
+        this.pSpeedTime.set(i, pSpeedTime);
+        this.anticipationTime.set(i, anticipationTime);
+    }
+
+    public void setPosition(int i, double x, double y) {
+        this.x.set(i, x);
+        this.y.set(i, y);
+    }
+
+    public void setVelocity(int i, double vx, double vy) {
+        this.vx.set(i, vx);
+        this.vy.set(i, vy);
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        METHODS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Copies the constants and the state of a particle of another store into the given index of this one
+     *
+     * @param i      index in this store
+     * @param source store to copy from
+     * @param j      index in the source store
+     */
+    void copy(int i, ParticleStore source, int j) {
+        this.setConstants(i, source.radius.get(j), source.mass.get(j), source.comfortRadius.get(j), source.maxSpeed.get(j),
+                source.preferredSpeed.get(j), source.pSpeedTime.get(j), source.anticipationTime.get(j));
+        this.x.set(i, source.x.get(j));
+        this.y.set(i, source.y.get(j));
+        this.vx.set(i, source.vx.get(j));
+        this.vy.set(i, source.vy.get(j));
+        this.nextX.set(i, source.nextX.get(j));
+        this.nextY.set(i, source.nextY.get(j));
+        this.nextVx.set(i, source.nextVx.get(j));
+        this.nextVy.set(i, source.nextVy.get(j));
+        this.desiredVx.set(i, source.desiredVx.get(j));
+        this.desiredVy.set(i, source.desiredVy.get(j));
+    }
+
+    /**
+     * Copies the position and velocity of every particle into the frame, as x, y, vx and vy for each particle in order
+     *
+     * @param frame array of at least 4 values per particle
+     */
+    public void copyState(double[] frame) {
+        for (int i = 0, k = 0; i < this.size; i++, k += 4) {
+            frame[k] = this.x.get(i);
+            frame[k + 1] = this.y.get(i);
+            frame[k + 2] = this.vx.get(i);
+            frame[k + 3] = this.vy.get(i);
+        }
+    }
+
+    /**
+     * Sets the position and velocity of every particle from the frame, the inverse of {@link #copyState(double[])}
+     *
+     * @param frame array of at least 4 values per particle
+     */
+    void loadState(double[] frame) {
+        for (int i = 0, k = 0; i < this.size; i++, k += 4) {
+            this.x.set(i, frame[k]);
+            this.y.set(i, frame[k + 1]);
+            this.vx.set(i, frame[k + 2]);
+            this.vy.set(i, frame[k + 3]);
+        }
+    }
+
+    /**
+     * Replaces the current position and velocity of the particle with the next ones
+     *
+     * @param i index of the particle
+     */
+    void commitNextState(int i) {
+        this.x.set(i, this.nextX.get(i));
+        this.y.set(i, this.nextY.get(i));
+        this.vx.set(i, this.nextVx.get(i));
+        this.vy.set(i, this.nextVy.get(i));
+    }
+}
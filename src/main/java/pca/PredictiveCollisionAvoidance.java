@@ -1,12 +1,11 @@
 package pca;
 
 import org.apache.commons.lang3.tuple.ImmutablePair;
-import org.apache.commons.lang3.tuple.MutablePair;
 import org.apache.commons.math3.geometry.euclidean.twod.Vector2D;
 
 import java.util.*;
-import java.util.function.Supplier;
-import java.util.stream.Collectors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 public class PredictiveCollisionAvoidance {
     // Time variables
@@ -14,129 +13,1116 @@ public class PredictiveCollisionAvoidance {
     private final double dt;
     private double totalTime;
 
+    // Step variables, the step is dt unless adaptive stepping is enabled
+    private double stepSize;
+    private boolean adaptiveStepping = false;
+    private double minStepSize;
+    private double maxStepSize;
+    private double stepTolerance;
+    // Scheme moving the agents from their forces
+    private Integrator integrator = Integrator.SEMI_IMPLICIT_EULER;
+    // Time the desired velocity looks ahead with the wall and goal forces, NaN to use the step size
+    private double desiredVelocityHorizon = Double.NaN;
+    // Largest step each agent allows, from the time scale of its last steering
+    private final double[] stepLimit;
+    // Time to the closest collision each agent predicted in its last steering
+    private final double[] collisionTime;
+
     // Goal variables
     private boolean reachedGoal = false;
-    private final Vector2D goal;
+    private final double[] goalX;
+    private final double[] goalY;
+    private final boolean[] retired;
     private final double safeWallDistance;
 
-    // Area variables
-    private final double areaHeight;
-    private final double areaWidth;
+    // Area variables
+    private final double areaHeight;
+    private final double areaWidth;
+    // Walls inside the area, null if there are only the walls of the area
+    private StaticGeometry geometry;
+    // Normal of the last contact of an obstacle with the geometry
+    private final double[] contactNormal = new double[2];
+
+    // Particle data
+    private final ParticleStore store;
+    private final int particleCount;
+
+    // Agent data, the particles that steer using the predictive model
+    private final boolean multiAgent;
+    private final int agentCount;
+    private final int threads;
+
+    // Spatial index of the obstacles
+    private final ObstacleGrid obstacleGrid;
+    private final double maxObstacleRadius;
+    private double maxObstacleSpeed;
+
+    // Closed form motion of the obstacles, null if they are integrated every step
+    private ObstacleMotion obstacleMotion;
+    // Time of the obstacle positions in the index, they are only moved when they may have left their cells
+    private double indexTime;
+
+    // Obstacles the main particle may collide with, null if the spatial index is queried every step
+    private ActivationQueue activationQueue;
+    // Obstacles closer than the radius are active, and deactivated once farther than the radius plus the skin
+    private double activationRadius;
+    private double activationSkin;
+    // Fastest the distance between the main particle and an obstacle can shrink
+    private double closingSpeed;
+
+    // Obstacles around each agent reused between steps, null if the spatial index is queried every step
+    private NeighbourLists neighbourLists;
+    // Fastest an agent can move, bounding how far the agents that are obstacles move in a step
+    private double maxAgentSpeed;
+
+    // Contacts between the obstacles, null if they pass through each other
+    private ObstacleContacts obstacleContacts;
+
+    // Working memory for the steering phase, one per thread
+    private final SteeringState steeringState;
+    private final ThreadLocal<SteeringState> threadSteeringState;
+
+    // Measurements of the phases, only recorded if profiling is enabled
+    private final Profiler profiler = new Profiler();
+
+    // Running state, the pool is only used in multi agent mode
+    private ForkJoinPool pool;
+    private int frameIndex = -1;
+
+    // Results
+    private FrameSink frameSink;
+    private final List<SimulationObserver> observers = new ArrayList<>();
+
+    // Constants
+    // Limit to obstacle choosing, it takes the closest 3 particles in order to compute
+    static final int OBSTACLE_LIMIT = 3;
+    private static final int K_STEEPNESS = 2;
+    private static final int MAIN_PARTICLE_ID = 0;
+    static final double[] BASE_WEIGHTS = new double[]{0.8, 0.15, 0.05};
+    // Weights of the closest collisions, and the ones used given the amount of forces, the weight of the missing forces is equally redistributed
+    private final double[] baseWeights;
+    private final double[][] weights;
+    private static final double[] NW_X = new double[]{0, 0, 1, -1};
+    private static final double[] NW_Y = new double[]{-1, 1, 0, 0};
+    private static final int FORCE_MULTIPLIER = 3;
+    private final double D_MIN;
+    private static final double D_MAX = 4;
+    private static final double D_MID = 1;
+    private static final double AS = 15;
+    public static final int TIME_LIMIT = 150;
+    private static final int WALLS = 4;
+    // Relative margin added to the search reach so rounding never leaves out a particle the exact test accepts
+    static final double REACH_TOLERANCE = 1e-6;
+    // Fraction of the activation radius added to it so the obstacles near its border do not switch every step
+    private static final double ACTIVATION_SKIN = 0.1;
+    // Amount of steering tasks per thread, more tasks than threads balance agents with uneven neighbourhoods
+    private static final int TASKS_PER_THREAD = 8;
+
+    public PredictiveCollisionAvoidance(double dt, double dt2, Collection<Particle> particleList, double areaHeight, double areaWidth, double safeWallDistance, double dmin) {
+        this(dt, dt2, particleList, areaHeight, areaWidth, safeWallDistance, dmin, false, null, 1);
+    }
+
+    /**
+     * Creates a simulation where either only the main particle or every particle steers with the predictive model.
+     * The particles are attached to the store of the simulation, so they reflect its state while it runs.
+     *
+     * @param multiAgent true if every particle is an agent, false if only the main particle is
+     * @param goals      goal of each particle by id, particles without one get a default goal, can be null
+     * @param threads    amount of threads used to steer the agents in multi agent mode
+     */
+    public PredictiveCollisionAvoidance(double dt, double dt2, Collection<Particle> particleList, double areaHeight, double areaWidth, double safeWallDistance, double dmin,
+                                        boolean multiAgent, Map<Integer, Vector2D> goals, int threads) {
+        this(dt, dt2, attachParticles(particleList), areaHeight, areaWidth, safeWallDistance, dmin, multiAgent, goalsOf(goals, particleList.size()), threads);
+    }
+
+    /**
+     * Creates a simulation with its own copy of the initial state of the scenario
+     *
+     * @param multiAgent true if every particle is an agent, false if only the main particle is
+     * @param threads    amount of threads used to steer the agents in multi agent mode
+     */
+    public PredictiveCollisionAvoidance(double dt, double dt2, Scenario scenario, boolean multiAgent, int threads) {
+        this(dt, dt2, scenario, new ParticleStore(scenario.getParticleCount()), multiAgent, threads);
+    }
+
+    /**
+     * Creates a simulation running on the given store, filled with the initial state of the scenario.
+     * A store from {@link ParticleStore#allocateDirect(int)} or {@link ParticleStore#map(String, int)} keeps the
+     * particles off the heap, only a mapped store lets the crowds simulated grow beyond -Xmx.
+     *
+     * @param store      empty store with room for exactly the particles of the scenario
+     * @param multiAgent true if every particle is an agent, false if only the main particle is
+     * @param threads    amount of threads used to steer the agents in multi agent mode
+     */
+    public PredictiveCollisionAvoidance(double dt, double dt2, Scenario scenario, ParticleStore store, boolean multiAgent, int threads) {
+        this(dt, dt2, scenario.fillStore(store), scenario.getHeight(), scenario.getWidth(), scenario.getSafeWallDistance(), scenario.getDmin(),
+                multiAgent, goalsOf(scenario), threads);
+    }
+
+    /**
+     * Creates a simulation continuing from a checkpoint
+     *
+     * @param dmin        minimum distance of the continuation
+     * @param baseWeights weights of the closest collisions of the continuation, from the closest one
+     */
+    PredictiveCollisionAvoidance(SimulationCheckpoint checkpoint, double dmin, double[] baseWeights) {
+        this(checkpoint.dt, checkpoint.dt2, checkpoint.createStore(), checkpoint.areaHeight, checkpoint.areaWidth, checkpoint.safeWallDistance, dmin, baseWeights,
+                checkpoint.multiAgent, new double[][]{checkpoint.goalX, checkpoint.goalY}, checkpoint.threads);
+
+        // Time
+        this.totalTime = checkpoint.totalTime;
+        this.stepSize = checkpoint.stepSize;
+        this.frameIndex = checkpoint.frameIndex;
+
+        // Agents that reached their goal already left the area
+        this.reachedGoal = checkpoint.reachedGoal;
+        for (int i = 0; i < this.agentCount; i++) {
+            this.retired[i] = checkpoint.retired[i];
+            if (this.retired[i]) {
+                this.obstacleGrid.remove(i);
+            }
+        }
+
+        // Step options
+        this.adaptiveStepping = checkpoint.adaptiveStepping;
+        this.minStepSize = checkpoint.minStepSize;
+        this.maxStepSize = checkpoint.maxStepSize;
+        this.stepTolerance = checkpoint.stepTolerance;
+        this.integrator = checkpoint.integrator;
+        this.desiredVelocityHorizon = checkpoint.desiredVelocityHorizon;
+        System.arraycopy(checkpoint.stepLimit, 0, this.stepLimit, 0, this.agentCount);
+
+        // Obstacle options, the obstacles not evaluated at the checkpoint are brought to its time
+        if (checkpoint.motionX != null) {
+            double[][] initialState = new double[][]{checkpoint.motionX, checkpoint.motionY, checkpoint.motionVx, checkpoint.motionVy};
+            this.obstacleMotion = new ObstacleMotion(initialState, checkpoint.radius, this.areaHeight);
+            this.refreshObstacles();
+        }
+        if (checkpoint.activationQueue) {
+            this.scheduleObstacles();
+        }
+        if (!Double.isNaN(checkpoint.neighbourSkin)) {
+            this.useNeighbourLists(checkpoint.neighbourSkin);
+        }
+        if (checkpoint.contactModel != null) {
+            this.useObstacleContacts(checkpoint.contactModel, checkpoint.contactStiffness);
+        }
+        this.geometry = checkpoint.geometry;
+    }
+
+    /**
+     * @param goals x and y of the goal of each particle, NaN if the particle gets a default goal
+     */
+    private PredictiveCollisionAvoidance(double dt, double dt2, ParticleStore store, double areaHeight, double areaWidth, double safeWallDistance, double dmin,
+                                         boolean multiAgent, double[][] goals, int threads) {
+        this(dt, dt2, store, areaHeight, areaWidth, safeWallDistance, dmin, BASE_WEIGHTS, multiAgent, goals, threads);
+    }
+
+    /**
+     * @param baseWeights weights of the closest collisions, from the closest one
+     * @param goals       x and y of the goal of each particle, NaN if the particle gets a default goal
+     */
+    private PredictiveCollisionAvoidance(double dt, double dt2, ParticleStore store, double areaHeight, double areaWidth, double safeWallDistance, double dmin,
+                                         double[] baseWeights, boolean multiAgent, double[][] goals, int threads) {
+        if (baseWeights.length != OBSTACLE_LIMIT) {
+            throw new IllegalArgumentException("There must be a weight for each of the " + OBSTACLE_LIMIT + " closest collisions");
+        }
+        this.dt = dt;
+        this.dt2 = dt2;
+        this.totalTime = 0;
+        this.stepSize = dt;
+
+        this.store = store;
+        this.particleCount = store.size();
+
+        // Setting constants
+//        D_MAX = this.particles.get(MAIN_PARTICLE_ID).getMaxSpeed() * this.particles.get(MAIN_PARTICLE_ID).getAnticipationTime();
+//        D_MIN = this.particles.get(MAIN_PARTICLE_ID).getComfortRadius();
+        D_MIN = dmin;
+        this.baseWeights = baseWeights.clone();
+        this.weights = computeWeights(this.baseWeights);
+
+        // Variables
+        this.safeWallDistance = safeWallDistance;
+        this.areaHeight = areaHeight;
+        this.areaWidth = areaWidth;
+
+        // Agent variables
+        this.multiAgent = multiAgent;
+        this.agentCount = multiAgent ? this.particleCount : 1;
+        this.threads = Math.max(threads, 1);
+        this.retired = new boolean[this.agentCount];
+        this.stepLimit = new double[this.agentCount];
+        Arrays.fill(this.stepLimit, dt);
+        this.collisionTime = new double[this.agentCount];
+        Arrays.fill(this.collisionTime, ParticleStore.NO_COLLISION);
+        this.goalX = new double[this.agentCount];
+        this.goalY = new double[this.agentCount];
+        for (int i = 0; i < this.agentCount; i++) {
+            if (!Double.isNaN(goals[0][i]) && !Double.isNaN(goals[1][i])) {
+                this.goalX[i] = goals[0][i];
+                this.goalY[i] = goals[1][i];
+            } else {
+                this.setDefaultGoal(i);
+            }
+        }
+
+        // Indexing the obstacles, in multi agent mode every particle is an obstacle for the others
+        this.obstacleGrid = new ObstacleGrid(areaWidth, areaHeight, this.particleCount);
+        double maxRadius = 0;
+        for (int i = multiAgent ? 0 : 1; i < this.particleCount; i++) {
+            this.obstacleGrid.update(i, this.store.x.get(i), this.store.y.get(i));
+            maxRadius = Math.max(maxRadius, this.store.radius.get(i));
+            this.maxObstacleSpeed = Math.max(this.maxObstacleSpeed, this.getSpeed(i));
+        }
+        this.maxObstacleRadius = maxRadius;
+
+        // Working memory
+        this.steeringState = new SteeringState(this.particleCount, this.profiler.createRecorder());
+        this.threadSteeringState = ThreadLocal.withInitial(() -> new SteeringState(this.particleCount, this.profiler.createRecorder()));
+    }
+
+    /**
+     * Creates a store with the particles, using the id as index, and attaches the particles to it
+     */
+    private static ParticleStore attachParticles(Collection<Particle> particleList) {
+        ParticleStore store = new ParticleStore(particleList.size());
+        particleList.forEach(p -> p.attach(store, p.getId()));
+        return store;
+    }
+
+    private static double[][] goalsOf(Map<Integer, Vector2D> goals, int particleCount) {
+        double[][] coordinates = new double[2][particleCount];
+        for (int i = 0; i < particleCount; i++) {
+            Vector2D goal = goals != null ? goals.get(i) : null;
+            coordinates[0][i] = goal != null ? goal.getX() : Double.NaN;
+            coordinates[1][i] = goal != null ? goal.getY() : Double.NaN;
+        }
+        return coordinates;
+    }
+
+    private static double[][] goalsOf(Scenario scenario) {
+        double[][] coordinates = new double[2][scenario.getParticleCount()];
+        for (int i = 0; i < scenario.getParticleCount(); i++) {
+            coordinates[0][i] = scenario.getGoalX(i);
+            coordinates[1][i] = scenario.getGoalY(i);
+        }
+        return coordinates;
+    }
+
+    /**
+     * Computes the goal of a particle without an explicit one. The main particle walks to the right wall,
+     * the rest walk to the wall they are heading to, keeping the same distance to it as the main particle.
+     *
+     * @param i index of the particle to compute the goal for
+     */
+    private void setDefaultGoal(int i) {
+        double offset = this.store.comfortRadius.get(i) + this.store.radius.get(i) / 2;
+        double x = this.store.x.get(i), y = this.store.y.get(i), vx = this.store.vx.get(i), vy = this.store.vy.get(i);
+
+        this.goalX[i] = x;
+        this.goalY[i] = y;
+        if (i == MAIN_PARTICLE_ID) {
+            this.goalX[i] = this.areaWidth - offset;
+            this.goalY[i] = this.areaHeight / 2;
+        } else if (vx == 0 && vy == 0) {
+            return;
+        } else if (Math.abs(vx) >= Math.abs(vy)) {
+            this.goalX[i] = vx > 0 ? this.areaWidth - offset : offset;
+        } else {
+            this.goalY[i] = vy > 0 ? this.areaHeight - offset : offset;
+        }
+    }
+
+    /**
+     * Computes the weights used for each amount of forces, in case there are less than the limit of obstacles
+     *
+     * @param baseWeights weights when there are as many forces as the limit
+     * @return array with the ordered weights for each amount of forces
+     */
+    static double[][] computeWeights(double[] baseWeights) {
+        double[][] weights = new double[OBSTACLE_LIMIT + 1][];
+
+        for (int amountOfForces = 0; amountOfForces <= OBSTACLE_LIMIT; amountOfForces++) {
+            // Checking if no calculations are needed
+            if (amountOfForces == OBSTACLE_LIMIT) {
+                weights[amountOfForces] = baseWeights.clone();
+                continue;
+            }
+
+            // Compute the total weight to be redistributed
+            double valueToDistribute = 0;
+            for (int i = amountOfForces; i < baseWeights.length; i++) {
+                valueToDistribute += baseWeights[i];
+            }
+
+            // Equally redistribute among remaining
+            valueToDistribute /= amountOfForces;
+
+            weights[amountOfForces] = new double[amountOfForces];
+            for (int i = 0; i < amountOfForces; i++) {
+                weights[amountOfForces][i] = baseWeights[i] + valueToDistribute;
+            }
+        }
+
+        return weights;
+    }
+
+    /**
+     * @return simulated time so far, the duration of the run once it finishes
+     */
+    public double getTotalTime() {
+        return totalTime;
+    }
+
+    public double getDt() {
+        return dt;
+    }
+
+    public double getDt2() {
+        return dt2;
+    }
+
+    /**
+     * @return state of the particles, which changes while the simulation runs
+     */
+    public ParticleStore getStore() {
+        return store;
+    }
+
+    public double getMaxObstacleRadius() {
+        return maxObstacleRadius;
+    }
+
+    public double getDmin() {
+        return D_MIN;
+    }
+
+    public double[] getBaseWeights() {
+        return baseWeights.clone();
+    }
+
+    public double getSafeWallDistance() {
+        return safeWallDistance;
+    }
+
+    /**
+     * @param agent index of the agent
+     * @return time to the closest collision the agent predicted in its last steering, NO_COLLISION if it predicted none
+     */
+    public double getPredictedCollisionTime(int agent) {
+        return collisionTime[agent];
+    }
+
+    /**
+     * @param agent index of the particle
+     * @return distance from the border of the particle to the nearest wall
+     */
+    public double getWallClearance(int agent) {
+        double clearance = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < WALLS; i++) {
+            clearance = Math.min(clearance, getWallDistance(this.store.x.get(agent), this.store.y.get(agent), i, this.areaWidth, this.areaHeight) - this.store.radius.get(agent));
+        }
+        if (this.geometry != null) {
+            clearance = this.getGeometryClearance(agent, this.store.x.get(agent), this.store.y.get(agent), clearance, new double[2]);
+        }
+        return clearance;
+    }
+
+    /**
+     * Distance from the border of the particle at (x, y) to the closest segment of the geometry, when it is under the given one
+     */
+    private double getGeometryClearance(int agent, double x, double y, double clearance, double[] closest) {
+        double radius = this.store.radius.get(agent);
+        int segment = this.geometry.findClosestSegment(x, y, clearance + radius, closest);
+        if (segment < 0) {
+            return clearance;
+        }
+        return Math.min(clearance, Math.hypot(x - closest[0], y - closest[1]) - radius);
+    }
+
+    /**
+     * @param agent index of the agent
+     * @return true if the agent is close enough to its goal
+     */
+    public boolean hasReachedGoal(int agent) {
+        return this.retired[agent] || this.checkIfReachedGoal(agent);
+    }
+
+    /**
+     * Collects the obstacles whose position may be inside the square of the given half side centered in (x, y),
+     * using the spatial index of the simulation. Agents that reached their goal are not obstacles anymore.
+     *
+     * @param x          x coordinate of the center
+     * @param y          y coordinate of the center
+     * @param reach      half side of the square
+     * @param candidates buffer where the indexes of the obstacles are stored, sized for every particle
+     * @return amount of obstacles stored in the buffer
+     */
+    public int queryObstacles(double x, double y, double reach, int[] candidates) {
+        if (this.obstacleMotion != null) {
+            return this.queryMovingObstacles(x, y, reach, candidates);
+        }
+        return this.obstacleGrid.query(x, y, reach, candidates);
+    }
+
+    /**
+     * Merges the measurements of the phases recorded so far, which are empty unless profiling is enabled
+     *
+     * @return summary of the measurements
+     */
+    public ProfileSummary getProfile() {
+        return this.profiler.summarize();
+    }
+
+    /**
+     * Saves the state of the simulation, it must be taken between steps, for example by an observer
+     *
+     * @return checkpoint the simulation can be restored or forked from
+     */
+    public SimulationCheckpoint checkpoint() {
+        return new SimulationCheckpoint(this.dt, this.dt2, this.totalTime, this.stepSize, this.frameIndex, this.areaHeight, this.areaWidth, this.safeWallDistance,
+                D_MIN, this.baseWeights, this.multiAgent, this.threads, this.reachedGoal, this.goalX, this.goalY, this.retired,
+                this.adaptiveStepping, this.minStepSize, this.maxStepSize, this.stepTolerance, this.integrator, this.desiredVelocityHorizon, this.stepLimit, this.store,
+                this.activationQueue != null, this.neighbourLists != null ? this.neighbourLists.getSkin() : Double.NaN,
+                this.obstacleContacts != null ? this.obstacleContacts.getModel() : null, this.obstacleContacts != null ? this.obstacleContacts.getStiffness() : 0,
+                this.obstacleMotion != null ? this.obstacleMotion.getInitialState() : null, this.geometry);
+    }
+
+    /**
+     * Adds an observer called after every step of the simulation
+     *
+     * @param observer observer to be added
+     */
+    public void addObserver(SimulationObserver observer) {
+        this.observers.add(observer);
+    }
+
+    /**
+     * Makes every step pick its own size instead of using dt. The step is the tolerance times the shortest
+     * time scale of the agents: the time to their closest predicted collision and the time they need to
+     * reach the nearest wall or their goal at their current speed, bounded by the given sizes.
+     * Steps are shortened so every dt2 frame is stored at exactly a multiple of dt2.
+     *
+     * @param minStepSize smallest step
+     * @param maxStepSize largest step
+     * @param tolerance   fraction of the shortest time scale covered by a single step
+     */
+    public void setAdaptiveStepping(double minStepSize, double maxStepSize, double tolerance) {
+        if (!(minStepSize > 0) || !(maxStepSize >= minStepSize) || !(tolerance > 0)) {
+            throw new IllegalArgumentException("The step sizes must be positive with the minimum under the maximum, and the tolerance positive");
+        }
+        this.adaptiveStepping = true;
+        this.minStepSize = minStepSize;
+        this.maxStepSize = maxStepSize;
+        this.stepTolerance = tolerance;
+    }
+
+    /**
+     * Changes the scheme moving the agents from their forces, semi-implicit Euler by default.
+     * The schemes with several stages evaluate every force again at each stage, so they cost as many steering
+     * phases per step as stages, and in exchange keep the same accuracy with larger steps.
+     *
+     * @param integrator scheme moving the agents
+     */
+    public void setIntegrator(Integrator integrator) {
+        this.integrator = Objects.requireNonNull(integrator);
+    }
+
+    public Integrator getIntegrator() {
+        return integrator;
+    }
+
+    /**
+     * Fixes the time the desired velocity looks ahead with the wall and goal forces, which is the step size by default.
+     * The desired velocity decides the collisions predicted, so with the default the model itself changes with the
+     * step, and runs with different steps or integrators only converge to the same trajectory with a fixed horizon.
+     *
+     * @param horizon time the desired velocity looks ahead, NaN to use the step size
+     */
+    public void setDesiredVelocityHorizon(double horizon) {
+        if (!Double.isNaN(horizon) && !(horizon > 0)) {
+            throw new IllegalArgumentException("The horizon of the desired velocity must be positive");
+        }
+        this.desiredVelocityHorizon = horizon;
+    }
+
+    /**
+     * Computes the obstacles from their closed form motion instead of moving them every step. Only the obstacles
+     * close enough to the main particle, and every obstacle in the dt2 frames, are evaluated at the current time,
+     * and they bounce exactly at the walls instead of up to a step past them.
+     * The store only holds the current state of the obstacles for those evaluations.
+     *
+     * @throws IllegalStateException if every particle is an agent or the simulation already started
+     */
+    public void useAnalyticObstacles() {
+        if (this.geometry != null) {
+            throw new IllegalStateException("The closed form motion only bounces at the walls of the area");
+        }
+        if (this.multiAgent) {
+            throw new IllegalStateException("Only obstacles that are not agents have a closed form motion");
+        }
+        if (this.totalTime != 0) {
+            throw new IllegalStateException("The closed form motion starts from the initial state");
+        }
+        if (this.neighbourLists != null) {
+            throw new IllegalStateException("The neighbour lists need the obstacles moved every step");
+        }
+        if (this.obstacleContacts != null) {
+            throw new IllegalStateException("The closed form motion does not have contacts between the obstacles");
+        }
+        this.obstacleMotion = new ObstacleMotion(this.store, this.areaHeight);
+        this.indexTime = 0;
+    }
+
+    /**
+     * Adds walls inside the area, which push the agents away like the walls of the area and reflect the obstacles
+     * that hit them. Every segment within the safe wall distance of an agent applies the force of a wall, along the
+     * line from its closest point to the agent.
+     *
+     * @param geometry walls inside the area, null to only keep the walls of the area
+     * @throws IllegalStateException if the obstacles use their closed form motion
+     */
+    public void setGeometry(StaticGeometry geometry) {
+        if (geometry != null && this.obstacleMotion != null) {
+            throw new IllegalStateException("The closed form motion only bounces at the walls of the area");
+        }
+        this.geometry = geometry;
+    }
+
+    /**
+     * @return walls inside the area, null if there are none
+     */
+    public StaticGeometry getGeometry() {
+        return geometry;
+    }
+
+    /**
+     * Only tests the obstacles that may collide with the main particle instead of searching them in the spatial index
+     * every step. The main particle and the obstacles never move faster than their maximum speeds, so from their distance
+     * the earliest time an obstacle could get within the reach of the anticipation time is known, and the obstacle waits
+     * in a priority queue until then. The obstacles within the reach are active and tested every step until they are
+     * far enough again, so the collisions found are the same as with the index.
+     *
+     * @throws IllegalStateException if every particle is an agent
+     */
+    public void useActivationQueue() {
+        if (this.multiAgent) {
+            throw new IllegalStateException("The activation queue only follows the main particle");
+        }
+        if (this.neighbourLists != null) {
+            throw new IllegalStateException("The activation queue and the neighbour lists both replace the spatial index");
+        }
+        this.scheduleObstacles();
+    }
+
+    /**
+     * Keeps the obstacles around each agent in a list reused for several steps instead of searching the spatial index
+     * every step. A list holds the obstacles within the reach of the agent plus the skin, and it is rebuilt once the
+     * distance the agent moved plus the distance any obstacle could have moved, at the maximum obstacle speed or the
+     * maximum speed of the agents, may have taken an obstacle of the reach from outside the list. The obstacles tested
+     * are a superset of the ones the index returns, so the collisions found are the same.
+     *
+     * @param skin margin added to the reach of the agent when building its list, a larger one rebuilds less often but
+     *             tests more obstacles every step
+     * @throws IllegalStateException if the obstacles use their closed form motion or the activation queue is used
+     */
+    public void useNeighbourLists(double skin) {
+        if (!(skin >= 0)) {
+            throw new IllegalArgumentException("The skin of the neighbour lists can not be negative");
+        }
+        if (this.obstacleMotion != null) {
+            throw new IllegalStateException("The neighbour lists need the obstacles moved every step");
+        }
+        if (this.activationQueue != null) {
+            throw new IllegalStateException("The activation queue and the neighbour lists both replace the spatial index");
+        }
+        this.neighbourLists = new NeighbourLists(this.agentCount, skin);
+        this.maxAgentSpeed = 0;
+        for (int i = 0; i < this.agentCount && this.multiAgent; i++) {
+            this.maxAgentSpeed = Math.max(this.maxAgentSpeed, this.store.maxSpeed.get(i));
+        }
+    }
+
+    /**
+     * @return lists of the obstacles around each agent with how often they were rebuilt, null if they are not used
+     */
+    public NeighbourLists getNeighbourLists() {
+        return neighbourLists;
+    }
+
+    /**
+     * Makes the obstacles collide with each other after every step instead of passing through each other. The pairs
+     * are found with a sweep along the longer side of the area and resolved exactly, see {@link ObstacleContacts}. The contacts change the speed
+     * of the obstacles, so the fastest obstacle speed is updated after them, and the activation queue, which assumes
+     * the obstacles keep their speed, is scheduled again whenever an obstacle gets faster than it was scheduled with.
+     *
+     * @param model     how the velocities of overlapping obstacles change
+     * @param stiffness force per unit of overlap of the soft contacts, not used by the elastic ones
+     * @throws IllegalStateException if every particle is an agent or the obstacles use their closed form motion
+     */
+    public void useObstacleContacts(ObstacleContacts.Model model, double stiffness) {
+        Objects.requireNonNull(model);
+        if (model == ObstacleContacts.Model.SOFT && !(stiffness > 0)) {
+            throw new IllegalArgumentException("The stiffness of the soft contacts must be positive");
+        }
+        if (this.multiAgent) {
+            throw new IllegalStateException("Only the obstacles that are not agents collide with each other");
+        }
+        if (this.obstacleMotion != null) {
+            throw new IllegalStateException("The closed form motion does not have contacts between the obstacles");
+        }
+        for (int i = this.agentCount; i < this.particleCount; i++) {
+            if (!(this.store.mass.get(i) > 0)) {
+                throw new IllegalArgumentException("The obstacles need a positive mass to collide with each other");
+            }
+        }
+        this.obstacleContacts = new ObstacleContacts(model, stiffness, this.agentCount, this.particleCount, this.areaWidth >= this.areaHeight);
+    }
+
+    /**
+     * @return contacts between the obstacles with how many were resolved, null if the obstacles pass through each other
+     */
+    public ObstacleContacts getObstacleContacts() {
+        return obstacleContacts;
+    }
+
+    /**
+     * Queues every obstacle due at the current time, when it is either activated or queued again
+     */
+    private void scheduleObstacles() {
+        ParticleStore s = this.store;
+        this.closingSpeed = s.maxSpeed.get(MAIN_PARTICLE_ID) + this.maxObstacleSpeed;
+        double radius = s.comfortRadius.get(MAIN_PARTICLE_ID) + this.maxObstacleRadius + this.closingSpeed * s.anticipationTime.get(MAIN_PARTICLE_ID);
+        this.activationRadius = radius + REACH_TOLERANCE * (1 + radius);
+        this.activationSkin = ACTIVATION_SKIN * this.activationRadius;
+
+        this.activationQueue = new ActivationQueue(this.particleCount);
+        for (int i = 1; i < this.particleCount; i++) {
+            this.activationQueue.schedule(i, this.totalTime);
+        }
+    }
+
+    /**
+     * @return size of the last step
+     */
+    public double getStepSize() {
+        return stepSize;
+    }
+
+    /////////////////////////////////////////////////////////////////////////////////////
+    //                                 SIMULATION RUNNING
+    /////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Runs the simulation keeping every dt2 frame in memory
+     *
+     * @return list with the time and the state of every particle of each frame
+     */
+    public List<ImmutablePair<Double, double[][]>> simulate() {
+        List<ImmutablePair<Double, double[][]>> results = new ArrayList<>();
+        this.simulate((time, store) -> {
+            // Creating the data structure for the particles
+            double[][] particleData = new double[store.size()][4];
+            for (int j = 0; j < store.size(); j++) {
+                particleData[j][0] = store.getX(j);
+                particleData[j][1] = store.getY(j);
+                particleData[j][2] = store.getVx(j);
+                particleData[j][3] = store.getVy(j);
+            }
+
+            // Adding our data points to the results
+            results.add(new ImmutablePair<>(time, particleData));
+        });
+        return results;
+    }
+
+    /**
+     * Runs the simulation handing every dt2 frame to the given sink as soon as it is reached
+     *
+     * @param frameSink receiver of the frames
+     * @return whether the agents reached their goals or the time limit stopped the run
+     */
+    public SimulationOutcome simulate(FrameSink frameSink) {
+        this.start(frameSink);
+        try {
+            while (!this.isFinished()) {
+                this.step();
+            }
+        } finally {
+            this.stop();
+        }
+
+        // In case the program is stuck, it was forced to stop
+        SimulationOutcome outcome = this.reachedGoal ? SimulationOutcome.REACHED_GOAL : SimulationOutcome.TIME_LIMIT;
+        for (SimulationObserver observer : this.observers) {
+            observer.onFinish(this, outcome);
+        }
+        return outcome;
+    }
+
+    /**
+     * Prepares the simulation to run steps, handing the frames to the given sink
+     *
+     * @param frameSink receiver of the frames
+     */
+    void start(FrameSink frameSink) {
+        this.frameSink = frameSink;
+
+        // Pool for the steering phase, only needed when there are several agents
+        this.pool = this.multiAgent ? new ForkJoinPool(this.threads) : null;
+
+        for (SimulationObserver observer : this.observers) {
+            observer.onStart(this);
+        }
+    }
+
+    /**
+     * Advances the simulation a single dt step, storing the frame of the current time if needed
+     */
+    void step() {
+        Profiler.Recorder recorder = this.steeringState.recorder;
+
+        // Checking if results can be stored
+        this.frameIndex = this.checkAndStoreResults(this.frameIndex);
+
+        // Choosing the size of the step, landing on the next frame if it is close
+        boolean landsOnFrame = false;
+        double nextFrameTime = (this.frameIndex + 1) * this.dt2;
+        if (this.adaptiveStepping) {
+            this.stepSize = this.computeStepSize();
+            if (this.totalTime + this.stepSize + this.minStepSize > nextFrameTime) {
+                this.stepSize = nextFrameTime - this.totalTime;
+                landsOnFrame = true;
+            }
+        }
+
+        // Steering the agents, which only reads the current state and writes the next one
+        if (this.pool != null) {
+            int threshold = Math.max(this.agentCount / (this.threads * TASKS_PER_THREAD), 1);
+            this.pool.invoke(new SteeringTask(0, this.agentCount, threshold));
+        } else {
+            this.steerAgent(MAIN_PARTICLE_ID, this.steeringState);
+        }
+
+        // Moving the agents to their next state and updating the other particles
+        long time = Profiler.ENABLED ? System.nanoTime() : 0;
+        this.updateParticles();
+        if (Profiler.ENABLED) {
+            recorder.lap(Profiler.Phase.OBSTACLE_UPDATE, time);
+            recorder.count(Profiler.Counter.STEPS, 1);
+        }
+
+        // Checking if the agents reached their goal
+        this.reachedGoal = this.checkIfReachedGoal();
+
+        // Updating the time
+        this.totalTime = landsOnFrame ? nextFrameTime : this.totalTime + this.stepSize;
+
+        // Letting the observers see the new state
+        for (int i = 0; i < this.observers.size(); i++) {
+            this.observers.get(i).onStep(this);
+        }
+    }
+
+    /**
+     * @return true once the agents reached their goals or the time limit is reached, when the run stops
+     */
+    boolean isFinished() {
+        return this.reachedGoal || this.totalTime >= TIME_LIMIT;
+    }
+
+    /**
+     * Releases the threads used to run the steps
+     */
+    void stop() {
+        if (this.pool != null) {
+            this.pool.shutdown();
+            this.pool = null;
+        }
+    }
+
+    /**
+     * Runs the full predictive pipeline for an agent, storing its next velocity and position.
+     * It only reads the current state of the particles, so agents can be steered concurrently.
+     *
+     * @param agent index of the agent to be steered
+     * @param state working memory owned by the calling thread
+     */
+    void steerAgent(int agent, SteeringState state) {
+        Profiler.Recorder recorder = state.recorder;
+        long time = Profiler.ENABLED ? System.nanoTime() : 0;
+        ParticleStore s = this.store;
+        state.evaluateAt(this, agent, s.x.get(agent), s.y.get(agent), s.vx.get(agent), s.vy.get(agent), 0);
+
+        // Computing forces
+        this.computeWallAvoidanceForce(agent, state);
+        if (Profiler.ENABLED) {
+            time = recorder.lap(Profiler.Phase.WALL_FORCE, time);
+        }
+        this.computeGoalForce(agent, state);
+        if (Profiler.ENABLED) {
+            time = recorder.lap(Profiler.Phase.GOAL_FORCE, time);
+        }
+
+        // Compute closest collisions
+        this.computeClosestParticles(agent, state);
+        s.desiredVx.set(agent, state.desiredVx);
+        s.desiredVy.set(agent, state.desiredVy);
+        this.collisionTime[agent] = state.closest.size() > 0 ? state.closest.getTime(0) : ParticleStore.NO_COLLISION;
+        double wallClearance = state.wallClearance;
+        if (Profiler.ENABLED) {
+            time = recorder.lap(Profiler.Phase.CLOSEST_PARTICLES, time);
+        }
+
+        // Compute avoidance maneuvers and the total avoidance force
+        this.computeTotalAvoidanceForce(agent, state);
+        if (Profiler.ENABLED) {
+            time = recorder.lap(Profiler.Phase.MANEUVERS, time);
+        }
+
+        // Computing the next state of the agent, the later stages of the integrator are measured as integration
+        this.computeNextState(agent, state);
+        if (Profiler.ENABLED) {
+            recorder.lap(Profiler.Phase.INTEGRATION, time);
+        }
+
+        // Keeping the time scale of the agent for the next step
+        if (this.adaptiveStepping) {
+            this.stepLimit[agent] = this.computeStepLimit(agent, wallClearance);
+        }
+    }
+
+    /**
+     * Computes every force applied to the agent at the state of an integrator stage, see {@link Integrator.Dynamics}
+     *
+     * @return x and y of the acceleration, in the buffer of the state
+     */
+    private double[] computeStageAcceleration(int agent, SteeringState state, double x, double y, double vx, double vy, double offset) {
+        state.evaluateAt(this, agent, x, y, vx, vy, offset);
+        this.computeWallAvoidanceForce(agent, state);
+        this.computeGoalForce(agent, state);
+        this.computeClosestParticles(agent, state);
+        this.computeTotalAvoidanceForce(agent, state);
+        state.acceleration[0] = state.avoidanceForceX + state.wallForceX + state.goalForceX;
+        state.acceleration[1] = state.avoidanceForceY + state.wallForceY + state.goalForceY;
+        return state.acceleration;
+    }
+
+    /**
+     * Steers a range of agents, splitting the range in halves until it is under the threshold
+     */
+    private class SteeringTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final int threshold;
 
-    // Particle data
-    private final Map<Integer, Particle> particles;
-    private final int particleCount;
-    private final Particle mainParticle;
+        SteeringTask(int from, int to, int threshold) {
+            this.from = from;
+            this.to = to;
+            this.threshold = threshold;
+        }
 
-    // Results
-    private final List<ImmutablePair<Double, double[][]>> results = new ArrayList<>();
+        @Override
+        protected void compute() {
+            if (this.to - this.from <= this.threshold) {
+                SteeringState state = threadSteeringState.get();
+                for (int i = this.from; i < this.to; i++) {
+                    if (!retired[i]) {
+                        steerAgent(i, state);
+                    }
+                }
+            } else {
+                int middle = (this.from + this.to) >>> 1;
+                invokeAll(new SteeringTask(this.from, middle, this.threshold), new SteeringTask(middle, this.to, this.threshold));
+            }
+        }
+    }
 
-    // Constants
-    // Limit to obstacle choosing, it takes the closest 3 particles in order to compute
-    private static final int OBSTACLE_LIMIT = 3;
-    private static final int K_STEEPNESS = 2;
-    private static final int MAIN_PARTICLE_ID = 0;
-    private static final Double[] BASE_WEIGHTS = new Double[]{0.8, 0.15, 0.05};
-    private static final Vector2D[] NW = new Vector2D[]{
-            new Vector2D(0, -1),
-            new Vector2D(0, 1),
-            new Vector2D(1, 0),
-            new Vector2D(-1, 0)
-    };
-    private static final Supplier<List<MutablePair<Double, MutablePair<Double, Integer>>>> LIST_SUPPLIER = ArrayList::new;
-    private static final int FORCE_MULTIPLIER = 3;
-    private final double D_MIN;
-    private final double D_MAX = 4;
-    private final double D_MID = 1;
-    private static final double AS = 15;
-    private static final Comparator<MutablePair<Double, MutablePair<Double, Integer>>> TREESET_COMPARATOR = (o1, o2) -> {
-        int first = o1.left.compareTo(o2.left);
-        if (first != 0){
-            return first;
-        }
-        int second = o1.right.left.compareTo(o2.right.left);
-        if (second != 0){
-            return second;
-        }
-        return o1.right.right.compareTo(o2.right.right);
-    };
-    private static final int TIME_LIMIT = 150;
-    private static final int WALLS = 4;
+    /////////////////////////////////////////////////////////////////////////////////////
+    //                                 STRIPS
+    /////////////////////////////////////////////////////////////////////////////////////
 
-    public PredictiveCollisionAvoidance(double dt, double dt2, Collection<Particle> particleList, double areaHeight, double areaWidth, double safeWallDistance, double dmin) {
-        this.dt = dt;
-        this.dt2 = dt2;
-        this.totalTime = 0;
+    /*
+     * A strip of a distributed run steers and moves only some of the particles, see StripSimulation.
+     * The rest of the particles are kept in the store by index, but only the ones it receives are in the index.
+     */
 
-        // Add all particles to map
-        this.particles = new HashMap<>(particleList.size());
-        particleList.forEach(p -> this.particles.put(p.getId(), p));
-        this.particleCount = particleList.size();
-        this.mainParticle = this.particles.get(MAIN_PARTICLE_ID);
+    /**
+     * Computes the forces of the agent that do not depend on the obstacles and the reach of its search for them,
+     * the same reach {@link #steerAgent(int, SteeringState)} uses as long as the state does not change in between
+     *
+     * @param agent index of the agent
+     * @param state working memory of the calling thread
+     * @return half side of the square around the agent where the colliding obstacles are
+     */
+    double computeSearchReach(int agent, SteeringState state) {
+        ParticleStore s = this.store;
+        state.evaluateAt(this, agent, s.x.get(agent), s.y.get(agent), s.vx.get(agent), s.vy.get(agent), 0);
+        this.computeWallAvoidanceForce(agent, state);
+        this.computeGoalForce(agent, state);
+        return this.computeReach(agent, state);
+    }
 
-        // Setting constants
-//        D_MAX = this.particles.get(MAIN_PARTICLE_ID).getMaxSpeed() * this.particles.get(MAIN_PARTICLE_ID).getAnticipationTime();
-//        D_MIN = this.particles.get(MAIN_PARTICLE_ID).getComfortRadius();
-        D_MIN = dmin;
+    /**
+     * Adds the particle to the index, or moves it to its current position
+     */
+    void indexObstacle(int i) {
+        this.obstacleGrid.update(i, this.store.x.get(i), this.store.y.get(i));
+    }
 
-        // Variables
-        this.safeWallDistance = safeWallDistance;
-        this.areaHeight = areaHeight;
-        this.areaWidth = areaWidth;
-        this.goal = new Vector2D(
-                areaWidth - this.mainParticle.getComfortRadius() - this.mainParticle.getRadius() / 2,
-                areaHeight / 2
-        );
+    void removeObstacle(int i) {
+        this.obstacleGrid.remove(i);
+    }
 
+    /**
+     * Marks an agent as retired, leaving its removal from the index to the caller
+     */
+    void retire(int agent) {
+        this.retired[agent] = true;
     }
 
-    /////////////////////////////////////////////////////////////////////////////////////
-    //                                 SIMULATION RUNNING
-    /////////////////////////////////////////////////////////////////////////////////////
+    int getAgentCount() {
+        return agentCount;
+    }
 
-    public List<ImmutablePair<Double, double[][]>> simulate() {
-        List<MutablePair<Double, MutablePair<Double, Integer>>> closestCollisions;
-        Vector2D avoidanceForce, wallForce, goalForce;
-        List<Vector2D> avoidanceManeuvers;
-        int index = -1;
+    boolean isMultiAgent() {
+        return multiAgent;
+    }
+
+    SteeringState getSteeringState() {
+        return steeringState;
+    }
+
+    double getMaxObstacleSpeed() {
+        return maxObstacleSpeed;
+    }
+
+    void setMaxObstacleSpeed(double maxObstacleSpeed) {
+        this.maxObstacleSpeed = maxObstacleSpeed;
+    }
 
-        while (!this.reachedGoal && this.totalTime < TIME_LIMIT) {
-            // Checking if results can be stored
-            index = this.checkAndStoreResults(index);
+    /**
+     * Forces and closest collisions of the agent being steered, reused between agents and steps
+     */
+    static final class SteeringState implements Integrator.Dynamics {
+        // Agent and state the forces are evaluated at, its current state or the one of a stage of the integrator,
+        // with the obstacles moved along their velocity by the offset from the current time
+        private PredictiveCollisionAvoidance simulation;
+        int agent;
+        double x, y, vx, vy;
+        double offset;
+        double desiredVx, desiredVy;
+        final double[] next = new double[4];
+        final double[] stage = new double[4];
+        final double[] acceleration = new double[2];
+
+        // Forces
+        double wallForceX, wallForceY;
+        // Distance from the agent to the nearest wall
+        double wallClearance;
+        double goalForceX, goalForceY;
+        double avoidanceForceX, avoidanceForceY;
+        final double[] force = new double[2];
+
+        // Closest collisions, ordered by time, then distance and then index
+        final TopKSelector closest = new TopKSelector(OBSTACLE_LIMIT);
+
+        // Buffers for the obstacle search and the collision prediction
+        final int[] candidates;
+        final CollisionKernel kernel = new CollisionKernel();
+
+        // Buffers for the segments of the geometry near the agent, grown to the amount of segments
+        int[] segments = new int[0];
+        final double[] closestPoint = new double[2];
+
+        // Measurements of the thread using the state
+        final Profiler.Recorder recorder;
+
+        SteeringState(int particleCount) {
+            this(particleCount, new Profiler.Recorder());
+        }
 
-            // Computing forces
-            wallForce = this.computeWallAvoidanceForce();
-            goalForce = this.mainParticle.getGoalForce(this.goal);
+        SteeringState(int particleCount, Profiler.Recorder recorder) {
+            this.candidates = new int[particleCount];
+            this.recorder = recorder;
+        }
 
-            // Compute closest collisions
-            closestCollisions = this.computeClosestParticles(wallForce, goalForce);
+        void evaluateAt(PredictiveCollisionAvoidance simulation, int agent, double x, double y, double vx, double vy, double offset) {
+            this.simulation = simulation;
+            this.agent = agent;
+            this.x = x;
+            this.y = y;
+            this.vx = vx;
+            this.vy = vy;
+            this.offset = offset;
+        }
 
-            // Compute avoidance maneuvers
-            avoidanceManeuvers = this.computeAvoidanceManeuvers(closestCollisions);
+        @Override
+        public double[] accelerate(double x, double y, double vx, double vy, double offset) {
+            return this.simulation.computeStageAcceleration(this.agent, this, x, y, vx, vy, offset);
+        }
 
-            // Compute total avoidance force
-            avoidanceForce = this.computeTotalAvoidanceForce(avoidanceManeuvers);
+        @Override
+        public double[] stage() {
+            return this.stage;
+        }
+    }
 
-            // Updating the main particle
-            this.updateMainParticle(avoidanceForce, wallForce, goalForce);
+    /////////////////////////////////////////////////////////////////////////////////////
+    //                                 STEP SIZE
+    /////////////////////////////////////////////////////////////////////////////////////
 
-            // Updating the other particles
-            this.updateObstacleParticles();
+    /**
+     * Computes the size of the next step from the limits of the agents still walking, within the bounds
+     */
+    private double computeStepSize() {
+        double size = this.maxStepSize;
+        for (int i = 0; i < this.agentCount; i++) {
+            if (!this.retired[i]) {
+                size = Math.min(size, this.stepLimit[i]);
+            }
+        }
+        return Math.max(size, this.minStepSize);
+    }
 
-            // Checking if the main particle reached the goal
-            this.reachedGoal = this.checkIfReachedGoal();
+    /**
+     * Computes the largest step the agent allows, as the tolerance times the shortest of the time to its closest
+     * predicted collision, the times it needs to reach the nearest wall and its goal at its current speed and
+     * the time its acceleration needs to change its velocity by its maximum speed.
+     * A collision predicted at time 0 means the agent is already within its comfort radius, then only the acceleration limits the step.
+     *
+     * @param agent         index of the agent
+     * @param wallClearance distance from the agent to the nearest wall
+     * @return largest step for the agent
+     */
+    private double computeStepLimit(int agent, double wallClearance) {
+        ParticleStore s = this.store;
+        double timeScale = Double.POSITIVE_INFINITY;
+        if (this.collisionTime[agent] != ParticleStore.NO_COLLISION && this.collisionTime[agent] > 0) {
+            timeScale = this.collisionTime[agent];
+        }
 
-            // Updating the time
-            this.totalTime += this.dt;
+        // The acceleration after clamping to the maximum speed, the goal force alone grows with the distance to the goal
+        double dvx = s.nextVx.get(agent) - s.vx.get(agent);
+        double dvy = s.nextVy.get(agent) - s.vy.get(agent);
+        double acceleration = Math.sqrt(dvx * dvx + dvy * dvy) / this.stepSize;
+        if (acceleration > 0) {
+            timeScale = Math.min(timeScale, s.maxSpeed.get(agent) / acceleration);
         }
 
-        // In case the program is stuck, forcing it to stop
-        if (this.totalTime >= TIME_LIMIT){
-            System.out.println("Forced stopped the program, time limit reached");
-            System.exit(1);
+        double speed = Math.sqrt(s.vx.get(agent) * s.vx.get(agent) + s.vy.get(agent) * s.vy.get(agent));
+        if (speed > 0) {
+            double dx = this.goalX[agent] - s.x.get(agent);
+            double dy = this.goalY[agent] - s.y.get(agent);
+            double goalDistance = Math.sqrt(dx * dx + dy * dy) - s.radius.get(agent);
+            timeScale = Math.min(timeScale, Math.max(wallClearance, 0) / speed);
+            timeScale = Math.min(timeScale, Math.max(goalDistance, 0) / speed);
         }
 
-        return this.results;
+        return this.stepTolerance * timeScale;
     }
 
     /////////////////////////////////////////////////////////////////////////////////////
@@ -147,218 +1133,707 @@ public class PredictiveCollisionAvoidance {
      * Computes the force applied to the particles by the walls in order
      * to avoid collisions with them and remain at a safe distance.
      *
-     * @return vector with the resulting force applied to the particle
+     * @param agent index of the particle the walls apply the force to
+     * @param state where the resulting force applied to the particle is stored
      */
-    private Vector2D computeWallAvoidanceForce() {
+    private void computeWallAvoidanceForce(int agent, SteeringState state) {
+        double radius = this.store.radius.get(agent);
 
-        // Minimum distance to the walls
-        final double[] dw = new double[]{
-                this.areaHeight - this.mainParticle.getPosition().getY(),
-                this.mainParticle.getPosition().getY(),
-                this.mainParticle.getPosition().getX(),
-                areaWidth - this.mainParticle.getPosition().getX()
-        };
+        // Summing up the force each wall applies to the particle
+        double clearance = computeAreaWallForce(state.x, state.y, radius, this.safeWallDistance, this.areaWidth, this.areaHeight, state.force);
+        double totalForceX = state.force[0], totalForceY = state.force[1];
 
-        Vector2D totalForce = Vector2D.ZERO;
+        // Summing up the force of the segments of the geometry, each one pushing away from its closest point
+        if (this.geometry != null) {
+            if (state.segments.length < this.geometry.getSegmentCount()) {
+                state.segments = new int[this.geometry.getSegmentCount()];
+            }
+            double x = state.x, y = state.y;
+            int count = this.geometry.querySegments(x, y, radius + this.safeWallDistance, state.segments, state.closestPoint);
+            for (int k = 0; k < count; k++) {
+                double dw = this.geometry.getClosestPoint(state.segments[k], x, y, state.closestPoint);
+                clearance = Math.min(clearance, dw - radius);
+                if (dw - radius >= this.safeWallDistance || dw == 0) {
+                    continue;
+                }
 
-        // Summing up the force each wall applies to the particle
+                double scalar = getWallForceScalar(this.safeWallDistance, radius, dw);
+                totalForceX += (x - state.closestPoint[0]) / dw * scalar;
+                totalForceY += (y - state.closestPoint[1]) / dw * scalar;
+            }
+
+            // The step size needs the closest segment even beyond the safe distance
+            if (this.adaptiveStepping) {
+                clearance = this.getGeometryClearance(agent, x, y, clearance, state.closestPoint);
+            }
+        }
+
+        state.wallForceX = totalForceX;
+        state.wallForceY = totalForceY;
+        state.wallClearance = clearance;
+    }
+
+    /**
+     * Sums up the force the walls of the area apply to a particle at the given point, only the walls closer than
+     * the safe distance push it
+     *
+     * @param radius radius of the particle
+     * @param force  where x and y of the force are stored
+     * @return distance from the border of the particle to the nearest wall
+     */
+    static double computeAreaWallForce(double x, double y, double radius, double safeWallDistance, double areaWidth, double areaHeight, double[] force) {
+        double totalForceX = 0, totalForceY = 0;
+        double clearance = Double.POSITIVE_INFINITY;
         for (int i = 0; i < WALLS; i++) {
-            Vector2D wallForce = (dw[i] - this.mainParticle.getRadius() >= this.safeWallDistance)
-                    ? Vector2D.ZERO
-                    : NW[i].scalarMultiply(this.getWallForceScalar(dw[i]));
+            double dw = getWallDistance(x, y, i, areaWidth, areaHeight);
+            clearance = Math.min(clearance, dw - radius);
+
+            // Walls farther than the safe distance apply no force
+            if (dw - radius >= safeWallDistance) {
+                continue;
+            }
 
-            totalForce = totalForce.add(wallForce);
+            double scalar = getWallForceScalar(safeWallDistance, radius, dw);
+            totalForceX += NW_X[i] * scalar;
+            totalForceY += NW_Y[i] * scalar;
         }
+        force[0] = totalForceX;
+        force[1] = totalForceY;
+        return clearance;
+    }
 
-        return totalForce;
+    /**
+     * Minimum distance from a point to the given wall, being top, bottom, left and right
+     *
+     * @param x    x coordinate of the point
+     * @param y    y coordinate of the point
+     * @param wall index of the wall
+     * @return distance to the wall
+     */
+    private static double getWallDistance(double x, double y, int wall, double areaWidth, double areaHeight) {
+        switch (wall) {
+            case 0:
+                return areaHeight - y;
+            case 1:
+                return y;
+            case 2:
+                return x;
+            default:
+                return areaWidth - x;
+        }
     }
 
     /**
      * Calculating the wall avoidance force scalar
+     * @param radius radius of the particle the wall applies the force to
      * @param dw distance to the wall
      * @return double with the magnitude of the force
      */
-    private double getWallForceScalar(double dw) {
-        return (this.safeWallDistance + this.mainParticle.getRadius() - dw) / Math.pow(dw - this.mainParticle.getRadius(), K_STEEPNESS);
+    private static double getWallForceScalar(double safeWallDistance, double radius, double dw) {
+        return (safeWallDistance + radius - dw) / Math.pow(dw - radius, K_STEEPNESS);
     }
 
     /**
-     * Computes the closest particles to the main particle, computing also the desired velocity
-     * @param wf Wall avoidance force
-     * @param gf Goal driving force
-     * @return List of pairs containing the time to collide and the particle involved
+     * Computes the force driving the agent to its goal, based on its preferred speed
+     *
+     * @param agent index of the particle
+     * @param state where the resulting force is stored
+     */
+    private void computeGoalForce(int agent, SteeringState state) {
+        computeGoalForce(this.store, agent, this.goalX[agent], this.goalY[agent], state.x, state.y, state.vx, state.vy, state.force);
+        state.goalForceX = state.force[0];
+        state.goalForceY = state.force[1];
+    }
+
+    /**
+     * Computes the force driving an agent at the given state to its goal, based on its preferred speed
+     *
+     * @param agent index of the particle
+     * @param force where x and y of the force are stored
+     */
+    static void computeGoalForce(ParticleStore s, int agent, double goalX, double goalY, double x, double y, double vx, double vy, double[] force) {
+        double nx = goalX - x;
+        double ny = goalY - y;
+        double inverseTime = 1 / s.pSpeedTime.get(agent);
+
+        force[0] = inverseTime * (s.preferredSpeed.get(agent) * nx - vx);
+        force[1] = inverseTime * (s.preferredSpeed.get(agent) * ny - vy);
+    }
+
+    /**
+     * Computes the closest particles to the agent, computing also the desired velocity.
+     * Only the obstacles the agent can reach within its anticipation time are tested, a collision
+     * before that time needs the obstacle to be closer than the comfort radius plus the obstacle radius,
+     * plus the distance both of them can travel.
+     * @param agent index of the particle looking for collisions
+     * @param state forces applied to the agent, where the closest collisions are stored
+     */
+    private void computeClosestParticles(int agent, SteeringState state) {
+        ParticleStore s = this.store;
+        double reach = this.computeReach(agent, state);
+
+        // Retrieving the obstacles close enough, at a later stage they may have moved into the reach since the index was updated
+        int[] candidates = state.candidates;
+        double drift = 0;
+        if (state.offset != 0) {
+            drift = state.offset * this.maxObstacleSpeed;
+            reach = reach + drift;
+            drift = drift + Math.sqrt((state.x - s.x.get(agent)) * (state.x - s.x.get(agent)) + (state.y - s.y.get(agent)) * (state.y - s.y.get(agent)));
+        }
+        int candidateCount;
+        if (this.neighbourLists != null) {
+            candidateCount = this.collectListedObstacles(agent, state, reach, candidates);
+        } else if (this.activationQueue != null && reach + drift <= this.activationRadius) {
+            candidateCount = this.collectActiveObstacles(agent, candidates);
+        } else {
+            candidateCount = this.queryObstacles(state.x, state.y, reach, candidates);
+        }
+
+        selectClosest(s, agent, candidates, candidateCount, state.x, state.y, state.desiredVx, state.desiredVy, state.offset,
+                state.kernel, state.closest, state.recorder);
+    }
+
+    /**
+     * Keeps the closest collisions of an agent at the given state among the candidates, solving them in batches.
+     * The agent is not an obstacle to itself, so it is skipped if it is among them.
+     *
+     * @param candidates indexes of the obstacles tested
+     * @param count      amount of candidates
+     * @param offset     time the obstacles are moved by from their current positions
+     * @param kernel     kernel the candidates are gathered in
+     * @param closest    where the closest collisions are stored
+     * @param recorder   recorder counting the candidates and the collisions, null to not count them
      */
-    private List<MutablePair<Double, MutablePair<Double, Integer>>> computeClosestParticles(Vector2D wf, Vector2D gf) {
-        // TreeSet for ordered results
-        TreeSet<MutablePair<Double, MutablePair<Double, Integer>>> orderedCollisions = new TreeSet<>(TREESET_COMPARATOR);
+    static void selectClosest(ParticleStore s, int agent, int[] candidates, int count, double x, double y, double desiredVx, double desiredVy,
+                              double offset, CollisionKernel kernel, TopKSelector closest, Profiler.Recorder recorder) {
+        boolean profiled = Profiler.ENABLED && recorder != null;
+        closest.clear();
+        if (profiled) {
+            recorder.count(Profiler.Counter.CANDIDATES_TESTED, count);
+        }
+        int next = 0;
+        while (next < count) {
+            next = kernel.gather(s, candidates, next, count, agent, offset);
+            kernel.computeTimes(x, y, desiredVx, desiredVy, s.comfortRadius.get(agent), s.anticipationTime.get(agent));
+
+            // If the collision is present, keep it if it is one of the closest
+            for (int k = 0; k < kernel.count; k++) {
+                double time = kernel.times[k];
+                if (profiled && time != ParticleStore.NO_COLLISION) {
+                    recorder.count(Profiler.Counter.PREDICTED_COLLISIONS, 1);
+                }
+                if (time != ParticleStore.NO_COLLISION && closest.accepts(time)) {
+                    double dx = kernel.x[k] - x;
+                    double dy = kernel.y[k] - y;
+                    closest.offer(time, Math.sqrt(dx * dx + dy * dy), kernel.indexes[k]);
+                }
+            }
+        }
+    }
 
+    /**
+     * Computes and stores the desired velocity of the agent, and from it how far a colliding obstacle can be
+     *
+     * @param agent index of the particle looking for collisions
+     * @param state forces applied to the agent
+     * @return half side of the square around the agent where the colliding obstacles are
+     */
+    private double computeReach(int agent, SteeringState state) {
         // Computing and storing the desired velocity
-        Vector2D desiredVelocity = this.mainParticle.getVelocity().add(wf.add(gf).scalarMultiply(this.dt));
-        this.mainParticle.setDesiredVelocity(desiredVelocity);
+        double horizon = Double.isNaN(this.desiredVelocityHorizon) ? this.stepSize : this.desiredVelocityHorizon;
+        computeDesiredVelocity(state.vx, state.vy, horizon, state.wallForceX, state.wallForceY, state.goalForceX, state.goalForceY, state.force);
+        state.desiredVx = state.force[0];
+        state.desiredVy = state.force[1];
 
-        Particle p;
-        Optional<Double> col;
-        double distance;
-        for (int i = 1; i < this.particleCount; i++) {
-            p = this.particles.get(i);
+        // Computing how far a colliding obstacle can be
+        return computeReach(this.store, agent, state.desiredVx, state.desiredVy, this.maxObstacleRadius, this.maxObstacleSpeed);
+    }
+
+    /**
+     * Computes the velocity an agent reaches after the horizon with only the wall and goal forces applied
+     *
+     * @param desired where x and y of the desired velocity are stored
+     */
+    static void computeDesiredVelocity(double vx, double vy, double horizon, double wallForceX, double wallForceY, double goalForceX, double goalForceY,
+                                       double[] desired) {
+        desired[0] = vx + horizon * (wallForceX + goalForceX);
+        desired[1] = vy + horizon * (wallForceY + goalForceY);
+    }
 
-            // Calculating collisions
-            col = this.mainParticle.collisionIsNear(p);
+    /**
+     * Computes how far from an agent moving with its desired velocity an obstacle can be and still collide with it
+     * within its anticipation time: its comfort radius plus the obstacle radius, plus the distance both can travel
+     *
+     * @param maxObstacleRadius radius of the largest obstacle
+     * @param maxObstacleSpeed  speed of the fastest obstacle
+     * @return half side of the square around the agent where the colliding obstacles are
+     */
+    static double computeReach(ParticleStore s, int agent, double desiredVx, double desiredVy, double maxObstacleRadius, double maxObstacleSpeed) {
+        double desiredSpeed = Math.sqrt(desiredVx * desiredVx + desiredVy * desiredVy);
+        double reach = s.comfortRadius.get(agent) + maxObstacleRadius + (desiredSpeed + maxObstacleSpeed) * s.anticipationTime.get(agent);
+        return reach + REACH_TOLERANCE * (1 + reach);
+    }
 
-            // If the collision is present, add the pair
-            if (col.isPresent()) {
-                distance = p.getPosition().subtract(this.mainParticle.getPosition()).getNorm();
-                orderedCollisions.add(new MutablePair<>(col.get(), new MutablePair<>(distance, i)));
+    /**
+     * Collects the active obstacles, first activating the queued ones that are due and are close enough,
+     * and deactivating the active ones that got far, queuing them until they could be close enough again.
+     * The desired speed of the agent is not bounded, so it is only used while the reach fits in the activation radius.
+     *
+     * @param agent      index of the main particle
+     * @param candidates buffer where the indexes of the active obstacles are stored
+     * @return amount of active obstacles
+     */
+    private int collectActiveObstacles(int agent, int[] candidates) {
+        ActivationQueue queue = this.activationQueue;
+        double enter = this.activationRadius + this.activationSkin;
+        double leave = enter + this.activationSkin;
+
+        // Waking the obstacles that could have got close enough
+        while (queue.hasDue(this.totalTime)) {
+            int j = queue.poll();
+            double distance = this.getObstacleDistance(agent, j);
+            if (distance <= enter) {
+                queue.activate(j);
+            } else {
+                queue.schedule(j, this.totalTime + (distance - enter) / this.closingSpeed);
             }
         }
 
-        return orderedCollisions.stream().limit(OBSTACLE_LIMIT).collect(Collectors.toCollection(LIST_SUPPLIER));
+        // Keeping the obstacles that are still close enough
+        int count = 0;
+        int k = 0;
+        while (k < queue.getActiveCount()) {
+            int j = queue.getActive(k);
+            double distance = this.getObstacleDistance(agent, j);
+            if (distance > leave) {
+                queue.deactivate(k);
+                queue.schedule(j, this.totalTime + (distance - enter) / this.closingSpeed);
+                continue;
+            }
+            candidates[count++] = j;
+            k++;
+        }
+        return count;
     }
 
     /**
-     * Computes the possible avoidance maneuvers given a list of sorted possible collisions
+     * Collects the obstacles of the list of the agent, rebuilding it with the spatial index if it may be missing an
+     * obstacle within the reach. The lists are only rebuilt at the current state of the agent, a later stage of the
+     * integrator outside of the list searches the index instead.
      *
-     * @param particlesToCollide list of MutablePairs being the time in left and the particle index in right
-     * @return a List of Vector2 with the force for each collision
+     * @param agent      index of the agent
+     * @param state      state the forces are evaluated at
+     * @param reach      half side of the square around the state where the colliding obstacles are
+     * @param candidates buffer where the indexes of the obstacles are stored
+     * @return amount of obstacles
      */
-    private List<Vector2D> computeAvoidanceManeuvers(List<MutablePair<Double, MutablePair<Double, Integer>>> particlesToCollide) {
-        // List of avoidance maneuver forces
-        List<Vector2D> forces = new ArrayList<>(particlesToCollide.size());
+    private int collectListedObstacles(int agent, SteeringState state, double reach, int[] candidates) {
+        NeighbourLists lists = this.neighbourLists;
+        boolean reused = lists.covers(agent, state.x, state.y, reach);
+        if (!reused) {
+            if (state.offset != 0) {
+                return this.queryObstacles(state.x, state.y, reach, candidates);
+            }
+            double radius = reach + lists.getSkin();
+            lists.rebuild(agent, state.x, state.y, radius, candidates, this.queryObstacles(state.x, state.y, radius, candidates));
+        }
+
+        // Agents that reached their goal since the list was built are not obstacles anymore
+        ParticleStore s = this.store;
+        int count = 0;
+        int withinReach = 0;
+        for (int k = 0; k < lists.getSize(agent); k++) {
+            int j = lists.get(agent, k);
+            if (!this.isObstacle(j)) {
+                continue;
+            }
+            candidates[count++] = j;
+            if (Math.abs(s.x.get(j) - state.x) <= reach && Math.abs(s.y.get(j) - state.y) <= reach) {
+                withinReach++;
+            }
+        }
+        if (state.offset == 0) {
+            lists.record(agent, reused, count, withinReach);
+        }
+        return count;
+    }
 
-        // Future positions of each particle
-        Vector2D ci, cj;
+    /**
+     * Distance between the centers of the agent and an obstacle at the current time
+     */
+    private double getObstacleDistance(int agent, int j) {
+        if (this.obstacleMotion != null) {
+            this.obstacleMotion.evaluate(j, this.totalTime, this.store);
+        }
+        double dx = this.store.x.get(j) - this.store.x.get(agent);
+        double dy = this.store.y.get(j) - this.store.y.get(agent);
+        return Math.sqrt(dx * dx + dy * dy);
+    }
 
-        // Other particle to calculate collision
-        Particle other;
+    /**
+     * Computes the avoidance maneuver for each of the closest collisions, and the total avoidance force
+     * as their weighted sum
+     *
+     * @param agent index of the particle avoiding the collisions
+     * @param state closest collisions, where the total avoidance force is stored
+     */
+    private void computeTotalAvoidanceForce(int agent, SteeringState state) {
+        computeAvoidanceForce(this.store, state.closest, this.weights[state.closest.size()], this.D_MIN, this.store.radius.get(agent),
+                state.x, state.y, state.desiredVx, state.desiredVy, state.offset, state.force);
+        state.avoidanceForceX = state.force[0];
+        state.avoidanceForceY = state.force[1];
+    }
 
-        // D parameter calculated
-        double d, fd;
+    /**
+     * Sums up the avoidance maneuvers of the closest collisions of an agent, weighted by their order
+     *
+     * @param closest closest collisions of the agent
+     * @param weights weight of each collision
+     * @param dmin    minimum distance of the force module
+     * @param radius  radius of the agent
+     * @param offset  time the obstacles are moved by from their current positions
+     * @param force   where x and y of the total avoidance force are stored
+     */
+    static void computeAvoidanceForce(ParticleStore s, TopKSelector closest, double[] weights, double dmin, double radius,
+                                      double x, double y, double desiredVx, double desiredVy, double offset, double[] force) {
+        // Total force to be returned
+        double totalForceX = 0, totalForceY = 0;
 
         // Iterate each possible collision
-        for (MutablePair<Double, MutablePair<Double, Integer>> col : particlesToCollide) {
-            other = this.particles.get(col.right.right);
+        for (int k = 0; k < closest.size(); k++) {
+            int other = closest.getIndex(k);
+            double time = closest.getTime(k);
 
-            // Calculating future positions
-            ci = this.mainParticle.getDesiredVelocity().scalarMultiply(col.left).add(this.mainParticle.getPosition());
-            cj = other.getVelocity().scalarMultiply(col.left).add(other.getPosition());
+            // Calculating future positions, the obstacles are moved by the offset of the stage too
+            double cix = time * desiredVx + x;
+            double ciy = time * desiredVy + y;
+            double cjx = (offset + time) * s.vx.get(other) + s.x.get(other);
+            double cjy = (offset + time) * s.vy.get(other) + s.y.get(other);
 
             // Calculating D parameter
-            d = ci.subtract(this.mainParticle.getPosition()).getNorm() + (ci.subtract(cj).getNorm() - this.mainParticle.getRadius() - other.getRadius());
+            double dix = cix - x;
+            double diy = ciy - y;
+            double dx = cix - cjx;
+            double dy = ciy - cjy;
+            double norm = Math.sqrt(dx * dx + dy * dy);
+            double d = Math.sqrt(dix * dix + diy * diy) + (norm - radius - s.radius.get(other));
 
             // Calculating the force module
-            fd = this.computeForceModule(d);
-            
-            // Adding the force to the list, using the direction
-            forces.add(ci.subtract(cj).normalize().scalarMultiply(fd));
+            double fd = computeForceModule(d, dmin);
+
+            // Adding the weighted force, using the direction
+            double inverseNorm = norm == 0 ? 0 : 1 / norm;
+            totalForceX += weights[k] * (fd * (inverseNorm * dx));
+            totalForceY += weights[k] * (fd * (inverseNorm * dy));
         }
-        return forces;
+
+        force[0] = totalForceX;
+        force[1] = totalForceY;
+    }
+
+    /**
+     * Computes the next velocity and position of an agent given the forces, without modifying its current state
+     * @param agent index of the particle being moved
+     * @param state forces applied to the agent
+     */
+    private void computeNextState(int agent, SteeringState state) {
+        computeNextState(this.store, agent, this.integrator, state, this.stepSize, state.avoidanceForceX, state.avoidanceForceY,
+                state.wallForceX, state.wallForceY, state.goalForceX, state.goalForceY, state.next);
     }
 
     /**
-     * Computes the total avoidance force given a list of maneuver forces to be applied
+     * Computes the next velocity and position of an agent given the forces, without modifying its current state
      *
-     * @param maneuvers List of forces to be applied
-     * @return a total force calculated as the weighted sum
+     * @param agent      index of the particle being moved
+     * @param integrator integrator of the step
+     * @param dynamics   forces at the later stages of the integrator, see {@link Integrator.Dynamics}
+     * @param next       buffer of at least 4 values for the state being integrated
+     */
+    static void computeNextState(ParticleStore s, int agent, Integrator integrator, Integrator.Dynamics dynamics, double stepSize,
+                                 double avoidanceForceX, double avoidanceForceY, double wallForceX, double wallForceY,
+                                 double goalForceX, double goalForceY, double[] next) {
+        // Computing the agent next velocity and position, its speed is kept under its maximum
+        double forceX = avoidanceForceX + wallForceX + goalForceX;
+        double forceY = avoidanceForceY + wallForceY + goalForceY;
+        next[0] = s.x.get(agent);
+        next[1] = s.y.get(agent);
+        next[2] = s.vx.get(agent);
+        next[3] = s.vy.get(agent);
+        integrator.integrate(dynamics, stepSize, s.maxSpeed.get(agent), next, forceX, forceY);
+
+        s.nextX.set(agent, next[0]);
+        s.nextY.set(agent, next[1]);
+        s.nextVx.set(agent, next[2]);
+        s.nextVy.set(agent, next[3]);
+    }
+
+    /**
+     * Moves the agents to the state computed while steering and updates the position of the obstacle particles,
+     * and if necessary, it reverses the velocity on wall collision. Agents that reached their goal stop there
+     * and are removed from the index, as they left the area.
+     * The obstacle grid is kept up to date with the new positions.
      */
-    private Vector2D computeTotalAvoidanceForce(List<Vector2D> maneuvers) {
-        // Computing the weights
-        List<Double> weights = this.computeWeights(maneuvers.size());
+    private void updateParticles() {
+        ParticleStore s = this.store;
 
-        // Total force to be returned
-        Vector2D totalForce = Vector2D.ZERO;
+        // Obstacles with a closed form motion are only moved when they are evaluated
+        if (this.obstacleMotion != null) {
+            s.commitNextState(MAIN_PARTICLE_ID);
+            return;
+        }
+
+        double maxSpeed = 0;
+        for (int i = 0; i < this.particleCount; i++) {
+            maxSpeed = Math.max(maxSpeed, this.updateParticle(i));
+        }
+        this.maxObstacleSpeed = maxSpeed;
+
+        // The obstacles keep their speed and the agents never move faster than their maximum speed
+        if (this.neighbourLists != null) {
+            this.neighbourLists.advance(this.stepSize * Math.max(maxSpeed, this.maxAgentSpeed));
+        }
 
-        // Compute the weighted sum
-        for (int i = 0; i < maneuvers.size(); i++) {
-            totalForce = totalForce.add(maneuvers.get(i).scalarMultiply(weights.get(i)));
+        // Contacts change the velocities of the obstacles for the next step, but not where they are in the index
+        if (this.obstacleContacts != null) {
+            this.resolveContacts();
         }
+    }
+
+    /**
+     * Resolves the contacts between the obstacles and updates the fastest obstacle speed with their new velocities.
+     * The activation queue scheduled the obstacles with the closing speed at that time, so if an obstacle got faster
+     * every obstacle is scheduled again.
+     */
+    private void resolveContacts() {
+        this.obstacleContacts.resolve(this.store, this.stepSize);
 
-        return totalForce;
+        double maxSpeed = 0;
+        for (int i = this.agentCount; i < this.particleCount; i++) {
+            maxSpeed = Math.max(maxSpeed, this.getSpeed(i));
+        }
+        this.maxObstacleSpeed = maxSpeed;
+        if (this.activationQueue != null && this.store.maxSpeed.get(MAIN_PARTICLE_ID) + maxSpeed > this.closingSpeed) {
+            this.scheduleObstacles();
+        }
     }
 
     /**
-     * Computes the total weights to be used, in case there are less than the limit of obstacles
+     * Moves a particle to its next state, see {@link #updateParticles()}
      *
-     * @param amountOfForces number of forces to average
-     * @return List with ordered weights
+     * @param i index of the particle
+     * @return speed of the particle if it is still an obstacle in the index, 0 otherwise
      */
-    private List<Double> computeWeights(int amountOfForces) {
-        List<Double> values = new ArrayList<>(amountOfForces);
+    double updateParticle(int i) {
+        ParticleStore s = this.store;
+        if (i < this.agentCount) {
+            // Agents that reached their goal left the area, they are no longer obstacles
+            if (this.retired[i]) {
+                return 0;
+            }
 
-        // Checking if no calculations are needed
-        if (amountOfForces == OBSTACLE_LIMIT) {
-            values.addAll(Arrays.asList(BASE_WEIGHTS));
-        } else {
-            // Compute the total weight to be redistributed
-            double valueToDistribute = 0;
-            for (int i = amountOfForces; i < BASE_WEIGHTS.length; i++) {
-                valueToDistribute += BASE_WEIGHTS[i];
+            s.commitNextState(i);
+            if (this.multiAgent && this.checkIfReachedGoal(i)) {
+                this.retired[i] = true;
+                s.setVelocity(i, 0, 0);
+                this.obstacleGrid.remove(i);
+                return 0;
             }
+        } else if (this.geometry != null) {
+            this.moveObstacle(i);
+        } else if (this.obstacleContacts != null) {
+            this.advanceCollidingObstacle(i);
+        } else {
+            advanceObstacle(s, i, this.stepSize, this.areaHeight);
+        }
 
-            // Equally redistribute among remaining
-            valueToDistribute /= amountOfForces;
+        // Moving the obstacle in the index
+        if (this.isObstacle(i)) {
+            this.obstacleGrid.update(i, s.x.get(i), s.y.get(i));
+            return this.getSpeed(i);
+        }
+        return 0;
+    }
 
-            // Insert new values to weights list
-            for (int i = 0; i < amountOfForces; i++) {
-                values.add(BASE_WEIGHTS[i] + valueToDistribute);
-            }
+    /**
+     * Moves an obstacle through the geometry, stopping it at its first contact with a segment and reflecting its
+     * velocity about the normal there, so it keeps its speed. The walls of the area then bounce it, see {@link #bounceOffArea(int)}.
+     *
+     * @param i index of the obstacle
+     */
+    private void moveObstacle(int i) {
+        ParticleStore s = this.store;
+        double dx = this.stepSize * s.vx.get(i), dy = this.stepSize * s.vy.get(i);
+        double contact = this.geometry.sweep(s.x.get(i), s.y.get(i), dx, dy, s.radius.get(i), this.contactNormal);
+        double nx = this.contactNormal[0], ny = this.contactNormal[1];
+        double normalSpeed = s.vx.get(i) * nx + s.vy.get(i) * ny;
+        if (contact != StaticGeometry.NO_CONTACT && normalSpeed < 0) {
+            s.x.set(i, s.x.get(i) + contact * dx);
+            s.y.set(i, s.y.get(i) + contact * dy);
+            s.vx.set(i, s.vx.get(i) - 2 * normalSpeed * nx);
+            s.vy.set(i, s.vy.get(i) - 2 * normalSpeed * ny);
+        } else {
+            s.x.set(i, s.x.get(i) + dx);
+            s.y.set(i, s.y.get(i) + dy);
+        }
+        this.bounceOffArea(i);
+    }
+
+    /**
+     * Moves an obstacle along its velocity for a step when the obstacles collide with each other, see {@link #bounceOffArea(int)}
+     *
+     * @param i index of the obstacle
+     */
+    private void advanceCollidingObstacle(int i) {
+        ParticleStore s = this.store;
+        s.x.set(i, this.stepSize * s.vx.get(i) + s.x.get(i));
+        s.y.set(i, this.stepSize * s.vy.get(i) + s.y.get(i));
+        this.bounceOffArea(i);
+    }
+
+    /**
+     * Bounces an obstacle off the walls of the area. Contacts give the obstacles a velocity along x, so with them
+     * the obstacles are reflected off the four walls, without them the top and bottom walls reverse their velocity
+     * as they always did, which keeps their trajectories the same.
+     *
+     * @param i index of the obstacle
+     */
+    private void bounceOffArea(int i) {
+        if (this.obstacleContacts != null) {
+            reflectOffWalls(this.store, i, this.areaWidth, this.areaHeight);
+        } else {
+            bounceOffWalls(this.store, i, this.areaHeight);
         }
-        return values;
     }
 
     /**
-     * Updates the main particle velocity and position given the forces
-     * @param af Avoidance force
-     * @param wf Wall avoidance force
-     * @param gf Goal driving force
+     * Moves an obstacle along its velocity for a step, reversing it if it reached the top or bottom wall
+     *
+     * @param i index of the obstacle
      */
-    private void updateMainParticle(Vector2D af, Vector2D wf, Vector2D gf) {
-        // Updating the main particles velocity
-        Vector2D forces = af.add(wf).add(gf);
-        this.mainParticle.updateVelocity(forces, this.dt);
+    static void advanceObstacle(ParticleStore s, int i, double stepSize, double areaHeight) {
+        // Update the positions
+        s.x.set(i, stepSize * s.vx.get(i) + s.x.get(i));
+        s.y.set(i, stepSize * s.vy.get(i) + s.y.get(i));
+        bounceOffWalls(s, i, areaHeight);
+    }
 
-        // Check if we are exceeding the max velocity
-        if (this.mainParticle.getVelocityNorm() > this.mainParticle.getMaxSpeed()){
-            this.mainParticle.setVelocity(this.mainParticle.getVelocity().normalize().scalarMultiply(this.mainParticle.getMaxSpeed()));
+    /**
+     * Reverses the velocity of an obstacle within its radius of the top or bottom wall
+     */
+    private static void bounceOffWalls(ParticleStore s, int i, double areaHeight) {
+        // Check top and bottom wall, if true, velocity should be reversed
+        if (Math.abs(s.y.get(i) - areaHeight) < s.radius.get(i) || s.y.get(i) < s.radius.get(i)) {
+            s.vx.set(i, -1 * s.vx.get(i));
+            s.vy.set(i, -1 * s.vy.get(i));
         }
+    }
 
-        // Updating main particles positions
-        this.mainParticle.updatePosition(this.dt);
+    /**
+     * Reflects the velocity of an obstacle within its radius of a wall and moving towards it, only flipping the
+     * component normal to that wall, so it keeps moving along the wall in the same direction
+     */
+    private static void reflectOffWalls(ParticleStore s, int i, double areaWidth, double areaHeight) {
+        double x = s.x.get(i), y = s.y.get(i), radius = s.radius.get(i);
+        double vx = s.vx.get(i), vy = s.vy.get(i);
+        if ((x < radius && vx < 0) || (x > areaWidth - radius && vx > 0)) {
+            s.vx.set(i, -1 * vx);
+        }
+        if ((y < radius && vy < 0) || (y > areaHeight - radius && vy > 0)) {
+            s.vy.set(i, -1 * vy);
+        }
     }
 
     /**
-     * Updates the position of the obstacle particles, and if necessary, it reverses the velocity on wall collision
+     * @return true if the particle is an obstacle for the agents, which agents stop being once they reach their goal
      */
-    private void updateObstacleParticles() {
-        for (Particle p : this.particles.values()) {
-            if (p.getId() > 0) {
-                // Update the positions
-                p.setPosition(p.getVelocity().scalarMultiply(this.dt).add(p.getPosition()));
+    boolean isObstacle(int i) {
+        return (this.multiAgent || i != MAIN_PARTICLE_ID) && !this.isRetired(i);
+    }
 
-                // Check top and bottom wall, if true, velocity should be reversed
-                if (Math.abs(p.getPosition().getY() - this.areaHeight) < p.getRadius() || p.getPosition().getY() < p.getRadius()) {
-                    p.setVelocity(p.getVelocity().scalarMultiply(-1));
-                }
-            }
+    /**
+     * @return true if the particle is an agent that reached its goal and left the area
+     */
+    boolean isRetired(int i) {
+        return i < this.agentCount && this.retired[i];
+    }
+
+    /**
+     * Collects the obstacles close to the given point with their closed form motion, leaving them at the current time.
+     * The index holds older positions, so the square is enlarged by the distance an obstacle could have moved since then,
+     * and once that is longer than a cell every obstacle is evaluated and the index refreshed.
+     */
+    private int queryMovingObstacles(double x, double y, double reach, int[] candidates) {
+        double drift = this.maxObstacleSpeed * (this.totalTime - this.indexTime);
+        if (drift > this.obstacleGrid.getCellSize()) {
+            this.refreshObstacles();
+            drift = 0;
+        }
+
+        int count = this.obstacleGrid.query(x, y, reach + drift, candidates);
+        for (int k = 0; k < count; k++) {
+            this.obstacleMotion.evaluate(candidates[k], this.totalTime, this.store);
+        }
+        return count;
+    }
+
+    /**
+     * Evaluates every obstacle with its closed form motion at the current time and moves them in the index
+     */
+    private void refreshObstacles() {
+        for (int i = 1; i < this.particleCount; i++) {
+            this.obstacleMotion.evaluate(i, this.totalTime, this.store);
+            this.obstacleGrid.update(i, this.store.x.get(i), this.store.y.get(i));
         }
+        this.indexTime = this.totalTime;
+    }
+
+    double getSpeed(int i) {
+        return Math.sqrt(this.store.vx.get(i) * this.store.vx.get(i) + this.store.vy.get(i) * this.store.vy.get(i));
     }
 
     /**
-     * Checks if the distance to the goal is within the main particles radius
+     * Checks if the simulation is over, which happens when the main particle reaches its goal,
+     * or when every agent did in multi agent mode
      */
     private boolean checkIfReachedGoal() {
-        double distanceToGoal = this.mainParticle.getPosition().subtract(goal).getNorm();
-        return distanceToGoal <= this.mainParticle.getRadius();
+        if (!this.multiAgent) {
+            return this.checkIfReachedGoal(MAIN_PARTICLE_ID);
+        }
+        for (boolean r : this.retired) {
+            if (!r) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks if the distance to the goal is within the agents radius
+     */
+    private boolean checkIfReachedGoal(int agent) {
+        return isAtGoal(this.store, agent, this.goalX[agent], this.goalY[agent]);
+    }
+
+    /**
+     * Checks if the distance from the agent to the given goal is within its radius
+     */
+    static boolean isAtGoal(ParticleStore s, int agent, double goalX, double goalY) {
+        double dx = s.x.get(agent) - goalX;
+        double dy = s.y.get(agent) - goalY;
+        double distanceToGoal = Math.sqrt(dx * dx + dy * dy);
+        return distanceToGoal <= s.radius.get(agent);
     }
 
     /**
      * Computes the f(D) function, the parameters are fixed and can be explored with this link:
      * https://www.desmos.com/calculator/rdw4w5iizh
-     * @param d D value to be used
+     * @param d    D value to be used
+     * @param dmin minimum distance, under it the force grows exponentially
      * @return magnitude of the force
      */
-    private double computeForceModule(double d) {
-        if (d < D_MIN) {
-            return AS * Math.exp(FORCE_MULTIPLIER * (D_MIN - d));
+    static double computeForceModule(double d, double dmin) {
+        if (d < dmin) {
+            return AS * Math.exp(FORCE_MULTIPLIER * (dmin - d));
         } else if (d < D_MID) {
             return AS;
         } else if (d < D_MAX) {
@@ -379,26 +1854,35 @@ public class PredictiveCollisionAvoidance {
      * @return new current index of results
      */
     private int checkAndStoreResults(int i) {
-        // Calculate the possible index to use
-        int target_index = (int) Math.floor(this.totalTime / (this.dt2));
+        Profiler.Recorder recorder = this.steeringState.recorder;
+        long time = Profiler.ENABLED ? System.nanoTime() : 0;
+
+        // Calculate the possible index to use, adaptive steps land exactly on the time of the next frame
+        int target_index = this.adaptiveStepping
+                ? (this.totalTime >= (i + 1) * this.dt2 ? i + 1 : i)
+                : (int) Math.floor(this.totalTime / (this.dt2));
         if (target_index > i) {
-            // Creating the data structure for the particles
-            double[][] particleData = new double[this.particleCount][4];
-            for (int j = 0; j < this.particleCount; j++) {
-                particleData[j][0] = this.particles.get(j).getPosition().getX();
-                particleData[j][1] = this.particles.get(j).getPosition().getY();
-                particleData[j][2] = this.particles.get(j).getVelocity().getX();
-                particleData[j][3] = this.particles.get(j).getVelocity().getY();
+            // Obstacles with a closed form motion are only up to date where they were evaluated
+            if (this.obstacleMotion != null) {
+                this.refreshObstacles();
             }
 
-            // Creating the pair for the output list
-            ImmutablePair<Double, double[][]> data = new ImmutablePair<>(this.totalTime, particleData);
+            if (Profiler.ENABLED) {
+                time = recorder.lap(Profiler.Phase.RESULT_STORAGE, time);
+            }
 
-            // Adding our data points to the results
-            this.results.add(data);
+            // Handing our data points to the sink
+            this.frameSink.accept(this.totalTime, this.store);
+            if (Profiler.ENABLED) {
+                recorder.lap(Profiler.Phase.OUTPUT_WRITING, time);
+                recorder.count(Profiler.Counter.FRAMES_STORED, 1);
+            }
 
             return target_index;
         }
+        if (Profiler.ENABLED) {
+            recorder.lap(Profiler.Phase.RESULT_STORAGE, time);
+        }
         return i;
     }
 }
@@ -0,0 +1,169 @@
+package pca;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+
+/**
+ * Measurements of one or more runs: the latency histogram, total and maximum time of every phase and the value of
+ * every counter. Summaries of several runs can be added together, and exported as JSON or CSV.
+ * Percentiles are taken from the histograms, so they are the upper bound of their power of 2 bucket.
+ */
+public final class ProfileSummary {
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        PROPERTIES
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    private static final String CSV_HEADER = "name,count,total_nanos,mean_nanos,p50_nanos,p99_nanos,max_nanos";
+
+    private final long[][] histograms = new long[Profiler.Phase.values().length][Profiler.BUCKETS];
+    private final long[] totals = new long[Profiler.Phase.values().length];
+    private final long[] maximums = new long[Profiler.Phase.values().length];
+    private final long[] counters = new long[Profiler.Counter.values().length];
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        GETTERS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * @return amount of times the phase was measured
+     */
+    public long getCount(Profiler.Phase phase) {
+        long count = 0;
+        for (long bucket : this.histograms[phase.ordinal()]) {
+            count += bucket;
+        }
+        return count;
+    }
+
+    public long getTotalNanos(Profiler.Phase phase) {
+        return totals[phase.ordinal()];
+    }
+
+    public long getMaxNanos(Profiler.Phase phase) {
+        return maximums[phase.ordinal()];
+    }
+
+    public double getMeanNanos(Profiler.Phase phase) {
+        long count = this.getCount(phase);
+        return count > 0 ? (double) this.totals[phase.ordinal()] / count : 0;
+    }
+
+    /**
+     * @param phase    measured phase
+     * @param quantile quantile between 0 and 1
+     * @return upper bound of the bucket holding the quantile, 0 if the phase was never measured
+     */
+    public long getPercentileNanos(Profiler.Phase phase, double quantile) {
+        long[] histogram = this.histograms[phase.ordinal()];
+        long target = (long) Math.ceil(quantile * this.getCount(phase));
+        long seen = 0;
+        for (int b = 0; b < histogram.length; b++) {
+            seen += histogram[b];
+            if (seen > 0 && seen >= target) {
+                return Math.min(bucketLimit(b), this.maximums[phase.ordinal()]);
+            }
+        }
+        return 0;
+    }
+
+    public long getCounter(Profiler.Counter counter) {
+        return counters[counter.ordinal()];
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        METHODS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Adds the measurements of another summary to this one
+     *
+     * @param other summary to be added
+     */
+    public synchronized void add(ProfileSummary other) {
+        synchronized (other) {
+            this.add(other.histograms, other.totals, other.maximums, other.counters);
+        }
+    }
+
+    synchronized void add(long[][] histograms, long[] totals, long[] maximums, long[] counters) {
+        for (int p = 0; p < this.totals.length; p++) {
+            for (int b = 0; b < Profiler.BUCKETS; b++) {
+                this.histograms[p][b] += histograms[p][b];
+            }
+            this.totals[p] += totals[p];
+            this.maximums[p] = Math.max(this.maximums[p], maximums[p]);
+        }
+        for (int c = 0; c < this.counters.length; c++) {
+            this.counters[c] += counters[c];
+        }
+    }
+
+    /**
+     * Writes the summary as a JSON object with the phases, including their non empty histogram buckets, and the counters
+     *
+     * @param writer where the summary is written
+     */
+    public synchronized void writeJson(Writer writer) throws IOException {
+        writer.write("{\n  \"phases\": {");
+        Profiler.Phase[] phases = Profiler.Phase.values();
+        for (int p = 0; p < phases.length; p++) {
+            Profiler.Phase phase = phases[p];
+            writer.write(p == 0 ? "\n" : ",\n");
+            writer.write("    \"" + name(phase) + "\": {\"count\": " + this.getCount(phase) + ", \"total_nanos\": " + this.getTotalNanos(phase)
+                    + ", \"mean_nanos\": " + format(this.getMeanNanos(phase)) + ", \"p50_nanos\": " + this.getPercentileNanos(phase, 0.5)
+                    + ", \"p99_nanos\": " + this.getPercentileNanos(phase, 0.99) + ", \"max_nanos\": " + this.getMaxNanos(phase) + ", \"histogram\": {");
+
+            // Buckets by their upper bound in nanoseconds
+            boolean first = true;
+            long[] histogram = this.histograms[phase.ordinal()];
+            for (int b = 0; b < histogram.length; b++) {
+                if (histogram[b] == 0) {
+                    continue;
+                }
+                writer.write((first ? "" : ", ") + "\"" + bucketLimit(b) + "\": " + histogram[b]);
+                first = false;
+            }
+            writer.write("}}");
+        }
+        writer.write("\n  },\n  \"counters\": {");
+        Profiler.Counter[] counterValues = Profiler.Counter.values();
+        for (int c = 0; c < counterValues.length; c++) {
+            writer.write(c == 0 ? "\n" : ",\n");
+            writer.write("    \"" + name(counterValues[c]) + "\": " + this.getCounter(counterValues[c]));
+        }
+        writer.write("\n  }\n}\n");
+    }
+
+    /**
+     * Writes the summary as CSV, a row for every phase followed by a row for every counter with its value as the count
+     *
+     * @param writer where the summary is written
+     */
+    public synchronized void writeCsv(Writer writer) throws IOException {
+        writer.write(CSV_HEADER);
+        writer.write('\n');
+        for (Profiler.Phase phase : Profiler.Phase.values()) {
+            writer.write(name(phase) + "," + this.getCount(phase) + "," + this.getTotalNanos(phase) + "," + format(this.getMeanNanos(phase)) + ","
+                    + this.getPercentileNanos(phase, 0.5) + "," + this.getPercentileNanos(phase, 0.99) + "," + this.getMaxNanos(phase) + "\n");
+        }
+        for (Profiler.Counter counter : Profiler.Counter.values()) {
+            writer.write(name(counter) + "," + this.getCounter(counter) + ",,,,,\n");
+        }
+    }
+
+    /**
+     * Upper bound of a histogram bucket, the bucket b holds the durations from 2^b to 2^(b+1) - 1 nanoseconds
+     */
+    private static long bucketLimit(int b) {
+        return b >= 62 ? Long.MAX_VALUE : (1L << (b + 1)) - 1;
+    }
+
+    private static String name(Enum<?> value) {
+        return value.name().toLowerCase(Locale.ROOT);
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.1f", value);
+    }
+}
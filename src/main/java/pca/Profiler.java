@@ -0,0 +1,96 @@
+package pca;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the phases of the simulation loop and counts the work done in them. Every thread records into its own
+ * recorder, without synchronization, and the recorders are merged into a summary once the run is over.
+ * Profiling is only enabled with the pca.profile system property, the flag is a constant so when it is disabled
+ * the measurements guarded by it are removed by the compiler.
+ */
+public final class Profiler {
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        PROPERTIES
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    public static final boolean ENABLED = Boolean.getBoolean("pca.profile");
+
+    /**
+     * Measured phases of the simulation loop
+     */
+    public enum Phase {
+        WALL_FORCE, GOAL_FORCE, CLOSEST_PARTICLES, MANEUVERS, INTEGRATION, OBSTACLE_UPDATE, RESULT_STORAGE, OUTPUT_WRITING
+    }
+
+    /**
+     * Counted events of the simulation loop
+     */
+    public enum Counter {
+        STEPS, CANDIDATES_TESTED, PREDICTED_COLLISIONS, FRAMES_STORED
+    }
+
+    // Latencies are kept in buckets of powers of 2 nanoseconds
+    static final int BUCKETS = 64;
+
+    private final List<Recorder> recorders = new ArrayList<>();
+
+    /**
+     * Measurements of a single thread
+     */
+    static final class Recorder {
+        final long[][] histograms = new long[Phase.values().length][BUCKETS];
+        final long[] totals = new long[Phase.values().length];
+        final long[] maximums = new long[Phase.values().length];
+        final long[] counters = new long[Counter.values().length];
+
+        /**
+         * Records the duration of a phase that started at the given time
+         *
+         * @param phase measured phase
+         * @param start value of System.nanoTime when the phase started
+         * @return value of System.nanoTime when the phase ended, the start of the next one
+         */
+        long lap(Phase phase, long start) {
+            long end = System.nanoTime();
+            long duration = Math.max(end - start, 0);
+            int p = phase.ordinal();
+            this.histograms[p][63 - Long.numberOfLeadingZeros(duration | 1)]++;
+            this.totals[p] += duration;
+            this.maximums[p] = Math.max(this.maximums[p], duration);
+            return end;
+        }
+
+        void count(Counter counter, long amount) {
+            this.counters[counter.ordinal()] += amount;
+        }
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        METHODS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Creates a recorder for a thread, merged in the summary with the rest
+     *
+     * @return recorder owned by the calling thread
+     */
+    synchronized Recorder createRecorder() {
+        Recorder recorder = new Recorder();
+        this.recorders.add(recorder);
+        return recorder;
+    }
+
+    /**
+     * Merges the measurements of every thread, it must not be called while the simulation is running
+     *
+     * @return summary of the measurements
+     */
+    public synchronized ProfileSummary summarize() {
+        ProfileSummary summary = new ProfileSummary();
+        for (Recorder recorder : this.recorders) {
+            summary.add(recorder.histograms, recorder.totals, recorder.maximums, recorder.counters);
+        }
+        return summary;
+    }
+}
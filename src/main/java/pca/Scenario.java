@@ -0,0 +1,223 @@
+package pca;
+
+/**
+ * Immutable initial configuration of a simulation: the area, the parameters shared by every particle
+ * and the initial state of each particle. Every simulation created from a scenario gets its own copy of the state,
+ * so a scenario can be shared between simulations running at the same time.
+ */
+public final class Scenario {
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        PROPERTIES
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    /* Anticipation time of the particles, the files do not have it */
+    public static final double ANTICIPATION_TIME = 4;
+
+    /* Area */
+    private final double width;
+    private final double height;
+
+    /* Parameters shared by every particle */
+    private final double comfortRadius;
+    private final double safeWallDistance;
+    private final double prefSpeed;
+    private final double prefTime;
+    private final double maxSpeed;
+    private final double dmin;
+    private final double anticipationTime;
+
+    /* Particles, indexed by id */
+    private final double[] radius;
+    private final double[] mass;
+    private final double[] x;
+    private final double[] y;
+    private final double[] vx;
+    private final double[] vy;
+
+    /* Goal of each particle, null if every particle uses the default goal */
+    private final double[] goalX;
+    private final double[] goalY;
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        CONSTRUCTORS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Creates a scenario, the arrays are copied and must have one value per particle
+     */
+    public Scenario(double width, double height, double comfortRadius, double safeWallDistance, double prefSpeed, double prefTime, double maxSpeed,
+                    double dmin, double anticipationTime, double[] radius, double[] mass, double[] x, double[] y, double[] vx, double[] vy) {
+        this(width, height, comfortRadius, safeWallDistance, prefSpeed, prefTime, maxSpeed, dmin, anticipationTime,
+                radius.clone(), mass.clone(), x.clone(), y.clone(), vx.clone(), vy.clone(), null, null);
+
+        int count = radius.length;
+        if (mass.length != count || x.length != count || y.length != count || vx.length != count || vy.length != count) {
+            throw new IllegalArgumentException("Every particle needs a radius, mass, position and velocity");
+        }
+    }
+
+    private Scenario(double width, double height, double comfortRadius, double safeWallDistance, double prefSpeed, double prefTime, double maxSpeed,
+                     double dmin, double anticipationTime, double[] radius, double[] mass, double[] x, double[] y, double[] vx, double[] vy,
+                     double[] goalX, double[] goalY) {
+        this.width = width;
+        this.height = height;
+        this.comfortRadius = comfortRadius;
+        this.safeWallDistance = safeWallDistance;
+        this.prefSpeed = prefSpeed;
+        this.prefTime = prefTime;
+        this.maxSpeed = maxSpeed;
+        this.dmin = dmin;
+        this.anticipationTime = anticipationTime;
+        this.radius = radius;
+        this.mass = mass;
+        this.x = x;
+        this.y = y;
+        this.vx = vx;
+        this.vy = vy;
+        this.goalX = goalX;
+        this.goalY = goalY;
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        GETTERS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    public double getWidth() {
+        return width;
+    }
+
+    public double getHeight() {
+        return height;
+    }
+
+    public double getComfortRadius() {
+        return comfortRadius;
+    }
+
+    public double getSafeWallDistance() {
+        return safeWallDistance;
+    }
+
+    public double getPrefSpeed() {
+        return prefSpeed;
+    }
+
+    public double getPrefTime() {
+        return prefTime;
+    }
+
+    public double getMaxSpeed() {
+        return maxSpeed;
+    }
+
+    public double getDmin() {
+        return dmin;
+    }
+
+    public double getAnticipationTime() {
+        return anticipationTime;
+    }
+
+    public int getParticleCount() {
+        return radius.length;
+    }
+
+    public double getRadius(int i) {
+        return radius[i];
+    }
+
+    public double getMass(int i) {
+        return mass[i];
+    }
+
+    public double getX(int i) {
+        return x[i];
+    }
+
+    public double getY(int i) {
+        return y[i];
+    }
+
+    public double getVx(int i) {
+        return vx[i];
+    }
+
+    public double getVy(int i) {
+        return vy[i];
+    }
+
+    public boolean hasGoals() {
+        return goalX != null;
+    }
+
+    /**
+     * Goal of the particle, NaN if it uses the default goal
+     */
+    public double getGoalX(int i) {
+        return goalX != null && i < goalX.length ? goalX[i] : Double.NaN;
+    }
+
+    /**
+     * Goal of the particle, NaN if it uses the default goal
+     */
+    public double getGoalY(int i) {
+        return goalY != null && i < goalY.length ? goalY[i] : Double.NaN;
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        METHODS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Creates a copy of the scenario with the given goals, particles after the end of the arrays use the default goal
+     *
+     * @param goalX x coordinate of the goal of each particle
+     * @param goalY y coordinate of the goal of each particle
+     * @return the new scenario
+     */
+    public Scenario withGoals(double[] goalX, double[] goalY) {
+        if (goalX.length != goalY.length) {
+            throw new IllegalArgumentException("Every goal needs both coordinates");
+        }
+        return new Scenario(width, height, comfortRadius, safeWallDistance, prefSpeed, prefTime, maxSpeed, dmin, anticipationTime,
+                radius, mass, x, y, vx, vy, goalX.clone(), goalY.clone());
+    }
+
+    /**
+     * Creates a copy of the scenario with another minimum distance for the avoidance force
+     *
+     * @param dmin new minimum distance
+     * @return the new scenario
+     */
+    public Scenario withDmin(double dmin) {
+        return new Scenario(width, height, comfortRadius, safeWallDistance, prefSpeed, prefTime, maxSpeed, dmin, anticipationTime,
+                radius, mass, x, y, vx, vy, goalX, goalY);
+    }
+
+    /**
+     * Creates a new store with the initial state of the particles
+     *
+     * @return the store
+     */
+    public ParticleStore createStore() {
+        return this.fillStore(new ParticleStore(this.getParticleCount()));
+    }
+
+    /**
+     * Sets the initial state of the particles in a store, which may be kept off the heap
+     *
+     * @param store store with room for exactly the particles of the scenario
+     * @return the same store
+     */
+    public ParticleStore fillStore(ParticleStore store) {
+        if (store.size() != this.getParticleCount()) {
+            throw new IllegalArgumentException("The store has room for " + store.size() + " particles, not " + this.getParticleCount());
+        }
+        for (int i = 0; i < this.getParticleCount(); i++) {
+            store.setConstants(i, radius[i], mass[i], comfortRadius, maxSpeed, prefSpeed, prefTime, anticipationTime);
+            store.setPosition(i, x[i], y[i]);
+            store.setVelocity(i, vx[i], vy[i]);
+        }
+        return store;
+    }
+}
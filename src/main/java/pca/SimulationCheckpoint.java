@@ -0,0 +1,443 @@
+package pca;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Full state of a simulation between two steps: the particles, the time, the index of the last stored frame,
+ * the goals and the options it runs with. Restoring it continues the simulation exactly as the original would have,
+ * and forking it continues it with another minimum distance and other weights, so a shared prefix is only simulated once.
+ * Observers, the frame sink and the profile are not part of the state.
+ * The binary format is a header with the version followed by big endian values, the arrays prefixed by their length.
+ * Version 2 adds the static geometry, version 3 the integrator, version 4 the neighbour lists and version 5 the contacts
+ * between the obstacles, older checkpoints are read as having no geometry, the semi-implicit Euler integrator with the
+ * default horizon of the desired velocity, no neighbour lists and obstacles passing through each other.
+ */
+public final class SimulationCheckpoint {
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        PROPERTIES
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    private static final int MAGIC = 0x50434143;
+    private static final int VERSION = 5;
+    private static final int VERSION_WITHOUT_CONTACTS = 4;
+    private static final int VERSION_WITHOUT_NEIGHBOUR_LISTS = 3;
+    private static final int VERSION_WITHOUT_INTEGRATOR = 2;
+    private static final int VERSION_WITHOUT_GEOMETRY = 1;
+
+    // Time
+    final double dt;
+    final double dt2;
+    final double totalTime;
+    final double stepSize;
+    final int frameIndex;
+
+    // Area and model
+    final double areaHeight;
+    final double areaWidth;
+    final double safeWallDistance;
+    final double dmin;
+    final double[] baseWeights;
+
+    // Agents
+    final boolean multiAgent;
+    final int threads;
+    final boolean reachedGoal;
+    final double[] goalX;
+    final double[] goalY;
+    final boolean[] retired;
+
+    // Adaptive stepping
+    final boolean adaptiveStepping;
+    final double minStepSize;
+    final double maxStepSize;
+    final double stepTolerance;
+    final Integrator integrator;
+    final double desiredVelocityHorizon;
+    final double[] stepLimit;
+
+    // Particles, only the state between steps
+    final double[] radius;
+    final double[] mass;
+    final double[] comfortRadius;
+    final double[] maxSpeed;
+    final double[] preferredSpeed;
+    final double[] pSpeedTime;
+    final double[] anticipationTime;
+    final double[] x;
+    final double[] y;
+    final double[] vx;
+    final double[] vy;
+
+    // Obstacle options, the skin is NaN without neighbour lists, the contact model null without contacts
+    // and the initial state of the obstacles is only kept with the closed form motion
+    final boolean activationQueue;
+    final double neighbourSkin;
+    final ObstacleContacts.Model contactModel;
+    final double contactStiffness;
+    final double[] motionX;
+    final double[] motionY;
+    final double[] motionVx;
+    final double[] motionVy;
+
+    // Walls inside the area, null if there are none
+    final StaticGeometry geometry;
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        CONSTRUCTORS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    SimulationCheckpoint(double dt, double dt2, double totalTime, double stepSize, int frameIndex, double areaHeight, double areaWidth, double safeWallDistance,
+                         double dmin, double[] baseWeights, boolean multiAgent, int threads, boolean reachedGoal, double[] goalX, double[] goalY, boolean[] retired,
+                         boolean adaptiveStepping, double minStepSize, double maxStepSize, double stepTolerance, Integrator integrator, double desiredVelocityHorizon, double[] stepLimit, ParticleStore store,
+                         boolean activationQueue, double neighbourSkin, ObstacleContacts.Model contactModel, double contactStiffness,
+                         double[][] motion, StaticGeometry geometry) {
+        this.dt = dt;
+        this.dt2 = dt2;
+        this.totalTime = totalTime;
+        this.stepSize = stepSize;
+        this.frameIndex = frameIndex;
+        this.areaHeight = areaHeight;
+        this.areaWidth = areaWidth;
+        this.safeWallDistance = safeWallDistance;
+        this.dmin = dmin;
+        this.baseWeights = baseWeights.clone();
+        this.multiAgent = multiAgent;
+        this.threads = threads;
+        this.reachedGoal = reachedGoal;
+        this.goalX = goalX.clone();
+        this.goalY = goalY.clone();
+        this.retired = retired.clone();
+        this.adaptiveStepping = adaptiveStepping;
+        this.minStepSize = minStepSize;
+        this.maxStepSize = maxStepSize;
+        this.stepTolerance = stepTolerance;
+        this.integrator = integrator;
+        this.desiredVelocityHorizon = desiredVelocityHorizon;
+        this.stepLimit = stepLimit.clone();
+        this.radius = store.radius.toArray();
+        this.mass = store.mass.toArray();
+        this.comfortRadius = store.comfortRadius.toArray();
+        this.maxSpeed = store.maxSpeed.toArray();
+        this.preferredSpeed = store.preferredSpeed.toArray();
+        this.pSpeedTime = store.pSpeedTime.toArray();
+        this.anticipationTime = store.anticipationTime.toArray();
+        this.x = store.x.toArray();
+        this.y = store.y.toArray();
+        this.vx = store.vx.toArray();
+        this.vy = store.vy.toArray();
+        this.activationQueue = activationQueue;
+        this.neighbourSkin = neighbourSkin;
+        this.contactModel = contactModel;
+        this.contactStiffness = contactStiffness;
+        this.motionX = motion != null ? motion[0] : null;
+        this.motionY = motion != null ? motion[1] : null;
+        this.motionVx = motion != null ? motion[2] : null;
+        this.motionVy = motion != null ? motion[3] : null;
+        this.geometry = geometry;
+    }
+
+    /**
+     * Reads a checkpoint written by {@link #write(OutputStream)}
+     *
+     * @param input stream with the checkpoint, it is not closed
+     */
+    private SimulationCheckpoint(DataInputStream input) throws IOException {
+        if (input.readInt() != MAGIC) {
+            throw new IOException("Not a simulation checkpoint");
+        }
+        int version = input.readInt();
+        if (version < VERSION_WITHOUT_GEOMETRY || version > VERSION) {
+            throw new IOException("Unsupported checkpoint version " + version);
+        }
+        this.dt = input.readDouble();
+        this.dt2 = input.readDouble();
+        this.totalTime = input.readDouble();
+        this.stepSize = input.readDouble();
+        this.frameIndex = input.readInt();
+        this.areaHeight = input.readDouble();
+        this.areaWidth = input.readDouble();
+        this.safeWallDistance = input.readDouble();
+        this.dmin = input.readDouble();
+        this.baseWeights = readDoubles(input);
+        this.multiAgent = input.readBoolean();
+        this.threads = input.readInt();
+        this.reachedGoal = input.readBoolean();
+        this.goalX = readDoubles(input);
+        this.goalY = readDoubles(input);
+        this.retired = readBooleans(input);
+        this.adaptiveStepping = input.readBoolean();
+        this.minStepSize = input.readDouble();
+        this.maxStepSize = input.readDouble();
+        this.stepTolerance = input.readDouble();
+        this.integrator = version > VERSION_WITHOUT_INTEGRATOR ? readIntegrator(input) : Integrator.SEMI_IMPLICIT_EULER;
+        this.desiredVelocityHorizon = version > VERSION_WITHOUT_INTEGRATOR ? input.readDouble() : Double.NaN;
+        this.stepLimit = readDoubles(input);
+        this.radius = readDoubles(input);
+        this.mass = readDoubles(input);
+        this.comfortRadius = readDoubles(input);
+        this.maxSpeed = readDoubles(input);
+        this.preferredSpeed = readDoubles(input);
+        this.pSpeedTime = readDoubles(input);
+        this.anticipationTime = readDoubles(input);
+        this.x = readDoubles(input);
+        this.y = readDoubles(input);
+        this.vx = readDoubles(input);
+        this.vy = readDoubles(input);
+        this.activationQueue = input.readBoolean();
+        this.neighbourSkin = version > VERSION_WITHOUT_NEIGHBOUR_LISTS ? input.readDouble() : Double.NaN;
+        if (this.neighbourSkin < 0) {
+            throw new IOException("Invalid checkpoint, negative skin of the neighbour lists");
+        }
+        this.contactModel = version > VERSION_WITHOUT_CONTACTS && input.readBoolean() ? readContactModel(input) : null;
+        this.contactStiffness = version > VERSION_WITHOUT_CONTACTS ? input.readDouble() : 0;
+        boolean motion = input.readBoolean();
+        this.motionX = motion ? readDoubles(input) : null;
+        this.motionY = motion ? readDoubles(input) : null;
+        this.motionVx = motion ? readDoubles(input) : null;
+        this.motionVy = motion ? readDoubles(input) : null;
+        this.geometry = version != VERSION_WITHOUT_GEOMETRY && input.readBoolean() ? readGeometry(input) : null;
+
+        // Checking every array matches the particles and agents
+        int particles = this.x.length;
+        int agents = this.multiAgent ? particles : 1;
+        for (double[] values : new double[][]{this.radius, this.mass, this.comfortRadius, this.maxSpeed, this.preferredSpeed, this.pSpeedTime,
+                this.anticipationTime, this.y, this.vx, this.vy}) {
+            checkLength(values.length, particles);
+        }
+        for (double[] values : new double[][]{this.goalX, this.goalY, this.stepLimit}) {
+            checkLength(values.length, agents);
+        }
+        checkLength(this.retired.length, agents);
+        if (motion) {
+            for (double[] values : new double[][]{this.motionX, this.motionY, this.motionVx, this.motionVy}) {
+                checkLength(values.length, particles);
+            }
+        }
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        GETTERS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    public double getDt() {
+        return dt;
+    }
+
+    public double getDt2() {
+        return dt2;
+    }
+
+    public double getTotalTime() {
+        return totalTime;
+    }
+
+    /**
+     * @return index of the last frame stored before the checkpoint, -1 if none was
+     */
+    public int getFrameIndex() {
+        return frameIndex;
+    }
+
+    public boolean hasReachedGoal() {
+        return reachedGoal;
+    }
+
+    public double getDmin() {
+        return dmin;
+    }
+
+    public double[] getBaseWeights() {
+        return baseWeights.clone();
+    }
+
+    public int getParticleCount() {
+        return x.length;
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        METHODS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Creates a simulation continuing from the checkpoint, every restored simulation is independent from the rest
+     *
+     * @return the simulation
+     */
+    public PredictiveCollisionAvoidance restore() {
+        return new PredictiveCollisionAvoidance(this, this.dmin, this.baseWeights);
+    }
+
+    /**
+     * Creates a simulation continuing from the checkpoint with another minimum distance and other weights
+     *
+     * @param dmin        minimum distance of the continuation
+     * @param baseWeights weights of the closest collisions of the continuation, from the closest one
+     * @return the simulation
+     */
+    public PredictiveCollisionAvoidance fork(double dmin, double[] baseWeights) {
+        return new PredictiveCollisionAvoidance(this, dmin, baseWeights);
+    }
+
+    /**
+     * Writes the checkpoint in its binary format
+     *
+     * @param output stream where the checkpoint is written, it is flushed but not closed
+     */
+    public void write(OutputStream output) throws IOException {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(output));
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeDouble(this.dt);
+        data.writeDouble(this.dt2);
+        data.writeDouble(this.totalTime);
+        data.writeDouble(this.stepSize);
+        data.writeInt(this.frameIndex);
+        data.writeDouble(this.areaHeight);
+        data.writeDouble(this.areaWidth);
+        data.writeDouble(this.safeWallDistance);
+        data.writeDouble(this.dmin);
+        writeDoubles(data, this.baseWeights);
+        data.writeBoolean(this.multiAgent);
+        data.writeInt(this.threads);
+        data.writeBoolean(this.reachedGoal);
+        writeDoubles(data, this.goalX);
+        writeDoubles(data, this.goalY);
+        writeBooleans(data, this.retired);
+        data.writeBoolean(this.adaptiveStepping);
+        data.writeDouble(this.minStepSize);
+        data.writeDouble(this.maxStepSize);
+        data.writeDouble(this.stepTolerance);
+        data.writeUTF(this.integrator.name());
+        data.writeDouble(this.desiredVelocityHorizon);
+        writeDoubles(data, this.stepLimit);
+        for (double[] values : new double[][]{this.radius, this.mass, this.comfortRadius, this.maxSpeed, this.preferredSpeed, this.pSpeedTime,
+                this.anticipationTime, this.x, this.y, this.vx, this.vy}) {
+            writeDoubles(data, values);
+        }
+        data.writeBoolean(this.activationQueue);
+        data.writeDouble(this.neighbourSkin);
+        data.writeBoolean(this.contactModel != null);
+        if (this.contactModel != null) {
+            data.writeUTF(this.contactModel.name());
+        }
+        data.writeDouble(this.contactStiffness);
+        data.writeBoolean(this.motionX != null);
+        if (this.motionX != null) {
+            for (double[] values : new double[][]{this.motionX, this.motionY, this.motionVx, this.motionVy}) {
+                writeDoubles(data, values);
+            }
+        }
+        data.writeBoolean(this.geometry != null);
+        if (this.geometry != null) {
+            data.writeInt(this.geometry.getChainCount());
+            for (int c = 0; c < this.geometry.getChainCount(); c++) {
+                data.writeBoolean(this.geometry.isClosed(c));
+                writeDoubles(data, this.geometry.getChain(c));
+            }
+        }
+        data.flush();
+    }
+
+    /**
+     * Reads a checkpoint in its binary format
+     *
+     * @param input stream with the checkpoint, it is not closed
+     * @return the checkpoint
+     * @throws IOException if the stream is not a checkpoint or it is truncated
+     */
+    public static SimulationCheckpoint read(InputStream input) throws IOException {
+        return new SimulationCheckpoint(new DataInputStream(new BufferedInputStream(input)));
+    }
+
+    /**
+     * Creates the store of a restored simulation, with the state of the particles
+     */
+    ParticleStore createStore() {
+        ParticleStore store = new ParticleStore(this.x.length);
+        for (int i = 0; i < this.x.length; i++) {
+            store.setConstants(i, this.radius[i], this.mass[i], this.comfortRadius[i], this.maxSpeed[i], this.preferredSpeed[i], this.pSpeedTime[i], this.anticipationTime[i]);
+            store.setPosition(i, this.x[i], this.y[i]);
+            store.setVelocity(i, this.vx[i], this.vy[i]);
+        }
+        return store;
+    }
+
+    private static void writeDoubles(DataOutputStream data, double[] values) throws IOException {
+        data.writeInt(values.length);
+        for (double value : values) {
+            data.writeDouble(value);
+        }
+    }
+
+    private static void writeBooleans(DataOutputStream data, boolean[] values) throws IOException {
+        data.writeInt(values.length);
+        for (boolean value : values) {
+            data.writeBoolean(value);
+        }
+    }
+
+    private static Integrator readIntegrator(DataInputStream input) throws IOException {
+        String name = input.readUTF();
+        try {
+            return Integrator.valueOf(name);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid checkpoint, unknown integrator " + name);
+        }
+    }
+
+    private static ObstacleContacts.Model readContactModel(DataInputStream input) throws IOException {
+        String name = input.readUTF();
+        try {
+            return ObstacleContacts.Model.valueOf(name);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid checkpoint, unknown contact model " + name);
+        }
+    }
+
+    private static StaticGeometry readGeometry(DataInputStream input) throws IOException {
+        int count = checkLength(input.readInt(), -1);
+        double[][] chains = new double[count][];
+        boolean[] closed = new boolean[count];
+        for (int c = 0; c < count; c++) {
+            closed[c] = input.readBoolean();
+            chains[c] = readDoubles(input);
+        }
+        try {
+            return new StaticGeometry(chains, closed);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid checkpoint geometry: " + e.getMessage());
+        }
+    }
+
+    private static double[] readDoubles(DataInputStream input) throws IOException {
+        double[] values = new double[checkLength(input.readInt(), -1)];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = input.readDouble();
+        }
+        return values;
+    }
+
+    private static boolean[] readBooleans(DataInputStream input) throws IOException {
+        boolean[] values = new boolean[checkLength(input.readInt(), -1)];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = input.readBoolean();
+        }
+        return values;
+    }
+
+    /**
+     * Checks a length read from a checkpoint, matching the expected one if it is not negative
+     */
+    private static int checkLength(int length, int expected) throws IOException {
+        if (length < 0 || (expected >= 0 && length != expected)) {
+            throw new IOException("Invalid checkpoint, unexpected length " + length);
+        }
+        return length;
+    }
+}
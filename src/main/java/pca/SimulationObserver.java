@@ -0,0 +1,31 @@
+package pca;
+
+/**
+ * Receives the state of a simulation after every dt step, so metrics can be computed while it runs
+ * instead of from the stored frames. Observers are called from the simulation thread, once every particle moved.
+ */
+public interface SimulationObserver {
+    /**
+     * Called with the initial state, before the first step
+     *
+     * @param simulation simulation being observed
+     */
+    default void onStart(PredictiveCollisionAvoidance simulation) {
+    }
+
+    /**
+     * Called after every step, the state of the particles is the one at the total time of the simulation
+     *
+     * @param simulation simulation being observed
+     */
+    void onStep(PredictiveCollisionAvoidance simulation);
+
+    /**
+     * Called once the simulation stopped
+     *
+     * @param simulation simulation being observed
+     * @param outcome    how the simulation ended
+     */
+    default void onFinish(PredictiveCollisionAvoidance simulation, SimulationOutcome outcome) {
+    }
+}
@@ -0,0 +1,11 @@
+package pca;
+
+/**
+ * How a simulation run ended
+ */
+public enum SimulationOutcome {
+    // Every agent reached its goal
+    REACHED_GOAL,
+    // The time limit was reached before the agents got to their goals
+    TIME_LIMIT
+}
@@ -0,0 +1,416 @@
+package pca;
+
+import java.util.Arrays;
+
+/**
+ * Walls inside the area, given as chains of segments: open chains are walls and closed ones are solid polygons,
+ * such as pillars. The segments are indexed in a uniform grid, each cell listing the segments whose bounding box
+ * touches it, so the queries only test the segments close to where they look, however many there are.
+ *
+ * A segment is in several cells, so the queries that collect segments only take each one from the cell holding its
+ * point closest to the query, which is always one of the cells they visit. Queries only read the geometry, so they
+ * can run concurrently as long as each one uses its own buffers.
+ */
+public final class StaticGeometry {
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        PROPERTIES
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    /* Returned by the sweeps that do not touch any segment */
+    public static final double NO_CONTACT = Double.POSITIVE_INFINITY;
+
+    /* Chains as given, kept to save the geometry */
+    private final double[][] chains;
+    private final boolean[] closed;
+
+    /* Segments from (ax, ay) to (bx, by), and whether they are part of a solid polygon */
+    private final double[] ax;
+    private final double[] ay;
+    private final double[] bx;
+    private final double[] by;
+    private final boolean[] solid;
+    private final int segmentCount;
+
+    /* Grid over the bounding box of the segments, the segments of cell c are cellSegments[cellStart[c]..cellStart[c + 1]) */
+    private final double minX;
+    private final double minY;
+    private final double cellSize;
+    private final int columns;
+    private final int rows;
+    private final int[] cellStart;
+    private final int[] cellSegments;
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        CONSTRUCTORS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Creates the geometry from chains of vertices
+     *
+     * @param chains x and y of the vertices of each chain, one after the other
+     * @param closed whether each chain is a solid polygon, its last vertex joined to the first one
+     */
+    public StaticGeometry(double[][] chains, boolean[] closed) {
+        if (chains.length != closed.length) {
+            throw new IllegalArgumentException("Every chain must be either open or closed");
+        }
+        this.chains = new double[chains.length][];
+        this.closed = closed.clone();
+
+        // Splitting the chains in segments
+        int count = 0;
+        for (int c = 0; c < chains.length; c++) {
+            int vertices = chains[c].length / 2;
+            if (chains[c].length % 2 != 0 || vertices < 2 || (closed[c] && vertices < 3)) {
+                throw new IllegalArgumentException("Chain " + c + " needs 2 coordinates per vertex, and 2 vertices or 3 if it is closed");
+            }
+            this.chains[c] = chains[c].clone();
+            count += closed[c] ? vertices : vertices - 1;
+        }
+        this.segmentCount = count;
+        this.ax = new double[count];
+        this.ay = new double[count];
+        this.bx = new double[count];
+        this.by = new double[count];
+        this.solid = new boolean[count];
+        int s = 0;
+        for (int c = 0; c < chains.length; c++) {
+            double[] v = chains[c];
+            int vertices = v.length / 2;
+            int segments = closed[c] ? vertices : vertices - 1;
+            for (int k = 0; k < segments; k++, s++) {
+                int next = (k + 1) % vertices;
+                this.ax[s] = v[2 * k];
+                this.ay[s] = v[2 * k + 1];
+                this.bx[s] = v[2 * next];
+                this.by[s] = v[2 * next + 1];
+                this.solid[s] = closed[c];
+            }
+        }
+
+        // Sizing the grid so there is roughly one segment per cell, and cells are not much shorter than the segments
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        double length = 0;
+        for (int i = 0; i < count; i++) {
+            minX = Math.min(minX, Math.min(this.ax[i], this.bx[i]));
+            minY = Math.min(minY, Math.min(this.ay[i], this.by[i]));
+            maxX = Math.max(maxX, Math.max(this.ax[i], this.bx[i]));
+            maxY = Math.max(maxY, Math.max(this.ay[i], this.by[i]));
+            length += Math.hypot(this.bx[i] - this.ax[i], this.by[i] - this.ay[i]);
+        }
+        double width = Math.max(maxX - minX, 0), height = Math.max(maxY - minY, 0);
+        double cellSize = Math.max(Math.sqrt(width * height / Math.max(count, 1)), length / Math.max(count, 1));
+        this.cellSize = Math.max(cellSize, Double.MIN_NORMAL);
+        this.minX = count > 0 ? minX : 0;
+        this.minY = count > 0 ? minY : 0;
+        this.columns = Math.max((int) Math.ceil(width / this.cellSize), 1);
+        this.rows = Math.max((int) Math.ceil(height / this.cellSize), 1);
+
+        // Counting the segments of each cell, then filling them in
+        this.cellStart = new int[this.columns * this.rows + 1];
+        for (int i = 0; i < count; i++) {
+            for (int row = this.getRow(Math.min(this.ay[i], this.by[i])); row <= this.getRow(Math.max(this.ay[i], this.by[i])); row++) {
+                for (int column = this.getColumn(Math.min(this.ax[i], this.bx[i])); column <= this.getColumn(Math.max(this.ax[i], this.bx[i])); column++) {
+                    this.cellStart[row * this.columns + column + 1]++;
+                }
+            }
+        }
+        for (int c = 0; c < this.columns * this.rows; c++) {
+            this.cellStart[c + 1] += this.cellStart[c];
+        }
+        this.cellSegments = new int[this.cellStart[this.columns * this.rows]];
+        int[] filled = Arrays.copyOf(this.cellStart, this.columns * this.rows);
+        for (int i = 0; i < count; i++) {
+            for (int row = this.getRow(Math.min(this.ay[i], this.by[i])); row <= this.getRow(Math.max(this.ay[i], this.by[i])); row++) {
+                for (int column = this.getColumn(Math.min(this.ax[i], this.bx[i])); column <= this.getColumn(Math.max(this.ax[i], this.bx[i])); column++) {
+                    this.cellSegments[filled[row * this.columns + column]++] = i;
+                }
+            }
+        }
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        GETTERS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    public int getChainCount() {
+        return chains.length;
+    }
+
+    /**
+     * @return x and y of the vertices of the chain, one after the other
+     */
+    public double[] getChain(int c) {
+        return chains[c].clone();
+    }
+
+    public boolean isClosed(int c) {
+        return closed[c];
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        QUERIES
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Computes the point of a segment closest to the given point
+     *
+     * @param segment index of the segment
+     * @param x       x coordinate of the point
+     * @param y       y coordinate of the point
+     * @param closest where the x and y of the closest point are stored
+     * @return distance from the point to the segment
+     */
+    public double getClosestPoint(int segment, double x, double y, double[] closest) {
+        double ex = this.bx[segment] - this.ax[segment], ey = this.by[segment] - this.ay[segment];
+        double lengthSquared = ex * ex + ey * ey;
+        double t = lengthSquared > 0 ? ((x - this.ax[segment]) * ex + (y - this.ay[segment]) * ey) / lengthSquared : 0;
+        t = Math.max(0, Math.min(1, t));
+        closest[0] = this.ax[segment] + t * ex;
+        closest[1] = this.ay[segment] + t * ey;
+        double dx = x - closest[0], dy = y - closest[1];
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /**
+     * Collects the segments within the given distance of the point, each one once
+     *
+     * @param x        x coordinate of the point
+     * @param y        y coordinate of the point
+     * @param reach    largest distance from the point to the segments
+     * @param segments buffer where the indexes of the segments are stored, sized for every segment
+     * @param closest  buffer for the closest points, of 2 values
+     * @return amount of segments stored in the buffer
+     */
+    public int querySegments(double x, double y, double reach, int[] segments, double[] closest) {
+        int count = 0;
+        int fromColumn = this.getColumn(x - reach), toColumn = this.getColumn(x + reach);
+        int fromRow = this.getRow(y - reach), toRow = this.getRow(y + reach);
+        for (int row = fromRow; row <= toRow; row++) {
+            for (int column = fromColumn; column <= toColumn; column++) {
+                int cell = row * this.columns + column;
+                for (int k = this.cellStart[cell]; k < this.cellStart[cell + 1]; k++) {
+                    int segment = this.cellSegments[k];
+                    if (this.getClosestPoint(segment, x, y, closest) <= reach
+                            && this.getColumn(closest[0]) == column && this.getRow(closest[1]) == row) {
+                        segments[count++] = segment;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Finds the segment closest to the point, searching farther each time until one is found
+     *
+     * @param x          x coordinate of the point
+     * @param y          y coordinate of the point
+     * @param maxReach   largest distance searched
+     * @param closest    buffer where the x and y of the closest point of the segment are stored
+     * @return index of the closest segment, -1 if none is within the reach
+     */
+    public int findClosestSegment(double x, double y, double maxReach, double[] closest) {
+        double reach = Math.min(this.cellSize, maxReach);
+        while (true) {
+            int best = -1;
+            double bestDistance = Double.POSITIVE_INFINITY, bestX = 0, bestY = 0;
+            int fromColumn = this.getColumn(x - reach), toColumn = this.getColumn(x + reach);
+            int fromRow = this.getRow(y - reach), toRow = this.getRow(y + reach);
+            for (int row = fromRow; row <= toRow; row++) {
+                for (int column = fromColumn; column <= toColumn; column++) {
+                    int cell = row * this.columns + column;
+                    for (int k = this.cellStart[cell]; k < this.cellStart[cell + 1]; k++) {
+                        int segment = this.cellSegments[k];
+                        double distance = this.getClosestPoint(segment, x, y, closest);
+                        if (distance < bestDistance || (distance == bestDistance && segment < best)) {
+                            best = segment;
+                            bestDistance = distance;
+                            bestX = closest[0];
+                            bestY = closest[1];
+                        }
+                    }
+                }
+            }
+
+            // Every segment within the reach was visited, so the closest one is only known if it is within it
+            if (best >= 0 && bestDistance <= reach) {
+                closest[0] = bestX;
+                closest[1] = bestY;
+                return best;
+            }
+            if (reach >= maxReach || fromColumn == 0 && fromRow == 0 && toColumn == this.columns - 1 && toRow == this.rows - 1) {
+                if (best >= 0 && bestDistance <= maxReach) {
+                    closest[0] = bestX;
+                    closest[1] = bestY;
+                    return best;
+                }
+                return -1;
+            }
+            reach = Math.min(reach * 2, maxReach);
+        }
+    }
+
+    /**
+     * Distance from the point to the closest segment, negative inside the solid polygons
+     *
+     * @param x        x coordinate of the point
+     * @param y        y coordinate of the point
+     * @param maxReach largest distance searched, returned if no segment is within it
+     * @param closest  buffer for the closest point, of 2 values
+     * @return signed distance to the geometry
+     */
+    public double getSignedDistance(double x, double y, double maxReach, double[] closest) {
+        int segment = this.findClosestSegment(x, y, maxReach, closest);
+        double distance = segment >= 0 ? Math.hypot(x - closest[0], y - closest[1]) : maxReach;
+        return this.isInsideSolid(x, y) ? -distance : distance;
+    }
+
+    /**
+     * Checks if the point is inside a solid polygon, counting the polygon sides crossed by a ray towards positive x
+     *
+     * @param x x coordinate of the point
+     * @param y y coordinate of the point
+     * @return true if the ray crosses an odd amount of sides
+     */
+    public boolean isInsideSolid(double x, double y) {
+        if (y < this.minY || y > this.minY + this.rows * this.cellSize) {
+            return false;
+        }
+        boolean inside = false;
+        int row = this.getRow(y);
+        for (int column = this.getColumn(x); column < this.columns; column++) {
+            int cell = row * this.columns + column;
+            for (int k = this.cellStart[cell]; k < this.cellStart[cell + 1]; k++) {
+                int segment = this.cellSegments[k];
+                if (!this.solid[segment] || (this.ay[segment] > y) == (this.by[segment] > y)) {
+                    continue;
+                }
+
+                // Each side is only counted in the cell where the ray crosses it
+                double crossing = this.ax[segment] + (y - this.ay[segment]) * (this.bx[segment] - this.ax[segment]) / (this.by[segment] - this.ay[segment]);
+                if (crossing >= x && this.getColumn(crossing) == column) {
+                    inside = !inside;
+                }
+            }
+        }
+        return inside;
+    }
+
+    /**
+     * Moves a disc along a displacement and finds the first time it touches a segment
+     *
+     * @param x      x coordinate of the center at the start
+     * @param y      y coordinate of the center at the start
+     * @param dx     displacement along x
+     * @param dy     displacement along y
+     * @param radius radius of the disc, 0 for a ray
+     * @param normal where the normal of the contact is stored, pointing from the segment to the center
+     * @return fraction of the displacement until the contact, between 0 and 1, or NO_CONTACT
+     */
+    public double sweep(double x, double y, double dx, double dy, double radius, double[] normal) {
+        double best = NO_CONTACT;
+        int bestSegment = -1;
+        int fromColumn = this.getColumn(Math.min(x, x + dx) - radius), toColumn = this.getColumn(Math.max(x, x + dx) + radius);
+        int fromRow = this.getRow(Math.min(y, y + dy) - radius), toRow = this.getRow(Math.max(y, y + dy) + radius);
+        for (int row = fromRow; row <= toRow; row++) {
+            for (int column = fromColumn; column <= toColumn; column++) {
+                int cell = row * this.columns + column;
+                for (int k = this.cellStart[cell]; k < this.cellStart[cell + 1]; k++) {
+                    int segment = this.cellSegments[k];
+                    double time = this.sweepSegment(segment, x, y, dx, dy, radius);
+                    if (time < best || (time == best && time != NO_CONTACT && segment < bestSegment)) {
+                        best = time;
+                        bestSegment = segment;
+                    }
+                }
+            }
+        }
+        if (bestSegment < 0) {
+            return NO_CONTACT;
+        }
+
+        // Normal from the closest point of the segment to the center at the contact
+        double cx = x + best * dx, cy = y + best * dy;
+        double distance = this.getClosestPoint(bestSegment, cx, cy, normal);
+        double nx = cx - normal[0], ny = cy - normal[1];
+        if (distance > 0) {
+            normal[0] = nx / distance;
+            normal[1] = ny / distance;
+        } else {
+            // The center is on the segment, the normal is the one facing the start
+            double ex = this.bx[bestSegment] - this.ax[bestSegment], ey = this.by[bestSegment] - this.ay[bestSegment];
+            double length = Math.sqrt(ex * ex + ey * ey);
+            double side = -ey * dx + ex * dy > 0 ? -1 : 1;
+            normal[0] = length > 0 ? side * -ey / length : 0;
+            normal[1] = length > 0 ? side * ex / length : 0;
+        }
+        return best;
+    }
+
+    /**
+     * First fraction of the displacement at which the disc touches the segment, the segment inflated by the radius
+     * is a capsule, so it is the first crossing of either its sides or the circles at its ends
+     */
+    private double sweepSegment(int segment, double x, double y, double dx, double dy, double radius) {
+        double ex = this.bx[segment] - this.ax[segment], ey = this.by[segment] - this.ay[segment];
+        double length = Math.sqrt(ex * ex + ey * ey);
+        double start = length > 0 ? ((x - this.ax[segment]) * ex + (y - this.ay[segment]) * ey) / (length * length) : 0;
+        start = Math.max(0, Math.min(1, start));
+        if (Math.hypot(x - this.ax[segment] - start * ex, y - this.ay[segment] - start * ey) <= radius) {
+            return 0;
+        }
+
+        double best = NO_CONTACT;
+        if (length > 0) {
+            // Sides of the capsule, parallel to the segment at the radius
+            double nx = -ey / length, ny = ex / length;
+            double distance = (x - this.ax[segment]) * nx + (y - this.ay[segment]) * ny;
+            double speed = dx * nx + dy * ny;
+            if (speed != 0) {
+                double t = ((distance > 0 ? radius : -radius) - distance) / speed;
+                if (t >= 0 && t <= 1) {
+                    double along = ((x + t * dx - this.ax[segment]) * ex + (y + t * dy - this.ay[segment]) * ey) / (length * length);
+                    if (along >= 0 && along <= 1) {
+                        best = t;
+                    }
+                }
+            }
+        }
+
+        // Circles at the ends
+        best = Math.min(best, sweepCircle(x - this.ax[segment], y - this.ay[segment], dx, dy, radius));
+        best = Math.min(best, sweepCircle(x - this.bx[segment], y - this.by[segment], dx, dy, radius));
+        return best;
+    }
+
+    /**
+     * First fraction of the displacement at which a point at (px, py) from the center of a circle enters it
+     */
+    private static double sweepCircle(double px, double py, double dx, double dy, double radius) {
+        double a = dx * dx + dy * dy;
+        double b = px * dx + py * dy;
+        double c = px * px + py * py - radius * radius;
+        double discriminant = b * b - a * c;
+        if (a == 0 || b >= 0 || discriminant < 0) {
+            return NO_CONTACT;
+        }
+        double t = (-b - Math.sqrt(discriminant)) / a;
+        return t >= 0 && t <= 1 ? t : NO_CONTACT;
+    }
+
+    private int getColumn(double x) {
+        double column = Math.floor((x - this.minX) / this.cellSize);
+        return (int) Math.max(0, Math.min(this.columns - 1, column));
+    }
+
+    private int getRow(double y) {
+        double row = Math.floor((y - this.minY) / this.cellSize);
+        return (int) Math.max(0, Math.min(this.rows - 1, row));
+    }
+}
@@ -0,0 +1,394 @@
+package pca;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Strip of a simulation split along x to run in several processes. Each strip owns the particles whose x is within
+ * its bounds: it steers its agents, moves its particles and hands the ones leaving its bounds to the neighbour strips.
+ * Before every step the strips tell their neighbours how far their agents search for obstacles, and get the halo
+ * from them: their particles within that distance. The reach of the search only depends on the agent and on the
+ * fastest and largest obstacles, so every agent tests the same obstacles it would in a single simulation and the
+ * steps give the same results.
+ *
+ * Every strip keeps the particles by their index in the whole simulation, which keeps the order of equally close
+ * collisions, but only its own particles and its halo are in the index and up to date.
+ * Strips only run fixed steps with the obstacles integrated every step.
+ */
+public final class StripSimulation {
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        PROPERTIES
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    private final PredictiveCollisionAvoidance simulation;
+    private final ParticleStore store;
+
+    /* Bounds of the strip, it owns the particles with lowerX <= x < upperX */
+    private final double lowerX;
+    private final double upperX;
+
+    /* Particles owned by the strip, in no particular order */
+    private final boolean[] owned;
+    private final int[] ownedParticles;
+    private int ownedCount;
+
+    /* Particles received from the neighbours in the last halo */
+    private final int[] haloParticles;
+    private int haloCount;
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        CONSTRUCTORS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Creates the strip of the given bounds of a simulation, continuing from the checkpoint
+     *
+     * @param checkpoint state of the whole simulation
+     * @param lowerX     lowest x owned by the strip, negative infinity for the first strip
+     * @param upperX     x where the next strip starts, positive infinity for the last strip
+     * @throws IllegalArgumentException if the simulation uses options strips do not support
+     */
+    public StripSimulation(SimulationCheckpoint checkpoint, double lowerX, double upperX) {
+        checkSupported(checkpoint);
+        this.simulation = checkpoint.restore();
+        this.store = this.simulation.getStore();
+        this.lowerX = lowerX;
+        this.upperX = upperX;
+
+        int particleCount = this.store.size();
+        this.owned = new boolean[particleCount];
+        this.ownedParticles = new int[particleCount];
+        this.haloParticles = new int[particleCount];
+
+        // Keeping only the own particles in the index
+        for (int i = 0; i < particleCount; i++) {
+            if (this.contains(this.store.x.get(i))) {
+                this.own(i);
+            } else {
+                this.simulation.removeObstacle(i);
+            }
+        }
+    }
+
+    /**
+     * Checks that the simulation of the checkpoint can be split in strips
+     *
+     * @param checkpoint state of the simulation
+     * @throws IllegalArgumentException if it uses adaptive steps, closed form obstacles, the activation queue, the neighbour lists,
+     *                                  contacts between the obstacles or an integrator other than semi-implicit Euler
+     */
+    public static void checkSupported(SimulationCheckpoint checkpoint) {
+        if (checkpoint.adaptiveStepping || checkpoint.motionX != null || checkpoint.activationQueue || !Double.isNaN(checkpoint.neighbourSkin)) {
+            throw new IllegalArgumentException("Strips only run fixed steps with the obstacles moved every step");
+        }
+        if (checkpoint.contactModel != null) {
+            throw new IllegalArgumentException("Strips only run obstacles that pass through each other");
+        }
+        if (checkpoint.integrator != Integrator.SEMI_IMPLICIT_EULER) {
+            throw new IllegalArgumentException("Strips only move the agents with the semi-implicit Euler integrator");
+        }
+    }
+
+    /**
+     * Splits the area of the simulation in strips of the same width. The first and last strips extend to infinity,
+     * so the particles outside of the area belong to a strip too.
+     *
+     * @param checkpoint state of the simulation
+     * @param strips     amount of strips
+     * @return the lower bound of every strip followed by the upper bound of the last one
+     */
+    public static double[] getStripBounds(SimulationCheckpoint checkpoint, int strips) {
+        if (strips < 1) {
+            throw new IllegalArgumentException("There must be at least one strip");
+        }
+        double[] bounds = new double[strips + 1];
+        for (int k = 1; k < strips; k++) {
+            bounds[k] = checkpoint.areaWidth * k / strips;
+        }
+        bounds[0] = Double.NEGATIVE_INFINITY;
+        bounds[strips] = Double.POSITIVE_INFINITY;
+        return bounds;
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        GETTERS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    public double getLowerX() {
+        return lowerX;
+    }
+
+    public double getUpperX() {
+        return upperX;
+    }
+
+    public int getOwnedCount() {
+        return ownedCount;
+    }
+
+    public int getHaloCount() {
+        return haloCount;
+    }
+
+    /**
+     * @return fastest obstacle owned by the strip, the fastest of every strip is the one of the whole simulation
+     */
+    public double getMaxObstacleSpeed() {
+        double maxSpeed = 0;
+        for (int k = 0; k < this.ownedCount; k++) {
+            int i = this.ownedParticles[k];
+            if (this.simulation.isObstacle(i)) {
+                maxSpeed = Math.max(maxSpeed, this.simulation.getSpeed(i));
+            }
+        }
+        return maxSpeed;
+    }
+
+    /**
+     * @return true if the agents of the strip reached their goal, the simulation is over once it is true for every strip
+     */
+    public boolean hasReachedGoal() {
+        for (int k = 0; k < this.ownedCount; k++) {
+            int i = this.ownedParticles[k];
+            if (i >= this.simulation.getAgentCount()) {
+                continue;
+            }
+
+            // Agents only retire in multi agent mode, the main particle alone ends the run otherwise
+            if (this.simulation.isMultiAgent() ? !this.simulation.isRetired(i) : !this.simulation.hasReachedGoal(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        METHODS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Computes how far the agents of the strip search for obstacles in the next step
+     *
+     * @param maxObstacleSpeed fastest obstacle of the whole simulation
+     * @return lowest and highest x searched, the halo needed from the neighbours
+     */
+    public double[] computeSearchBounds(double maxObstacleSpeed) {
+        this.simulation.setMaxObstacleSpeed(maxObstacleSpeed);
+        PredictiveCollisionAvoidance.SteeringState state = this.simulation.getSteeringState();
+
+        double fromX = Double.POSITIVE_INFINITY, toX = Double.NEGATIVE_INFINITY;
+        for (int k = 0; k < this.ownedCount; k++) {
+            int i = this.ownedParticles[k];
+            if (i < this.simulation.getAgentCount() && !this.simulation.isRetired(i)) {
+                double reach = this.simulation.computeSearchReach(i, state);
+                fromX = Math.min(fromX, this.store.x.get(i) - reach);
+                toX = Math.max(toX, this.store.x.get(i) + reach);
+            }
+        }
+        return new double[]{fromX, toX};
+    }
+
+    /**
+     * Writes the own obstacles within the given x range, the halo of a neighbour
+     *
+     * @param output where the particles are written
+     * @param fromX  lowest x of the range
+     * @param toX    highest x of the range
+     */
+    public void writeHalo(DataOutput output, double fromX, double toX) throws IOException {
+        int count = 0;
+        for (int k = 0; k < this.ownedCount; k++) {
+            int i = this.ownedParticles[k];
+            if (this.isInHalo(i, fromX, toX)) {
+                count++;
+            }
+        }
+        output.writeInt(count);
+        for (int k = 0; k < this.ownedCount; k++) {
+            int i = this.ownedParticles[k];
+            if (this.isInHalo(i, fromX, toX)) {
+                this.writeState(output, i);
+            }
+        }
+    }
+
+    /**
+     * Removes the halo of the last step from the index
+     */
+    public void clearHalo() {
+        for (int k = 0; k < this.haloCount; k++) {
+            int i = this.haloParticles[k];
+            if (!this.owned[i]) {
+                this.simulation.removeObstacle(i);
+            }
+        }
+        this.haloCount = 0;
+    }
+
+    /**
+     * Reads the halo written by a neighbour and adds its particles to the index
+     *
+     * @param input where the particles are read from
+     */
+    public void readHalo(DataInput input) throws IOException {
+        int count = this.readCount(input);
+        for (int k = 0; k < count; k++) {
+            int i = this.readState(input);
+            this.haloParticles[this.haloCount++] = i;
+            this.simulation.indexObstacle(i);
+        }
+    }
+
+    /**
+     * Steers the agents of the strip and then moves its particles, the halo must be up to date
+     *
+     * @return fastest obstacle owned by the strip after the step
+     */
+    public double step() {
+        PredictiveCollisionAvoidance.SteeringState state = this.simulation.getSteeringState();
+        for (int k = 0; k < this.ownedCount; k++) {
+            int i = this.ownedParticles[k];
+            if (i < this.simulation.getAgentCount() && !this.simulation.isRetired(i)) {
+                this.simulation.steerAgent(i, state);
+            }
+        }
+
+        double maxSpeed = 0;
+        for (int k = 0; k < this.ownedCount; k++) {
+            maxSpeed = Math.max(maxSpeed, this.simulation.updateParticle(this.ownedParticles[k]));
+        }
+        return maxSpeed;
+    }
+
+    /**
+     * Writes the own particles that left the strip through one of its sides, which stop being owned by it
+     *
+     * @param output where the particles are written
+     * @param lower  true for the particles under the lower bound, false for the ones over the upper bound
+     */
+    public void writeMigrants(DataOutput output, boolean lower) throws IOException {
+        int count = 0;
+        for (int k = 0; k < this.ownedCount; k++) {
+            if (this.isMigrant(this.ownedParticles[k], lower)) {
+                count++;
+            }
+        }
+        output.writeInt(count);
+
+        int k = 0;
+        while (k < this.ownedCount) {
+            int i = this.ownedParticles[k];
+            if (!this.isMigrant(i, lower)) {
+                k++;
+                continue;
+            }
+            this.writeState(output, i);
+            output.writeBoolean(this.simulation.isRetired(i));
+
+            // Swapping the last particle into the free slot
+            this.owned[i] = false;
+            this.ownedParticles[k] = this.ownedParticles[--this.ownedCount];
+            this.simulation.removeObstacle(i);
+        }
+    }
+
+    /**
+     * Reads the particles a neighbour wrote as migrants, which are owned by the strip from now on
+     *
+     * @param input where the particles are read from
+     */
+    public void readMigrants(DataInput input) throws IOException {
+        int count = this.readCount(input);
+        for (int k = 0; k < count; k++) {
+            int i = this.readState(input);
+            if (input.readBoolean()) {
+                this.simulation.retire(i);
+            }
+            this.own(i);
+        }
+    }
+
+    /**
+     * Writes the state of every own particle, the frame of the whole simulation has the particles of every strip
+     *
+     * @param output where the particles are written
+     */
+    public void writeParticles(DataOutput output) throws IOException {
+        output.writeInt(this.ownedCount);
+        for (int k = 0; k < this.ownedCount; k++) {
+            this.writeState(output, this.ownedParticles[k]);
+        }
+    }
+
+    /**
+     * Reads the particles written by a strip into the store of the whole simulation
+     *
+     * @param input where the particles are read from
+     * @param store store where the state of the particles is copied
+     * @return amount of particles read
+     */
+    public static int readParticles(DataInput input, ParticleStore store) throws IOException {
+        int count = input.readInt();
+        if (count < 0 || count > store.size()) {
+            throw new IOException("Invalid amount of particles " + count);
+        }
+        for (int k = 0; k < count; k++) {
+            readState(input, store);
+        }
+        return count;
+    }
+
+    private boolean contains(double x) {
+        return x >= this.lowerX && x < this.upperX;
+    }
+
+    /**
+     * Takes the particle as own, adding it to the index if it is an obstacle
+     */
+    private void own(int i) {
+        this.owned[i] = true;
+        this.ownedParticles[this.ownedCount++] = i;
+        if (this.simulation.isObstacle(i)) {
+            this.simulation.indexObstacle(i);
+        }
+    }
+
+    private boolean isInHalo(int i, double fromX, double toX) {
+        return this.simulation.isObstacle(i) && this.store.x.get(i) >= fromX && this.store.x.get(i) <= toX;
+    }
+
+    private boolean isMigrant(int i, boolean lower) {
+        return lower ? this.store.x.get(i) < this.lowerX : this.store.x.get(i) >= this.upperX;
+    }
+
+    private int readCount(DataInput input) throws IOException {
+        int count = input.readInt();
+        if (count < 0 || count > this.store.size()) {
+            throw new IOException("Invalid amount of particles " + count);
+        }
+        return count;
+    }
+
+    private void writeState(DataOutput output, int i) throws IOException {
+        output.writeInt(i);
+        output.writeDouble(this.store.x.get(i));
+        output.writeDouble(this.store.y.get(i));
+        output.writeDouble(this.store.vx.get(i));
+        output.writeDouble(this.store.vy.get(i));
+    }
+
+    private int readState(DataInput input) throws IOException {
+        return readState(input, this.store);
+    }
+
+    private static int readState(DataInput input, ParticleStore store) throws IOException {
+        int i = input.readInt();
+        if (i < 0 || i >= store.size()) {
+            throw new IOException("Invalid particle " + i);
+        }
+        store.setPosition(i, input.readDouble(), input.readDouble());
+        store.setVelocity(i, input.readDouble(), input.readDouble());
+        return i;
+    }
+}
@@ -0,0 +1,116 @@
+package pca;
+
+/**
+ * Keeps the K closest collisions offered to it, ordered by time, then by distance and then by index.
+ * The collisions are kept in fixed size primitive arrays, so it can be cleared and reused without allocations.
+ */
+public final class TopKSelector {
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        PROPERTIES
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    private final int limit;
+    private final double[] times;
+    private final double[] distances;
+    private final int[] indexes;
+    private int count;
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        CONSTRUCTORS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * @param limit amount of collisions to keep
+     */
+    public TopKSelector(int limit) {
+        this.limit = limit;
+        this.times = new double[limit];
+        this.distances = new double[limit];
+        this.indexes = new int[limit];
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        GETTERS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    public int size() {
+        return count;
+    }
+
+    public double getTime(int k) {
+        return times[k];
+    }
+
+    public double getDistance(int k) {
+        return distances[k];
+    }
+
+    public int getIndex(int k) {
+        return indexes[k];
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        METHODS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    public void clear() {
+        this.count = 0;
+    }
+
+    /**
+     * Tells if a collision at the given time could be kept, without needing its distance.
+     * Collisions rejected here would be discarded by offer.
+     *
+     * @param time time to the collision
+     * @return false if the selector is full and every kept collision happens before
+     */
+    public boolean accepts(double time) {
+        return this.count < this.limit || Double.compare(time, this.times[this.limit - 1]) <= 0;
+    }
+
+    /**
+     * Inserts the collision in order, discarding the last one if there are too many
+     *
+     * @param time     time to the collision
+     * @param distance distance to the particle
+     * @param index    index of the particle
+     */
+    public void offer(double time, double distance, int index) {
+        // Finding the position of the new collision
+        int position = this.count;
+        while (position > 0 && compare(time, distance, index, this.times[position - 1], this.distances[position - 1], this.indexes[position - 1]) < 0) {
+            position--;
+        }
+        if (position >= this.limit) {
+            return;
+        }
+
+        // Shifting the collisions after it
+        int last = Math.min(this.count, this.limit - 1);
+        for (int k = last; k > position; k--) {
+            this.times[k] = this.times[k - 1];
+            this.distances[k] = this.distances[k - 1];
+            this.indexes[k] = this.indexes[k - 1];
+        }
+
+        this.times[position] = time;
+        this.distances[position] = distance;
+        this.indexes[position] = index;
+        this.count = Math.min(this.count + 1, this.limit);
+    }
+
+    /**
+     * Orders collisions by time, then by distance and then by index
+     */
+    private static int compare(double time1, double distance1, int index1, double time2, double distance2, int index2) {
+        int first = Double.compare(time1, time2);
+        if (first != 0){
+            return first;
+        }
+        int second = Double.compare(distance1, distance2);
+        if (second != 0){
+            return second;
+        }
+        return Integer.compare(index1, index2);
+    }
+}
@@ -0,0 +1,223 @@
+package pca;
+
+/**
+ * Keeps only the frames around the events of an agent instead of every frame of the run. The last frames are kept
+ * in a ring buffer of reused arrays, and once an event is triggered they are handed to the output sink together with
+ * the frames that follow, so the frames written grow with the amount of events and not with the length of the run.
+ *
+ * Events are checked after every dt step: the agent predicting a collision sooner than the threshold, the agent
+ * overlapping an obstacle and the agent closer to a wall than the safe wall distance. An event is counted when
+ * its condition starts to hold, the frames are kept for as long as it holds.
+ * The buffered frames are arrays on the heap unless off-heap frames are given, which large crowds need.
+ * It has to be both the frame sink and an observer of the simulation.
+ */
+public class TriggeredCapture implements FrameSink, SimulationObserver {
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        PROPERTIES
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Conditions that trigger the capture
+     */
+    public enum Trigger {
+        PREDICTED_COLLISION, OVERLAP, WALL
+    }
+
+    private final int agent;
+    private final double collisionTimeThreshold;
+    private final int framesAfter;
+    private final FrameSink output;
+
+    /* Ring buffer with the frames not handed to the output yet, from the oldest one */
+    private final int framesBefore;
+    private double[][] frames;
+    private final double[] times;
+    private final OffHeapFrames offHeapFrames;
+    private int first;
+    private int count;
+
+    /* Store the buffered frames are loaded into to hand them to the output */
+    private ParticleStore replay;
+
+    /* Frames still to be written after the last step with an event */
+    private int remainingAfter;
+    private boolean triggered;
+
+    /* Events of the last step and amount of times each one started */
+    private final boolean[] active = new boolean[Trigger.values().length];
+    private final long[] events = new long[Trigger.values().length];
+    private long framesWritten;
+    private int[] candidates;
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        CONSTRUCTORS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * @param agent                  index of the agent whose events are captured
+     * @param collisionTimeThreshold predicted collisions sooner than this time trigger the capture
+     * @param framesBefore           amount of frames kept before each event
+     * @param framesAfter            amount of frames kept after each event
+     * @param output                 sink the captured frames are handed to
+     */
+    public TriggeredCapture(int agent, double collisionTimeThreshold, int framesBefore, int framesAfter, FrameSink output) {
+        this(agent, collisionTimeThreshold, framesBefore, framesAfter, output, null);
+    }
+
+    /**
+     * @param agent                  index of the agent whose events are captured
+     * @param collisionTimeThreshold predicted collisions sooner than this time trigger the capture
+     * @param framesBefore           amount of frames kept before each event
+     * @param framesAfter            amount of frames kept after each event
+     * @param output                 sink the captured frames are handed to
+     * @param offHeapFrames          empty frames the frames before the events are kept in, null to keep them on the heap
+     */
+    public TriggeredCapture(int agent, double collisionTimeThreshold, int framesBefore, int framesAfter, FrameSink output, OffHeapFrames offHeapFrames) {
+        if (framesBefore < 0 || framesAfter < 0) {
+            throw new IllegalArgumentException("The amount of frames kept around the events can not be negative");
+        }
+        this.agent = agent;
+        this.collisionTimeThreshold = collisionTimeThreshold;
+        this.framesBefore = framesBefore;
+        this.framesAfter = framesAfter;
+        this.output = output;
+        this.times = new double[framesBefore];
+        this.offHeapFrames = offHeapFrames;
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        GETTERS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * @return amount of times the condition of the trigger started to hold
+     */
+    public long getEvents(Trigger trigger) {
+        return events[trigger.ordinal()];
+    }
+
+    public long getFramesWritten() {
+        return framesWritten;
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////
+    //                                        METHODS
+    //////////////////////////////////////////////////////////////////////////////////////////
+
+    @Override
+    public void onStart(PredictiveCollisionAvoidance simulation) {
+        int particleCount = simulation.getStore().size();
+        if (this.offHeapFrames != null) {
+            this.offHeapFrames.clear();
+        } else {
+            this.frames = new double[this.framesBefore][particleCount * 4];
+        }
+        // Replaying a store kept off the heap in a store on the heap would need as much heap as it
+        this.replay = simulation.getStore().isOffHeap() ? ParticleStore.allocateDirect(particleCount) : new ParticleStore(particleCount);
+        this.candidates = new int[particleCount];
+        this.first = 0;
+        this.count = 0;
+        this.remainingAfter = 0;
+        this.triggered = false;
+    }
+
+    @Override
+    public void onStep(PredictiveCollisionAvoidance simulation) {
+        boolean any = false;
+        for (Trigger trigger : Trigger.values()) {
+            boolean holds = this.holds(simulation, trigger);
+            if (holds && !this.active[trigger.ordinal()]) {
+                this.events[trigger.ordinal()]++;
+            }
+            this.active[trigger.ordinal()] = holds;
+            any |= holds;
+        }
+
+        // The frames after an event are counted from the last step it held
+        if (any) {
+            this.triggered = true;
+            this.remainingAfter = this.framesAfter;
+        }
+    }
+
+    @Override
+    public void accept(double time, ParticleStore store) {
+        // Writing the frames before the event, and the current one while the event holds or right after it
+        if (this.triggered || this.remainingAfter > 0) {
+            this.flush();
+            this.output.accept(time, store);
+            this.framesWritten++;
+            if (!this.triggered) {
+                this.remainingAfter--;
+            }
+            this.triggered = false;
+            return;
+        }
+
+        // Keeping the frame in place of the oldest one
+        if (this.framesBefore == 0) {
+            return;
+        }
+        int slot = (this.first + this.count) % this.framesBefore;
+        if (this.count == this.framesBefore) {
+            this.first = (this.first + 1) % this.framesBefore;
+        } else {
+            this.count++;
+        }
+        if (this.offHeapFrames == null) {
+            store.copyState(this.frames[slot]);
+        } else if (slot < this.offHeapFrames.getFrameCount()) {
+            this.offHeapFrames.set(slot, time, store);
+        } else {
+            this.offHeapFrames.accept(time, store);
+        }
+        this.times[slot] = time;
+    }
+
+    /**
+     * Hands the buffered frames to the output, from the oldest one
+     */
+    private void flush() {
+        for (int k = 0; k < this.count; k++) {
+            int slot = (this.first + k) % this.framesBefore;
+            if (this.offHeapFrames != null) {
+                this.offHeapFrames.load(slot, this.replay);
+            } else {
+                this.replay.loadState(this.frames[slot]);
+            }
+            this.output.accept(this.times[slot], this.replay);
+            this.framesWritten++;
+        }
+        this.first = 0;
+        this.count = 0;
+    }
+
+    private boolean holds(PredictiveCollisionAvoidance simulation, Trigger trigger) {
+        switch (trigger) {
+            case PREDICTED_COLLISION:
+                return simulation.getPredictedCollisionTime(this.agent) < this.collisionTimeThreshold;
+            case OVERLAP:
+                return this.isOverlapping(simulation);
+            default:
+                return simulation.getWallClearance(this.agent) < simulation.getSafeWallDistance();
+        }
+    }
+
+    /**
+     * Checks if the agent overlaps any obstacle, found with the spatial index of the simulation
+     */
+    private boolean isOverlapping(PredictiveCollisionAvoidance simulation) {
+        ParticleStore store = simulation.getStore();
+        double x = store.x.get(this.agent), y = store.y.get(this.agent), radius = store.radius.get(this.agent);
+
+        int candidateCount = simulation.queryObstacles(x, y, radius + simulation.getMaxObstacleRadius(), this.candidates);
+        for (int k = 0; k < candidateCount; k++) {
+            int j = this.candidates[k];
+            double dx = x - store.x.get(j), dy = y - store.y.get(j);
+            if (j != this.agent && Math.sqrt(dx * dx + dy * dy) - radius - store.radius.get(j) <= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+}